@@ -0,0 +1,65 @@
+package org.avaje.freemarker.layout;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of the head and body content and rendering of a page with variables and breadcrumbs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ContentParseBenchmark {
+
+  @Param({"10", "100", "500"})
+  int pageSizeKb;
+
+  private String page;
+
+  private PageContent pageContent;
+
+  @Setup
+  public void setup() {
+    page = TemplateGenerator.page(null, pageSizeKb * 1024);
+    pageContent = new PageContent("page.html", page);
+  }
+
+  @Benchmark
+  public LayoutTokens tokenize() {
+    return LayoutTokens.page("page.html", page);
+  }
+
+  @Benchmark
+  public PageContent pageParse() {
+    return new PageContent("page.html", page);
+  }
+
+  @Benchmark
+  public HeadContent headParse() {
+    return HeadContent.parse("page.html", page);
+  }
+
+  @Benchmark
+  public BodyContent bodyParse() {
+    return BodyContent.parse("page.html", page);
+  }
+
+  @Benchmark
+  public String renderContent() {
+    return pageContent.renderContent();
+  }
+}
@@ -0,0 +1,111 @@
+package org.avaje.freemarker.layout;
+
+import freemarker.cache.StringTemplateLoader;
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+import org.avaje.freemarker.ConfigurationBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cold load of many pages that inherit the same layouts with textual merging versus runtime composition.
+ * <p>
+ * The heap retained by the loaded templates is measured once per trial and printed as this is
+ * the main difference between the modes. With textual merging each page holds its own parsed copy
+ * of the layouts while with runtime composition the parsed layout templates are shared.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LayoutCompositionBenchmark {
+
+  @Param({"textual", "runtime"})
+  String mode;
+
+  @Param({"500"})
+  int pages;
+
+  @Param({"1", "3"})
+  int layoutDepth;
+
+  private Configuration configuration;
+
+  @Setup
+  public void setup() {
+    StringTemplateLoader templates = new StringTemplateLoader();
+    for (int level = 0; level < layoutDepth; level++) {
+      templates.putTemplate(TemplateGenerator.layoutName(level), TemplateGenerator.layout(level));
+    }
+    String page = TemplateGenerator.page(TemplateGenerator.layoutName(layoutDepth - 1), 4 * 1024);
+    for (int i = 0; i < pages; i++) {
+      templates.putTemplate(pageName(i), page);
+    }
+
+    LayoutLoaderBuilder loaderBuilder = new LayoutLoaderBuilder();
+    loaderBuilder.setTemplateLoader(templates);
+    loaderBuilder.setRuntimeComposition("runtime".equals(mode));
+
+    ConfigurationBuilder builder = new ConfigurationBuilder();
+    builder.setTemplateLoader(loaderBuilder.build());
+    configuration = builder.build();
+  }
+
+  @Benchmark
+  public List<Template> loadAll() throws IOException {
+    configuration.clearTemplateCache();
+    List<Template> loaded = new ArrayList<>(pages + layoutDepth);
+    for (int i = 0; i < pages; i++) {
+      loaded.add(configuration.getTemplate(pageName(i)));
+    }
+    if ("runtime".equals(mode)) {
+      for (int level = 0; level < layoutDepth; level++) {
+        loaded.add(configuration.getTemplate(TemplateGenerator.layoutName(level) + LayoutComposer.LAYOUT_SUFFIX));
+      }
+    }
+    return loaded;
+  }
+
+  /**
+   * Print the heap retained by all the loaded templates.
+   */
+  @TearDown
+  public void retainedHeap() throws IOException {
+    configuration.clearTemplateCache();
+    long before = usedHeap();
+    List<Template> loaded = loadAll();
+    long retained = usedHeap() - before;
+    System.out.printf("%n%s layoutDepth:%d retained heap for %d templates: %d KB (%d bytes per page)%n",
+      mode, layoutDepth, loaded.size(), retained / 1024, retained / pages);
+  }
+
+  private static long usedHeap() {
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+  }
+
+  private static String pageName(int i) {
+    return "page" + i + ".html";
+  }
+}
@@ -0,0 +1,46 @@
+package org.avaje.freemarker.layout;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merge of a page with 1, 2 and 4 level layout chains.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RawTemplateInheritBenchmark {
+
+  @Param({"1", "2", "4"})
+  int layoutDepth;
+
+  @Param({"10", "100", "500"})
+  int pageSizeKb;
+
+  private RawTemplateInherit inherit;
+
+  @Setup
+  public void setup() {
+    inherit = new RawTemplateInherit(TemplateGenerator.source(TemplateGenerator.templates(layoutDepth, pageSizeKb)), null);
+  }
+
+  @Benchmark
+  public String getSource() throws IOException {
+    return inherit.getSource(TemplateGenerator.PAGE, "UTF-8");
+  }
+}
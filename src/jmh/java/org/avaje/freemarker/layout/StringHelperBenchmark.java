@@ -0,0 +1,54 @@
+package org.avaje.freemarker.layout;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Search and replace over generated pages with and without matches.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StringHelperBenchmark {
+
+  private static final String[] NEW_LINES = {"\r\n", "\r", "\n"};
+
+  @Param({"10", "100", "500"})
+  int pageSizeKb;
+
+  private String page;
+
+  @Setup
+  public void setup() {
+    page = TemplateGenerator.page(null, pageSizeKb * 1024);
+  }
+
+  @Benchmark
+  public String replaceString() {
+    return StringHelper.replaceString(page, "$var1", "replacement value");
+  }
+
+  @Benchmark
+  public String replaceString_noMatch() {
+    return StringHelper.replaceString(page, Tags.layoutBodyTag, "replacement value");
+  }
+
+  @Benchmark
+  public String replaceStringMulti() {
+    return StringHelper.replaceStringMulti(page, NEW_LINES, "<br/>");
+  }
+}
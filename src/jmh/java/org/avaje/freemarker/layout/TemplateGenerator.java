@@ -0,0 +1,126 @@
+package org.avaje.freemarker.layout;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Generates realistic templates for the benchmarks.
+ * <p>
+ * A page of a given size inherits from a chain of layouts where <code>layout/level0.html</code> is
+ * the root layout. Pages contain FreeMarker interpolations, head variables and breadcrumbs.
+ * </p>
+ */
+final class TemplateGenerator {
+
+  static final String PAGE = "page.html";
+
+  private TemplateGenerator() {
+  }
+
+  /**
+   * Return the page and its layouts keyed by template name.
+   */
+  static Map<String, String> templates(int layoutDepth, int pageSizeKb) {
+    Map<String, String> templates = new LinkedHashMap<>();
+    templates.put(PAGE, page(layoutDepth == 0 ? null : layoutName(layoutDepth - 1), pageSizeKb * 1024));
+    for (int level = 0; level < layoutDepth; level++) {
+      templates.put(layoutName(level), layout(level));
+    }
+    return templates;
+  }
+
+  /**
+   * Write the templates to the directory.
+   */
+  static void write(Path dir, Map<String, String> templates) throws IOException {
+    for (Map.Entry<String, String> entry : templates.entrySet()) {
+      Path path = dir.resolve(entry.getKey());
+      Files.createDirectories(path.getParent());
+      Files.write(path, entry.getValue().getBytes(StandardCharsets.UTF_8));
+    }
+  }
+
+  /**
+   * Return a RawTemplateSource for the templates.
+   */
+  static RawTemplateSource source(Map<String, String> templates) {
+    return new RawTemplateSource() {
+      @Override
+      public String getSource(String templateName, String encoding) {
+        return templates.get(templateName);
+      }
+
+      @Override
+      public long getLastModified(String templateName) {
+        return 1;
+      }
+    };
+  }
+
+  static String layoutName(int level) {
+    return "layout/level" + level + ".html";
+  }
+
+  static String layout(int level) {
+    StringBuilder sb = new StringBuilder(4096);
+    sb.append("<!doctype html>\n<html lang=\"en\">\n<head>\n");
+    sb.append("  <title>Layout ").append(level).append("</title>\n");
+    if (level > 0) {
+      sb.append("  <meta name=\"layout\" content=\"").append(layoutName(level - 1)).append("\"/>\n");
+    }
+    sb.append("  <meta charset=\"utf-8\">\n");
+    sb.append("  <meta name=\"viewport\" content=\"width=device-width, initial-scale=1\">\n");
+    sb.append("  <link rel=\"stylesheet\" href=\"/css/level").append(level).append(".css\">\n");
+    sb.append("  <meta id=\"layout-head\"/>\n");
+    sb.append("  <script src=\"/js/level").append(level).append(".js\"></script>\n");
+    sb.append("  <var id=\"footer").append(level).append("\">&copy; level ").append(level).append("</var>\n");
+    sb.append("  <meta name=\"bread0\" content=\"Home\" href=\"/\"/>\n");
+    sb.append("</head>\n<body class=\"level").append(level).append("\">\n");
+    if (level == 0) {
+      sb.append("<h1 id=\"bread\">$breadcrumb</h1>\n");
+    }
+    sb.append("<nav class=\"level").append(level).append("\">\n  <ul>\n");
+    for (int i = 0; i < 20; i++) {
+      sb.append("    <li><a href=\"/section").append(i).append("\" class=\"${active").append(i).append("!}\">Section ").append(i).append("</a></li>\n");
+    }
+    sb.append("  </ul>\n</nav>\n");
+    sb.append("<div id=\"layout-body\"></div>\n");
+    sb.append("<footer>$footer").append(level).append(" $title</footer>\n");
+    sb.append("</body>\n</html>\n");
+    return sb.toString();
+  }
+
+  static String page(String parentLayout, int size) {
+    StringBuilder sb = new StringBuilder(size + 2048);
+    sb.append("<html>\n<head>\n");
+    sb.append("  <title>Generated page</title>\n");
+    if (parentLayout != null) {
+      sb.append("  <meta name=\"layout\" content=\"").append(parentLayout).append("\"/>\n");
+    }
+    sb.append("  <meta name=\"bread1\" content=\"Docs\" href=\"/docs\"/>\n");
+    sb.append("  <meta name=\"bread2\" content=\"Page\" href=\"/docs/page\"/>\n");
+    sb.append("  <meta name=\"description\" content=\"generated page for benchmarks\"/>\n");
+    for (int i = 0; i < 15; i++) {
+      sb.append("  <var id=\"var").append(i).append("\">value ").append(i).append("</var>\n");
+    }
+    sb.append("  <template id=\"title\">Generated</template>\n");
+    sb.append("</head>\n<body onload=\"init()\">\n");
+    int row = 0;
+    while (sb.length() < size) {
+      sb.append("<section id=\"s").append(row).append("\">\n");
+      sb.append("  <h2>Heading $var").append(row % 15).append("</h2>\n");
+      sb.append("  <p>Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do eiusmod tempor incididunt ut labore et dolore magna aliqua. ");
+      sb.append("Ut enim ad minim veniam, quis nostrud exercitation ullamco laboris nisi ut aliquip ex ea commodo consequat.</p>\n");
+      sb.append("  <#list items as item><p class=\"item\">${item.name} - ${item.price}</p></#list>\n");
+      sb.append("  <svg viewBox=\"0 0 24 24\"><path d=\"M12 2C6.48 2 2 6.48 2 12s4.48 10 10 10 10-4.48 10-10S17.52 2 12 2zm0 18c-4.41 0-8-3.59-8-8s3.59-8 8-8 8 3.59 8 8-3.59 8-8 8z\"/></svg>\n");
+      sb.append("</section>\n");
+      row++;
+    }
+    sb.append("</body>\n</html>\n");
+    return sb.toString();
+  }
+}
@@ -0,0 +1,73 @@
+package org.avaje.freemarker.layout;
+
+import freemarker.cache.FileTemplateLoader;
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+import freemarker.cache.TemplateLoader;
+import org.avaje.freemarker.ConfigurationBuilder;
+import org.avaje.freemarker.PathTemplateLoader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cold load of a template via Configuration.getTemplate() through InheritLayoutTemplateLoader.
+ * <p>
+ * The FreeMarker template cache is cleared before each invocation such that each load reads,
+ * merges and parses the template.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TemplateLoadBenchmark {
+
+  @Param({"1", "2", "4"})
+  int layoutDepth;
+
+  @Param({"10", "100", "500"})
+  int pageSizeKb;
+
+  @Param({"file", "path"})
+  String baseLoader;
+
+  private Configuration configuration;
+
+  @Setup
+  public void setup() throws IOException {
+    Path dir = Files.createTempDirectory("jmh-templates");
+    TemplateGenerator.write(dir, TemplateGenerator.templates(layoutDepth, pageSizeKb));
+
+    ConfigurationBuilder builder = new ConfigurationBuilder();
+    TemplateLoader base = "path".equals(baseLoader) ? new PathTemplateLoader(dir) : new FileTemplateLoader(dir.toFile());
+    builder.setTemplateLoader(InheritLayoutTemplateLoader.wrap(base, null));
+    configuration = builder.build();
+  }
+
+  @Setup(Level.Invocation)
+  public void clearCache() {
+    configuration.clearTemplateCache();
+  }
+
+  @Benchmark
+  public Template getTemplate() throws IOException {
+    return configuration.getTemplate(TemplateGenerator.PAGE);
+  }
+}
@@ -0,0 +1,264 @@
+package org.avaje.freemarker;
+
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Renders templates off the container request threads writing the output with servlet non-blocking IO.
+ * <p>
+ * The template is processed on the render executor (virtual threads when available) and the output is
+ * written via a WriteListener as the client accepts it. A slow client blocks the render thread once the
+ * buffered chunks are full rather than holding a container thread. Static pages registered with
+ * {@link StaticPages} are written as pre-encoded bytes with a content length without processing the template.
+ * </p>
+ * <p>
+ * When the client fails or the async timeout is reached the AsyncContext is completed, the returned
+ * future completes exceptionally and a render thread blocked on the client fails with an IOException.
+ * </p>
+ * <p>
+ * Close the renderer when the application stops to shut down the render executor it created (an
+ * executor set via {@link ConfigurationBuilder#setRenderExecutor(Executor)} is left to its owner).
+ * </p>
+ * <pre>{@code
+ *
+ *   // in the servlet (with async supported)
+ *   renderer.render(request, "page.html", model);
+ *
+ *   // in ServletContextListener.contextDestroyed()
+ *   renderer.close();
+ *
+ * }</pre>
+ *
+ * @see ConfigurationBuilder#buildAsyncRenderer(Configuration)
+ */
+public class AsyncRenderer implements AutoCloseable {
+
+  private static final Logger log = LoggerFactory.getLogger(AsyncRenderer.class);
+
+  static final int CHUNK_SIZE = 8192;
+
+  static final int MAX_CHUNKS = 8;
+
+  private final Configuration configuration;
+
+  private final Executor executor;
+
+  private final boolean ownsExecutor;
+
+  private final Charset charset;
+
+  private final StaticText staticText;
+
+  private final StaticPages staticPages;
+
+  private final long timeoutMillis;
+
+  AsyncRenderer(Configuration configuration, Executor executor, boolean ownsExecutor, Charset charset, StaticText staticText, StaticPages staticPages, long timeoutMillis) {
+    this.configuration = configuration;
+    this.executor = executor;
+    this.ownsExecutor = ownsExecutor;
+    this.charset = charset;
+    this.staticText = staticText;
+    this.staticPages = staticPages != null && staticPages.getCharset().equals(charset) ? staticPages : null;
+    this.timeoutMillis = timeoutMillis;
+  }
+
+  /**
+   * Return an executor using a virtual thread per task when supported by the JVM and otherwise
+   * a fixed pool of daemon threads.
+   */
+  public static ExecutorService defaultExecutor(int poolSize) {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (ReflectiveOperationException e) {
+      log.debug("virtual threads not available, using pool of {} render threads", poolSize);
+      return Executors.newFixedThreadPool(poolSize, new RenderThreadFactory());
+    }
+  }
+
+  /**
+   * Shut down the render executor if it was created for this renderer.
+   * <p>
+   * Renders in progress complete and later renders fail. An executor set via
+   * {@link ConfigurationBuilder#setRenderExecutor(Executor)} is not shut down.
+   * </p>
+   */
+  @Override
+  public void close() {
+    if (ownsExecutor && executor instanceof ExecutorService) {
+      ((ExecutorService) executor).shutdown();
+    }
+  }
+
+  /**
+   * Start async processing of the request and render the template to the response.
+   */
+  public CompletableFuture<Void> render(ServletRequest request, String templateName, Object model) {
+    return render(request.startAsync(), templateName, model);
+  }
+
+  /**
+   * Render the template to the response of the started AsyncContext completing it when done.
+   */
+  public CompletableFuture<Void> render(AsyncContext asyncContext, String templateName, Object model) {
+
+    CompletableFuture<Void> future = new CompletableFuture<>();
+    try {
+      asyncContext.setTimeout(timeoutMillis);
+      ServletResponse response = asyncContext.getResponse();
+      if (response.getContentType() == null) {
+        response.setContentType("text/html;charset=" + charset.name());
+      }
+      ServletOutputStream out = response.getOutputStream();
+      AsyncResponseStream stream = new AsyncResponseStream(out, CHUNK_SIZE, MAX_CHUNKS, TimeUnit.MILLISECONDS.toNanos(timeoutMillis), () -> {
+        asyncContext.complete();
+        future.complete(null);
+      }, e -> aborted(asyncContext, templateName, e, future));
+      asyncContext.addListener(new StreamListener(stream, future));
+      out.setWriteListener(stream);
+      executor.execute(() -> process(asyncContext, templateName, model, stream, future));
+    } catch (Exception e) {
+      failed(asyncContext, templateName, e, future);
+    }
+    return future;
+  }
+
+  private void process(AsyncContext asyncContext, String templateName, Object model, AsyncResponseStream stream, CompletableFuture<Void> future) {
+    try {
+      Template template = configuration.getTemplate(templateName);
+      byte[] staticPage = staticPage(template);
+      if (staticPage != null) {
+        asyncContext.getResponse().setContentLength(staticPage.length);
+        stream.write(staticPage);
+        stream.close();
+        return;
+      }
+      Writer writer = staticText != null ? staticText.writer(stream) : new BufferedWriter(new OutputStreamWriter(stream, charset), CHUNK_SIZE);
+      template.process(model, writer);
+      writer.close();
+    } catch (Exception e) {
+      if (stream.fail(e)) {
+        failed(asyncContext, templateName, e, future);
+      }
+    }
+  }
+
+  /**
+   * Return the pre-encoded content when the template is a static page.
+   * <p>
+   * The content is kept on the Template by a Configuration built by ConfigurationBuilder. Otherwise
+   * static pages are registered by the name of the merged template which is the name of the
+   * template when localized lookup is not used.
+   * </p>
+   */
+  private byte[] staticPage(Template template) {
+    if (staticPages == null) {
+      return null;
+    }
+    if (configuration instanceof StaticContentConfiguration) {
+      return staticPages.bytes(template);
+    }
+    return configuration.getLocalizedLookup() ? null : staticPages.bytes(template.getName());
+  }
+
+  private void failed(AsyncContext asyncContext, String templateName, Exception e, CompletableFuture<Void> future) {
+    log.error("Error rendering template " + templateName, e);
+    try {
+      ServletResponse response = asyncContext.getResponse();
+      if (response instanceof HttpServletResponse && !response.isCommitted()) {
+        ((HttpServletResponse) response).setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+      }
+      asyncContext.complete();
+    } catch (RuntimeException completeError) {
+      log.debug("Error completing async context", completeError);
+    }
+    future.completeExceptionally(e);
+  }
+
+  /**
+   * The client failed or the async timeout was reached before the response was written.
+   */
+  private void aborted(AsyncContext asyncContext, String templateName, Throwable e, CompletableFuture<Void> future) {
+    log.debug("Response aborted rendering template {}", templateName, e);
+    try {
+      asyncContext.complete();
+    } catch (RuntimeException completeError) {
+      log.debug("Error completing async context", completeError);
+    }
+    future.completeExceptionally(e);
+  }
+
+  /**
+   * Fails the stream on timeout, error or completion of the AsyncContext by the container.
+   */
+  private static class StreamListener implements AsyncListener {
+
+    private final AsyncResponseStream stream;
+
+    private final CompletableFuture<Void> future;
+
+    StreamListener(AsyncResponseStream stream, CompletableFuture<Void> future) {
+      this.stream = stream;
+      this.future = future;
+    }
+
+    @Override
+    public void onTimeout(AsyncEvent event) {
+      stream.onError(new IOException("Async timeout writing response"));
+    }
+
+    @Override
+    public void onError(AsyncEvent event) {
+      Throwable error = event.getThrowable();
+      stream.onError(error != null ? error : new IOException("Async error writing response"));
+    }
+
+    @Override
+    public void onComplete(AsyncEvent event) {
+      IOException error = new IOException("Async context completed before writing response");
+      if (stream.fail(error)) {
+        // completed by the container before the response was written
+        future.completeExceptionally(error);
+      }
+    }
+
+    @Override
+    public void onStartAsync(AsyncEvent event) {
+      // not used
+    }
+  }
+
+  private static class RenderThreadFactory implements ThreadFactory {
+
+    private final AtomicInteger counter = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "template-render-" + counter.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
@@ -0,0 +1,216 @@
+package org.avaje.freemarker;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * OutputStream used by the render thread that hands chunks to a non-blocking ServletOutputStream.
+ * <p>
+ * Chunks are written to the servlet stream while it is ready, otherwise they are queued until the
+ * container calls <code>onWritePossible</code>. When the queue is full the render thread blocks
+ * such that a slow client holds a render thread (cheap when it is a virtual thread) rather than
+ * a container thread or unbounded memory.
+ * </p>
+ * <p>
+ * The stream ends either completed (<code>onComplete</code> run once all chunks are written) or
+ * failed (<code>onError</code> run with the error of the client, the async timeout or waiting longer
+ * than the timeout for the client to accept a chunk) waking a blocked render thread.
+ * </p>
+ */
+class AsyncResponseStream extends OutputStream implements WriteListener {
+
+  private final ServletOutputStream out;
+
+  private final int chunkSize;
+
+  private final int maxChunks;
+
+  private final long timeoutNanos;
+
+  private final Runnable onComplete;
+
+  private final Consumer<Throwable> onError;
+
+  private final ReentrantLock lock = new ReentrantLock();
+
+  private final Condition notFull = lock.newCondition();
+
+  private final ArrayDeque<byte[]> chunks = new ArrayDeque<>();
+
+  private byte[] buffer;
+
+  private int count;
+
+  private boolean closed;
+
+  private boolean completed;
+
+  private Throwable error;
+
+  AsyncResponseStream(ServletOutputStream out, int chunkSize, int maxChunks, long timeoutNanos, Runnable onComplete, Consumer<Throwable> onError) {
+    this.out = out;
+    this.chunkSize = chunkSize;
+    this.maxChunks = maxChunks;
+    this.timeoutNanos = timeoutNanos;
+    this.onComplete = onComplete;
+    this.onError = onError;
+    this.buffer = new byte[chunkSize];
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    if (count == buffer.length) {
+      enqueueBuffer();
+    }
+    buffer[count++] = (byte) b;
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    while (len > 0) {
+      if (count == buffer.length) {
+        enqueueBuffer();
+      }
+      int n = Math.min(len, buffer.length - count);
+      System.arraycopy(b, off, buffer, count, n);
+      count += n;
+      off += n;
+      len -= n;
+    }
+  }
+
+  /**
+   * Hand the buffered bytes to the servlet stream (without flushing the servlet stream).
+   */
+  @Override
+  public void flush() throws IOException {
+    if (count > 0) {
+      enqueueBuffer();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    flush();
+    lock.lock();
+    try {
+      closed = true;
+    } finally {
+      lock.unlock();
+    }
+    drain();
+  }
+
+  private void enqueueBuffer() throws IOException {
+    byte[] chunk = count == buffer.length ? buffer : copy(buffer, count);
+    buffer = new byte[chunkSize];
+    count = 0;
+    boolean timedOut = false;
+    lock.lock();
+    try {
+      long nanos = timeoutNanos;
+      while (chunks.size() >= maxChunks && error == null && !timedOut) {
+        if (timeoutNanos <= 0) {
+          notFull.await();
+        } else if (nanos > 0) {
+          nanos = notFull.awaitNanos(nanos);
+        } else {
+          timedOut = true;
+        }
+      }
+      checkError();
+      if (!timedOut) {
+        chunks.add(chunk);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting to write response");
+    } finally {
+      lock.unlock();
+    }
+    if (timedOut) {
+      IOException e = new IOException("Timed out waiting for the client to accept the response");
+      onError(e);
+      throw e;
+    }
+    drain();
+  }
+
+  private static byte[] copy(byte[] source, int length) {
+    byte[] copy = new byte[length];
+    System.arraycopy(source, 0, copy, 0, length);
+    return copy;
+  }
+
+  private void checkError() throws IOException {
+    if (error != null) {
+      throw error instanceof IOException ? (IOException) error : new IOException(error);
+    }
+  }
+
+  /**
+   * Write queued chunks while the servlet stream is ready completing when closed and empty.
+   */
+  private void drain() throws IOException {
+    boolean complete = false;
+    lock.lock();
+    try {
+      checkError();
+      while (!chunks.isEmpty() && out.isReady()) {
+        out.write(chunks.poll());
+        notFull.signal();
+      }
+      if (closed && chunks.isEmpty() && !completed && out.isReady()) {
+        completed = true;
+        complete = true;
+      }
+    } finally {
+      lock.unlock();
+    }
+    if (complete) {
+      onComplete.run();
+    }
+  }
+
+  @Override
+  public void onWritePossible() throws IOException {
+    drain();
+  }
+
+  /**
+   * Fail the stream with the error running <code>onError</code> unless already completed or failed.
+   */
+  @Override
+  public void onError(Throwable t) {
+    if (fail(t)) {
+      onError.accept(t);
+    }
+  }
+
+  /**
+   * Fail the stream waking a blocked render thread returning false if already completed or failed.
+   */
+  boolean fail(Throwable t) {
+    lock.lock();
+    try {
+      if (completed || error != null) {
+        return false;
+      }
+      error = t;
+      notFull.signalAll();
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+}
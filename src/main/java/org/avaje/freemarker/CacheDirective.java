@@ -0,0 +1,145 @@
+package org.avaje.freemarker;
+
+import freemarker.core.Environment;
+import freemarker.template.TemplateDirectiveBody;
+import freemarker.template.TemplateDirectiveModel;
+import freemarker.template.TemplateException;
+import freemarker.template.TemplateModel;
+import freemarker.template.TemplateModelException;
+import freemarker.template.TemplateNumberModel;
+import freemarker.template.TemplateScalarModel;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.StringWriter;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Directive that caches the rendered output of its body in a {@link FragmentCache}.
+ * <p>
+ * The key identifies the fragment across all templates and requests so it must include anything
+ * the body output depends on (locale, user role etc). The optional ttl is in seconds and defaults
+ * to the default time to live of the FragmentCache.
+ * </p>
+ * <p>
+ * Concurrent requests that miss the same key share a single render of the body. A fragment
+ * nested in another fragment renders its body itself rather than waiting, such that fragments
+ * that contain each other can not deadlock.
+ * </p>
+ * <pre>{@code
+ *
+ *   <@cache key="nav:" + locale ttl=600>
+ *     ... static header and navigation ...
+ *   </@cache>
+ *
+ * }</pre>
+ *
+ * @see ConfigurationBuilder#setFragmentCache(FragmentCache)
+ */
+public class CacheDirective implements TemplateDirectiveModel {
+
+  /**
+   * The name the directive is registered under by ConfigurationBuilder.
+   */
+  public static final String NAME = "cache";
+
+  private static final String KEY = "key";
+
+  private static final String TTL = "ttl";
+
+  private static final ThreadLocal<int[]> RENDER_DEPTH = ThreadLocal.withInitial(() -> new int[1]);
+
+  private final FragmentCache fragmentCache;
+
+  private final Map<String, CompletableFuture<String>> rendering = new ConcurrentHashMap<>();
+
+  public CacheDirective(FragmentCache fragmentCache) {
+    this.fragmentCache = fragmentCache;
+  }
+
+  @Override
+  public void execute(Environment env, @SuppressWarnings("rawtypes") Map params, TemplateModel[] loopVars, TemplateDirectiveBody body) throws TemplateException, IOException {
+
+    if (body == null) {
+      return;
+    }
+    String key = key(params);
+    String content = fragmentCache.get(key);
+    if (content == null) {
+      content = render(key, ttl(params), body);
+    }
+    env.getOut().write(content);
+  }
+
+  /**
+   * Render and cache the body with concurrent callers for the same key sharing a single render.
+   */
+  private String render(String key, Long ttl, TemplateDirectiveBody body) throws TemplateException, IOException {
+    CompletableFuture<String> future = new CompletableFuture<>();
+    CompletableFuture<String> inProgress = rendering.putIfAbsent(key, future);
+    if (inProgress != null) {
+      String content = RENDER_DEPTH.get()[0] == 0 ? join(inProgress) : null;
+      // nested or the shared render failed so render it here
+      return content != null ? content : renderBody(key, ttl, body);
+    }
+    try {
+      String content = renderBody(key, ttl, body);
+      future.complete(content);
+      return content;
+    } finally {
+      future.complete(null);
+      rendering.remove(key, future);
+    }
+  }
+
+  private String join(CompletableFuture<String> inProgress) throws IOException {
+    try {
+      return inProgress.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting for the fragment render");
+    } catch (ExecutionException e) {
+      return null;
+    }
+  }
+
+  private String renderBody(String key, Long ttl, TemplateDirectiveBody body) throws TemplateException, IOException {
+    int[] depth = RENDER_DEPTH.get();
+    StringWriter writer = new StringWriter();
+    depth[0]++;
+    try {
+      body.render(writer);
+    } finally {
+      depth[0]--;
+    }
+    String content = writer.toString();
+    if (ttl == null) {
+      fragmentCache.put(key, content);
+    } else {
+      fragmentCache.put(key, content, ttl);
+    }
+    return content;
+  }
+
+  private String key(Map<?, ?> params) throws TemplateModelException {
+    Object key = params.get(KEY);
+    if (!(key instanceof TemplateScalarModel)) {
+      throw new TemplateModelException("The <@" + NAME + "> directive requires a string key parameter");
+    }
+    return ((TemplateScalarModel) key).getAsString();
+  }
+
+  private Long ttl(Map<?, ?> params) throws TemplateModelException {
+    Object ttl = params.get(TTL);
+    if (ttl == null) {
+      return null;
+    }
+    if (!(ttl instanceof TemplateNumberModel)) {
+      throw new TemplateModelException("The ttl parameter of the <@" + NAME + "> directive must be a number of seconds");
+    }
+    return ((TemplateNumberModel) ttl).getAsNumber().longValue();
+  }
+}
@@ -5,6 +5,9 @@ import freemarker.template.Configuration;
 import freemarker.template.ObjectWrapper;
 import freemarker.template.TemplateExceptionHandler;
 
+import java.nio.charset.Charset;
+import java.util.concurrent.Executor;
+
 /**
  * Bean used to build a Freemarker Configuration object.
  */
@@ -24,10 +27,22 @@ public class ConfigurationBuilder {
 
   private TemplateLoader templateLoader;
 
+  private FragmentCache fragmentCache;
+
+  private StaticText staticText;
+
+  private StaticPages staticPages;
+
+  private Executor renderExecutor;
+
+  private int renderThreads = 64;
+
+  private long asyncTimeoutMillis = 30000;
+
   public Configuration build() {
 
     try {
-      Configuration config = new Configuration();
+      Configuration config = staticText != null || staticPages != null ? new StaticContentConfiguration(staticText, staticPages) : new Configuration();
       config.setObjectWrapper(wrapper);
       config.setLocalizedLookup(localizedLookup);
       config.setDefaultEncoding(encoding);
@@ -40,6 +55,16 @@ public class ConfigurationBuilder {
 
       config.setTemplateLoader(templateLoader);
 
+      if (fragmentCache != null) {
+        config.setSharedVariable(CacheDirective.NAME, new CacheDirective(fragmentCache));
+      }
+      if (staticText != null) {
+        config.setSharedVariable(StaticTextDirective.NAME, new StaticTextDirective(staticText));
+      }
+      if (staticPages != null) {
+        config.setSharedVariable(StaticPageDirective.NAME, new StaticPageDirective(staticPages));
+      }
+
       return config;
 
     } catch (Exception e) {
@@ -47,6 +72,22 @@ public class ConfigurationBuilder {
     }
   }
 
+  /**
+   * Build an AsyncRenderer for the Configuration (built by this builder).
+   * <p>
+   * Uses the renderExecutor if set and otherwise virtual threads when supported by the JVM or a
+   * fixed pool of renderThreads. Each call creates a new executor (when the renderExecutor is not
+   * set) that is shut down by {@link AsyncRenderer#close()}.
+   * </p>
+   */
+  public AsyncRenderer buildAsyncRenderer(Configuration configuration) {
+    Charset charset = Charset.forName(encoding);
+    if (renderExecutor != null) {
+      return new AsyncRenderer(configuration, renderExecutor, false, charset, staticText, staticPages, asyncTimeoutMillis);
+    }
+    return new AsyncRenderer(configuration, AsyncRenderer.defaultExecutor(renderThreads), true, charset, staticText, staticPages, asyncTimeoutMillis);
+  }
+
   public ObjectWrapper getWrapper() {
     return wrapper;
   }
@@ -94,5 +135,84 @@ public class ConfigurationBuilder {
   public void setTemplateLoader(TemplateLoader templateLoader) {
     this.templateLoader = templateLoader;
   }
-  
+
+  public FragmentCache getFragmentCache() {
+    return fragmentCache;
+  }
+
+  /**
+   * Set a FragmentCache to register the <code>&lt;@cache key=... ttl=...&gt;</code> directive.
+   */
+  public void setFragmentCache(FragmentCache fragmentCache) {
+    this.fragmentCache = fragmentCache;
+  }
+
+  public StaticText getStaticText() {
+    return staticText;
+  }
+
+  /**
+   * Set the StaticText to register the directive that outputs the pre-encoded static regions of templates.
+   * <p>
+   * This must be the same StaticText as set on the LayoutLoaderBuilder. The built Configuration
+   * keeps the regions of each loaded template with the Template such that requests rendering a
+   * Template continue to work after the template is reloaded.
+   * </p>
+   */
+  public void setStaticText(StaticText staticText) {
+    this.staticText = staticText;
+  }
+
+  public StaticPages getStaticPages() {
+    return staticPages;
+  }
+
+  /**
+   * Set the StaticPages to register the directive that outputs static pages.
+   * <p>
+   * This must be the same StaticPages as set on the LayoutLoaderBuilder. The AsyncRenderer
+   * writes static pages directly when the charset of the StaticPages is the encoding. The built
+   * Configuration keeps the content of each loaded static page with the Template.
+   * </p>
+   */
+  public void setStaticPages(StaticPages staticPages) {
+    this.staticPages = staticPages;
+  }
+
+  public Executor getRenderExecutor() {
+    return renderExecutor;
+  }
+
+  /**
+   * Set the executor the AsyncRenderer processes templates with.
+   * <p>
+   * The executor is not shut down by {@link AsyncRenderer#close()}.
+   * </p>
+   */
+  public void setRenderExecutor(Executor renderExecutor) {
+    this.renderExecutor = renderExecutor;
+  }
+
+  public int getRenderThreads() {
+    return renderThreads;
+  }
+
+  /**
+   * Set the size of the render thread pool used when virtual threads are not available.
+   */
+  public void setRenderThreads(int renderThreads) {
+    this.renderThreads = renderThreads;
+  }
+
+  public long getAsyncTimeoutMillis() {
+    return asyncTimeoutMillis;
+  }
+
+  /**
+   * Set the timeout of the AsyncContext used by the AsyncRenderer.
+   */
+  public void setAsyncTimeoutMillis(long asyncTimeoutMillis) {
+    this.asyncTimeoutMillis = asyncTimeoutMillis;
+  }
+
 }
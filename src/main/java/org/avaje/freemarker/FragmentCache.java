@@ -0,0 +1,185 @@
+package org.avaje.freemarker;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded cache of rendered template fragments used by the {@link CacheDirective}.
+ * <p>
+ * The cache is bounded by the total length in chars of the cached fragments. When full the least
+ * recently used fragments are evicted. Each fragment expires after its time to live. The cache is
+ * thread safe with short synchronized sections as fragments are rendered outside of it (the
+ * {@link CacheDirective} renders a missing fragment once for concurrent requests).
+ * </p>
+ */
+public class FragmentCache {
+
+  /**
+   * The default maximum total length of cached fragments (8M chars).
+   */
+  public static final long DEFAULT_MAX_CHARS = 8 * 1024 * 1024;
+
+  /**
+   * The default time to live of fragments.
+   */
+  public static final long DEFAULT_TTL_SECONDS = 300;
+
+  private final Map<String, Fragment> fragments = new LinkedHashMap<>(16, 0.75f, true);
+
+  private final long maxChars;
+
+  private final long defaultTtlNanos;
+
+  private long totalChars;
+
+  /**
+   * Create with the default size and time to live.
+   */
+  public FragmentCache() {
+    this(DEFAULT_MAX_CHARS, DEFAULT_TTL_SECONDS);
+  }
+
+  /**
+   * Create with the maximum total length in chars and the default time to live in seconds.
+   */
+  public FragmentCache(long maxChars, long defaultTtlSeconds) {
+    this.maxChars = maxChars;
+    this.defaultTtlNanos = TimeUnit.SECONDS.toNanos(defaultTtlSeconds);
+  }
+
+  /**
+   * Return the cached fragment or null if it is not cached or has expired.
+   */
+  public String get(String key) {
+    synchronized (fragments) {
+      Fragment fragment = fragments.get(key);
+      if (fragment == null) {
+        return null;
+      }
+      if (fragment.expired(System.nanoTime())) {
+        remove(key);
+        return null;
+      }
+      return fragment.content;
+    }
+  }
+
+  /**
+   * Put a fragment using the default time to live.
+   */
+  public void put(String key, String content) {
+    putNanos(key, content, defaultTtlNanos);
+  }
+
+  /**
+   * Put a fragment with the given time to live in seconds.
+   */
+  public void put(String key, String content, long ttlSeconds) {
+    putNanos(key, content, TimeUnit.SECONDS.toNanos(ttlSeconds));
+  }
+
+  private void putNanos(String key, String content, long ttlNanos) {
+    if (ttlNanos <= 0 || content.length() > maxChars) {
+      return;
+    }
+    Fragment fragment = new Fragment(content, System.nanoTime(), ttlNanos);
+    synchronized (fragments) {
+      Fragment previous = fragments.put(key, fragment);
+      if (previous != null) {
+        totalChars -= previous.content.length();
+      }
+      totalChars += content.length();
+      evictLeastRecentlyUsed();
+    }
+  }
+
+  private void evictLeastRecentlyUsed() {
+    Iterator<Fragment> iterator = fragments.values().iterator();
+    while (totalChars > maxChars && iterator.hasNext()) {
+      totalChars -= iterator.next().content.length();
+      iterator.remove();
+    }
+  }
+
+  private void remove(String key) {
+    Fragment fragment = fragments.remove(key);
+    if (fragment != null) {
+      totalChars -= fragment.content.length();
+    }
+  }
+
+  /**
+   * Evict the fragment with the given key.
+   */
+  public void evict(String key) {
+    synchronized (fragments) {
+      remove(key);
+    }
+  }
+
+  /**
+   * Evict all the fragments with keys starting with the prefix.
+   */
+  public void evictPrefix(String keyPrefix) {
+    synchronized (fragments) {
+      Iterator<Map.Entry<String, Fragment>> iterator = fragments.entrySet().iterator();
+      while (iterator.hasNext()) {
+        Map.Entry<String, Fragment> entry = iterator.next();
+        if (entry.getKey().startsWith(keyPrefix)) {
+          totalChars -= entry.getValue().content.length();
+          iterator.remove();
+        }
+      }
+    }
+  }
+
+  /**
+   * Evict all the fragments.
+   */
+  public void evictAll() {
+    synchronized (fragments) {
+      fragments.clear();
+      totalChars = 0;
+    }
+  }
+
+  /**
+   * Return the number of cached fragments.
+   */
+  public int size() {
+    synchronized (fragments) {
+      return fragments.size();
+    }
+  }
+
+  /**
+   * Return the total length in chars of the cached fragments.
+   */
+  public long totalChars() {
+    synchronized (fragments) {
+      return totalChars;
+    }
+  }
+
+  private static final class Fragment {
+
+    final String content;
+    final long createdAt;
+    final long ttlNanos;
+
+    Fragment(String content, long createdAt, long ttlNanos) {
+      this.content = content;
+      this.createdAt = createdAt;
+      this.ttlNanos = ttlNanos;
+    }
+
+    /**
+     * Compare the elapsed time such that a very large time to live does not overflow.
+     */
+    boolean expired(long now) {
+      return now - createdAt >= ttlNanos;
+    }
+  }
+}
@@ -0,0 +1,174 @@
+package org.avaje.freemarker;
+
+import freemarker.cache.TemplateLoader;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TemplateLoader that resolves templates across ordered roots with the first root containing the
+ * template winning.
+ * <p>
+ * This supports overlays such as a tenant theme directory over a shared default directory over
+ * templates in the classpath. When wrapped for layout inheritance both the templates and their
+ * parent layouts are resolved across the roots.
+ * </p>
+ * <p>
+ * Lookups that miss a root are cached (for <code>missTtlMillis</code>) such that a template that
+ * only exists in a later root does not probe the earlier roots on every request. Use
+ * {@link #clearLookupCache()} when templates are added, or watch the roots with a TemplateWatcher
+ * which clears the cached misses of changed templates.
+ * </p>
+ * <pre>{@code
+ *
+ *   TemplateLoader loader = InheritLayoutTemplateLoader.wrap(
+ *     new OverlayTemplateLoader(new PathTemplateLoader(tenantRoot), new PathTemplateLoader(defaultRoot)), null);
+ *
+ * }</pre>
+ */
+public class OverlayTemplateLoader implements TemplateLoader {
+
+  static final long DEFAULT_MISS_TTL_MILLIS = 60_000;
+
+  static final int DEFAULT_MAX_MISSES = 10_000;
+
+  private final List<TemplateLoader> roots;
+
+  private final List<Map<String, Long>> misses;
+
+  private final long missTtlNanos;
+
+  private final int maxMisses;
+
+  /**
+   * Create with the roots in order of precedence caching misses for one minute.
+   */
+  public OverlayTemplateLoader(TemplateLoader... roots) {
+    this(Arrays.asList(roots), DEFAULT_MISS_TTL_MILLIS, DEFAULT_MAX_MISSES);
+  }
+
+  /**
+   * Create with the roots in order of precedence.
+   *
+   * @param roots         The loaders in order of precedence
+   * @param missTtlMillis The time a miss in a root is cached for
+   * @param maxMisses     The maximum number of cached misses per root
+   */
+  public OverlayTemplateLoader(List<TemplateLoader> roots, long missTtlMillis, int maxMisses) {
+    if (roots.isEmpty()) {
+      throw new IllegalArgumentException("At least one root TemplateLoader is required");
+    }
+    this.roots = Collections.unmodifiableList(new ArrayList<>(roots));
+    this.misses = new ArrayList<>(roots.size());
+    for (int i = 0; i < roots.size(); i++) {
+      misses.add(new ConcurrentHashMap<>());
+    }
+    this.missTtlNanos = TimeUnit.MILLISECONDS.toNanos(missTtlMillis);
+    this.maxMisses = maxMisses;
+  }
+
+  /**
+   * Return the root loaders in order of precedence.
+   */
+  public List<TemplateLoader> getRoots() {
+    return roots;
+  }
+
+  public Object findTemplateSource(String name) throws IOException {
+    long now = System.nanoTime();
+    for (int i = 0; i < roots.size(); i++) {
+      Map<String, Long> rootMisses = misses.get(i);
+      Long missedAt = rootMisses.get(name);
+      if (missedAt != null && now - missedAt < missTtlNanos) {
+        continue;
+      }
+      Object source = roots.get(i).findTemplateSource(name);
+      if (source != null) {
+        if (missedAt != null) {
+          rootMisses.remove(name);
+        }
+        return new OverlaySource(roots.get(i), source);
+      }
+      if (rootMisses.size() >= maxMisses) {
+        rootMisses.clear();
+      }
+      rootMisses.put(name, now);
+    }
+    return null;
+  }
+
+  public long getLastModified(Object templateSource) {
+    OverlaySource source = (OverlaySource) templateSource;
+    return source.loader.getLastModified(source.source);
+  }
+
+  public Reader getReader(Object templateSource, String encoding) throws IOException {
+    OverlaySource source = (OverlaySource) templateSource;
+    return source.loader.getReader(source.source, encoding);
+  }
+
+  public void closeTemplateSource(Object templateSource) throws IOException {
+    OverlaySource source = (OverlaySource) templateSource;
+    source.loader.closeTemplateSource(source.source);
+  }
+
+  /**
+   * Clear the cached misses for the template such that all roots are checked on the next lookup.
+   */
+  public void clearLookupCache(String name) {
+    for (Map<String, Long> rootMisses : misses) {
+      rootMisses.remove(name);
+    }
+  }
+
+  /**
+   * Clear all the cached misses.
+   */
+  public void clearLookupCache() {
+    for (Map<String, Long> rootMisses : misses) {
+      rootMisses.clear();
+    }
+  }
+
+  public String toString() {
+    return "OverlayTemplateLoader" + roots;
+  }
+
+  /**
+   * The source found along with the root loader it was found in.
+   */
+  private static final class OverlaySource {
+
+    final TemplateLoader loader;
+    final Object source;
+
+    OverlaySource(TemplateLoader loader, Object source) {
+      this.loader = loader;
+      this.source = source;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof OverlaySource)) {
+        return false;
+      }
+      OverlaySource that = (OverlaySource) o;
+      return loader == that.loader && source.equals(that.source);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * System.identityHashCode(loader) + source.hashCode();
+    }
+  }
+}
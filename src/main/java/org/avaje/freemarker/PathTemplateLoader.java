@@ -0,0 +1,147 @@
+package org.avaje.freemarker;
+
+import freemarker.cache.TemplateLoader;
+import org.avaje.freemarker.util.CharBufferReader;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * TemplateLoader that reads templates from a directory using NIO.
+ * <p>
+ * Each template is read fully via a FileChannel into a heap buffer and decoded in one
+ * pass into a presized CharBuffer using a CharsetDecoder cached per thread. This avoids the
+ * InputStream and 4KB chunk copying of the servlet based loaders and can be used outside a
+ * servlet container either standalone or wrapped for layout inheritance.
+ * </p>
+ * <pre>{@code
+ *
+ *   TemplateLoader loader = InheritLayoutTemplateLoader.wrap(new PathTemplateLoader(Paths.get("src/main/templates")), null);
+ *
+ * }</pre>
+ */
+public class PathTemplateLoader implements TemplateLoader {
+
+  private static final ThreadLocal<Map<String, CharsetDecoder>> DECODERS = ThreadLocal.withInitial(HashMap::new);
+
+  private final Path root;
+
+  /**
+   * Create for the given template root directory.
+   */
+  public PathTemplateLoader(Path root) {
+    this.root = root.toAbsolutePath().normalize();
+  }
+
+  /**
+   * Return the template root directory.
+   */
+  public Path getRoot() {
+    return root;
+  }
+
+  /**
+   * Return the Path of the template or null if it does not exist under the root directory.
+   */
+  public Object findTemplateSource(String name) {
+    Path path = root.resolve(trimLeadingSlash(name)).normalize();
+    if (!path.startsWith(root) || !Files.isRegularFile(path)) {
+      return null;
+    }
+    return path;
+  }
+
+  public long getLastModified(Object templateSource) {
+    try {
+      return Files.getLastModifiedTime((Path) templateSource).toMillis();
+    } catch (IOException e) {
+      return -1;
+    }
+  }
+
+  public Reader getReader(Object templateSource, String encoding) throws IOException {
+    return new CharBufferReader(read((Path) templateSource, encoding));
+  }
+
+  public void closeTemplateSource(Object templateSource) {
+    // the channel is closed after reading
+  }
+
+  /**
+   * Read and decode the entire file.
+   */
+  static CharBuffer read(Path path, String encoding) throws IOException {
+
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size > Integer.MAX_VALUE) {
+        throw new IOException("Template " + path + " is too large at " + size + " bytes");
+      }
+      return decode(bytes(channel, (int) size), decoder(encoding), path);
+    }
+  }
+
+  /**
+   * Read the file into a heap buffer.
+   * <p>
+   * The file is not memory mapped, as the mapping is only released on GC which keeps the file
+   * locked on Windows, and the content is decoded into chars immediately anyway.
+   * </p>
+   */
+  private static ByteBuffer bytes(FileChannel channel, int size) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(size);
+    while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+      // read fully
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  private static CharBuffer decode(ByteBuffer bytes, CharsetDecoder decoder, Path path) throws IOException {
+
+    // maxCharsPerByte is an upper bound so the buffer never needs to grow
+    CharBuffer chars = CharBuffer.allocate((int) Math.ceil(bytes.remaining() * (double) decoder.maxCharsPerByte()));
+    decoder.reset();
+    try {
+      check(decoder.decode(bytes, chars, true));
+      check(decoder.flush(chars));
+    } catch (CharacterCodingException e) {
+      throw new IOException("Error decoding template " + path, e);
+    }
+    chars.flip();
+    return chars;
+  }
+
+  private static void check(CoderResult result) throws CharacterCodingException {
+    if (result.isError() || result.isOverflow()) {
+      result.throwException();
+    }
+  }
+
+  private static CharsetDecoder decoder(String encoding) {
+    return DECODERS.get().computeIfAbsent(encoding, name -> Charset.forName(name).newDecoder()
+      .onMalformedInput(CodingErrorAction.REPLACE)
+      .onUnmappableCharacter(CodingErrorAction.REPLACE));
+  }
+
+  private static String trimLeadingSlash(String name) {
+    return name.startsWith("/") ? name.substring(1) : name;
+  }
+
+  public String toString() {
+    return "PathTemplateLoader[" + root + "]";
+  }
+}
@@ -0,0 +1,55 @@
+package org.avaje.freemarker;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * The result of preloading templates with per template load times and failures.
+ */
+public class PreloadResult {
+
+  private final Map<String, Duration> loadTimes;
+
+  private final Map<String, Exception> failures;
+
+  private final Duration totalTime;
+
+  PreloadResult(Map<String, Duration> loadTimes, Map<String, Exception> failures, Duration totalTime) {
+    this.loadTimes = Collections.unmodifiableMap(loadTimes);
+    this.failures = Collections.unmodifiableMap(failures);
+    this.totalTime = totalTime;
+  }
+
+  /**
+   * Return the load time of each successfully loaded template.
+   */
+  public Map<String, Duration> getLoadTimes() {
+    return loadTimes;
+  }
+
+  /**
+   * Return the templates that failed to load with the exception.
+   */
+  public Map<String, Exception> getFailures() {
+    return failures;
+  }
+
+  /**
+   * Return true if any template failed to load.
+   */
+  public boolean hasFailures() {
+    return !failures.isEmpty();
+  }
+
+  /**
+   * Return the elapsed time to preload all the templates.
+   */
+  public Duration getTotalTime() {
+    return totalTime;
+  }
+
+  public String toString() {
+    return "loaded:" + loadTimes.size() + " failed:" + failures.size() + " totalMillis:" + totalTime.toMillis();
+  }
+}
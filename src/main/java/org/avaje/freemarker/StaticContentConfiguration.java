@@ -0,0 +1,45 @@
+package org.avaje.freemarker;
+
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Configuration that keeps the static text regions and static page a template was loaded with on the Template.
+ * <p>
+ * A reloaded (or evicted) template replaces the regions and page of its previous source. Holding
+ * them on the Template means a request still rendering the previous Template can use them until
+ * it is unreachable.
+ * </p>
+ */
+class StaticContentConfiguration extends Configuration {
+
+  private final StaticText staticText;
+
+  private final StaticPages staticPages;
+
+  StaticContentConfiguration(StaticText staticText, StaticPages staticPages) {
+    this.staticText = staticText;
+    this.staticPages = staticPages;
+  }
+
+  @Override
+  public Template getTemplate(String name, Locale locale, String encoding, boolean parse) throws IOException {
+    if (staticText != null) {
+      staticText.loading();
+    }
+    if (staticPages != null) {
+      staticPages.loading();
+    }
+    Template template = super.getTemplate(name, locale, encoding, parse);
+    if (staticText != null) {
+      staticText.retain(template);
+    }
+    if (staticPages != null) {
+      staticPages.retain(template);
+    }
+    return template;
+  }
+}
@@ -0,0 +1,61 @@
+package org.avaje.freemarker;
+
+import freemarker.core.Environment;
+import freemarker.template.TemplateDirectiveBody;
+import freemarker.template.TemplateDirectiveModel;
+import freemarker.template.TemplateException;
+import freemarker.template.TemplateModel;
+import freemarker.template.TemplateModelException;
+import freemarker.template.TemplateScalarModel;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+
+/**
+ * Directive that outputs a static page registered by {@link StaticPages}.
+ * <p>
+ * This renders a static page that is processed by FreeMarker rather than written directly, for
+ * example when included by another template. When the output is a {@link StaticTextWriter} with
+ * the same charset the pre-encoded bytes are written, otherwise the decoded text is written.
+ * The content is that of the Template being rendered when it was loaded via a Configuration built
+ * by ConfigurationBuilder, otherwise the registered page of the name.
+ * </p>
+ */
+public class StaticPageDirective implements TemplateDirectiveModel {
+
+  /**
+   * The name the directive is registered under by ConfigurationBuilder.
+   */
+  public static final String NAME = "__static_page";
+
+  private final StaticPages staticPages;
+
+  public StaticPageDirective(StaticPages staticPages) {
+    this.staticPages = staticPages;
+  }
+
+  @Override
+  public void execute(Environment env, @SuppressWarnings("rawtypes") Map params, TemplateModel[] loopVars, TemplateDirectiveBody body) throws TemplateException, IOException {
+
+    Object name = params.get("name");
+    if (!(name instanceof TemplateScalarModel)) {
+      throw new TemplateModelException("The <@" + NAME + "> directive requires a string name parameter");
+    }
+    String templateName = ((TemplateScalarModel) name).getAsString();
+    byte[] page = staticPages.bytes(env.getTemplate());
+    if (page == null) {
+      page = staticPages.bytes(templateName);
+    }
+    if (page == null) {
+      throw new TemplateModelException("Unknown static page " + templateName);
+    }
+
+    Writer out = env.getOut();
+    if (out instanceof StaticTextWriter && ((StaticTextWriter) out).getCharset().equals(staticPages.getCharset())) {
+      ((StaticTextWriter) out).writeEncoded(page);
+    } else {
+      out.write(new String(page, staticPages.getCharset()));
+    }
+  }
+}
@@ -0,0 +1,153 @@
+package org.avaje.freemarker;
+
+import freemarker.template.Template;
+
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of merged templates that contain no FreeMarker interpolations or directives held as pre-encoded bytes.
+ * <p>
+ * When set on the LayoutLoaderBuilder each merged template is classified. A static page is
+ * registered and FreeMarker is given a template that only calls the {@link StaticPageDirective}
+ * (registered via {@link ConfigurationBuilder#setStaticPages(StaticPages)}) such that the page
+ * content is not parsed. The AsyncRenderer writes the pre-encoded bytes of a static page with
+ * a content length without processing the template.
+ * </p>
+ * <p>
+ * A page is removed when its template is reloaded as a dynamic template, deleted, or evicted by
+ * {@link org.avaje.freemarker.layout.InheritLayoutTemplateLoader#invalidate(String)}. The
+ * Configuration built by ConfigurationBuilder keeps the page content a template was loaded with on
+ * the Template, such that requests rendering a Template are unaffected by the removal.
+ * </p>
+ * <pre>{@code
+ *
+ *   StaticPages staticPages = new StaticPages(StandardCharsets.UTF_8);
+ *   layoutLoaderBuilder.setStaticPages(staticPages);
+ *   configurationBuilder.setStaticPages(staticPages);
+ *
+ * }</pre>
+ * <p>
+ * A page is static when it contains none of <code>${</code>, <code>#{</code>, <code>&lt;#</code>,
+ * <code>&lt;/#</code>, <code>&lt;@</code>, <code>&lt;/@</code>, <code>[#</code>, <code>[/#</code>,
+ * <code>[@</code> and <code>[/@</code>.
+ * </p>
+ */
+public class StaticPages {
+
+  private static final String[] MARKERS = {"${", "#{", "<#", "</#", "<@", "</@", "[#", "[/#", "[@", "[/@"};
+
+  private static final String RETAINED = StaticPages.class.getName();
+
+  private final Charset charset;
+
+  private final Map<String, byte[]> pages = new ConcurrentHashMap<>();
+
+  /**
+   * The page last classified by the thread that is retained by the Template it loads.
+   */
+  private final ThreadLocal<byte[]> loaded = new ThreadLocal<>();
+
+  /**
+   * Create pre-encoding the static pages with the given charset.
+   */
+  public StaticPages(Charset charset) {
+    this.charset = charset;
+  }
+
+  /**
+   * Return the charset the static pages are encoded with.
+   */
+  public Charset getCharset() {
+    return charset;
+  }
+
+  /**
+   * Return true if the content contains no FreeMarker interpolations or directives.
+   */
+  public static boolean isStatic(String content) {
+    for (String marker : MARKERS) {
+      if (content.contains(marker)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Classify the merged template returning the source for FreeMarker to parse.
+   * <p>
+   * A static page is registered and the returned source is the call to the static page
+   * directive. Otherwise any previously registered page of that name is removed and the
+   * source is returned unchanged.
+   * </p>
+   */
+  public String classify(String templateName, String source) {
+    if (!isStatic(source)) {
+      pages.remove(templateName);
+      loaded.remove();
+      return source;
+    }
+    byte[] page = source.getBytes(charset);
+    pages.put(templateName, page);
+    loaded.set(page);
+    StringBuilder call = new StringBuilder(templateName.length() + 30);
+    call.append("<@").append(StaticPageDirective.NAME).append(" name=\"");
+    for (int i = 0; i < templateName.length(); i++) {
+      char ch = templateName.charAt(i);
+      if (ch == '"' || ch == '\\' || ch == '{') {
+        call.append('\\');
+      }
+      call.append(ch);
+    }
+    return call.append("\"/>").toString();
+  }
+
+  /**
+   * Return the pre-encoded content of the static page or null if the template is not a static page.
+   */
+  public byte[] bytes(String templateName) {
+    return pages.get(templateName);
+  }
+
+  /**
+   * Return the pre-encoded content the Template was loaded with or null if it is not a static page.
+   */
+  byte[] bytes(Template template) {
+    Object page = template.getCustomAttribute(RETAINED);
+    return page instanceof byte[] ? (byte[]) page : null;
+  }
+
+  /**
+   * A template is about to be loaded by this thread.
+   */
+  void loading() {
+    loaded.remove();
+  }
+
+  /**
+   * Keep the content of the static page on the Template loaded by this thread.
+   */
+  void retain(Template template) {
+    byte[] page = loaded.get();
+    if (page != null) {
+      loaded.remove();
+      template.setCustomAttribute(RETAINED, page);
+    }
+  }
+
+  /**
+   * Remove the static page of a template that was deleted or evicted from the template cache.
+   */
+  public void remove(String templateName) {
+    pages.remove(templateName);
+  }
+
+  /**
+   * Remove all the static pages.
+   */
+  public void clear() {
+    pages.clear();
+  }
+}
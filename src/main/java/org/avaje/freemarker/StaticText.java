@@ -0,0 +1,367 @@
+package org.avaje.freemarker;
+
+import freemarker.template.Template;
+import org.avaje.freemarker.util.FtlUtil;
+
+import java.io.OutputStream;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of the static text regions of templates pre-encoded as bytes.
+ * <p>
+ * When set on the LayoutLoaderBuilder the large static regions of each merged template are
+ * replaced by a call to the {@link StaticTextDirective} (registered via
+ * {@link ConfigurationBuilder#setStaticText(StaticText)}). When rendering to a
+ * {@link StaticTextWriter} the directive writes the pre-encoded bytes directly to the OutputStream
+ * such that only the dynamic parts of the template are encoded per response.
+ * </p>
+ * <pre>{@code
+ *
+ *   StaticText staticText = new StaticText(StandardCharsets.UTF_8);
+ *   layoutLoaderBuilder.setStaticText(staticText);
+ *   configurationBuilder.setStaticText(staticText);
+ *   ...
+ *   StaticTextWriter writer = staticText.writer(response.getOutputStream());
+ *   template.process(model, writer);
+ *   writer.flush();
+ *
+ * }</pre>
+ * <p>
+ * Static regions are whole lines of text containing no FTL tags, interpolations or comments
+ * such that FreeMarker white-space stripping of the surrounding lines is unchanged (text that
+ * FreeMarker strips at the start and end of a template is left in place). Templates
+ * using the square bracket tag syntax or <code>strip_text</code> are not modified.
+ * </p>
+ * <p>
+ * The regions are registered per template name. When a template is extracted again (for example
+ * when it is reloaded after a change) or removed, the regions of the previous source are released
+ * once the Template parsed from it is no longer reachable, such that requests still rendering the
+ * previous Template are unaffected. The Configuration built by ConfigurationBuilder keeps the
+ * regions with each Template it loads.
+ * </p>
+ */
+public class StaticText {
+
+  /**
+   * The default minimum length in chars of a static region.
+   */
+  public static final int DEFAULT_MIN_LENGTH = 256;
+
+  private static final String RETAINED = StaticText.class.getName();
+
+  private final Charset charset;
+
+  private final int minLength;
+
+  /**
+   * The id by text, guarded by this.
+   */
+  private final Map<String, Integer> ids = new HashMap<>();
+
+  /**
+   * The current regions of each template, guarded by this.
+   */
+  private final Map<String, Generation> generations = new HashMap<>();
+
+  /**
+   * The replaced regions that are released when no longer reachable, guarded by this.
+   */
+  private final Set<Retired> retired = new HashSet<>();
+
+  private final ReferenceQueue<Generation> unreachable = new ReferenceQueue<>();
+
+  /**
+   * The regions last extracted by the thread that are retained by the Template it loads.
+   */
+  private final ThreadLocal<Generation> loaded = new ThreadLocal<>();
+
+  private final Map<Integer, Region> regions = new ConcurrentHashMap<>();
+
+  private int sequence;
+
+  /**
+   * Create pre-encoding the static text with the given charset.
+   */
+  public StaticText(Charset charset) {
+    this(charset, DEFAULT_MIN_LENGTH);
+  }
+
+  /**
+   * Create specifying the minimum length in chars of a region to pre-encode.
+   */
+  public StaticText(Charset charset, int minLength) {
+    this.charset = charset;
+    this.minLength = minLength;
+  }
+
+  /**
+   * Return the charset the static text is encoded with.
+   */
+  public Charset getCharset() {
+    return charset;
+  }
+
+  /**
+   * Create a writer for the response OutputStream that the static text is written to directly.
+   */
+  public StaticTextWriter writer(OutputStream out) {
+    return new StaticTextWriter(out, charset);
+  }
+
+  /**
+   * Return the static text for the given id.
+   */
+  String text(int id) {
+    return region(id).text;
+  }
+
+  /**
+   * Return the pre-encoded static text for the given id.
+   */
+  byte[] bytes(int id) {
+    return region(id).bytes;
+  }
+
+  private Region region(int id) {
+    Region region = regions.get(id);
+    if (region == null) {
+      throw new IllegalStateException("Unknown static text id " + id);
+    }
+    return region;
+  }
+
+  /**
+   * Register a use of the text returning its id (the same registered text has the same id).
+   */
+  synchronized int register(String text) {
+    Integer id = ids.get(text);
+    if (id == null) {
+      id = ++sequence;
+      ids.put(text, id);
+      regions.put(id, new Region(text, text.getBytes(charset)));
+    }
+    regions.get(id).uses++;
+    return id;
+  }
+
+  /**
+   * Replace the current regions of the template retiring the previous regions until they are unreachable.
+   */
+  private synchronized void replace(String templateName, Generation current) {
+    releaseUnreachable();
+    Generation previous = current == null ? generations.remove(templateName) : generations.put(templateName, current);
+    if (previous != null) {
+      retired.add(new Retired(previous, unreachable));
+    }
+  }
+
+  /**
+   * Release the retired regions that are no longer reachable removing those no longer used.
+   */
+  private void releaseUnreachable() {
+    Reference<? extends Generation> reference;
+    while ((reference = unreachable.poll()) != null) {
+      Retired generation = (Retired) reference;
+      retired.remove(generation);
+      for (Integer id : generation.ids) {
+        Region region = regions.get(id);
+        if (--region.uses == 0) {
+          regions.remove(id);
+          ids.remove(region.text);
+        }
+      }
+    }
+  }
+
+  /**
+   * Release the static regions of the template (for example when it is no longer extracted).
+   */
+  public void remove(String templateName) {
+    replace(templateName, null);
+  }
+
+  /**
+   * Return the template source with the large static regions replaced by calls to the static text directive.
+   * <p>
+   * The regions replace those of a previous extraction of the same template.
+   * </p>
+   */
+  public String extract(String templateName, String source) {
+    List<Integer> extracted = new ArrayList<>();
+    String result = extract(source, extracted);
+    Generation generation = extracted.isEmpty() ? null : new Generation(Collections.unmodifiableList(extracted));
+    replace(templateName, generation);
+    if (generation == null) {
+      loaded.remove();
+    } else {
+      loaded.set(generation);
+    }
+    return result;
+  }
+
+  /**
+   * A template is about to be loaded by this thread.
+   */
+  void loading() {
+    loaded.remove();
+  }
+
+  /**
+   * Keep the regions the template was extracted with while the Template loaded by this thread is reachable.
+   */
+  void retain(Template template) {
+    Generation generation = loaded.get();
+    if (generation != null) {
+      loaded.remove();
+      template.setCustomAttribute(RETAINED, generation);
+    }
+  }
+
+  private String extract(String source, List<Integer> extracted) {
+    if (source.contains("[#") || source.contains("[@") || source.contains("strip_text")) {
+      return source;
+    }
+    StringBuilder result = null;
+    int copied = 0;
+    int textStart = 0;
+    int pos = 0;
+    int length = source.length();
+    while (pos < length) {
+      int end = FtlUtil.constructEnd(source, pos);
+      if (end == -1) {
+        pos++;
+        continue;
+      }
+      // text run [textStart, pos) followed by an FTL construct
+      int[] region = region(source, textStart, pos);
+      if (region != null) {
+        result = append(result, source, copied, region, extracted);
+        copied = region[1];
+      }
+      pos = end;
+      textStart = end;
+    }
+    int[] region = region(source, textStart, length);
+    if (region != null) {
+      result = append(result, source, copied, region, extracted);
+      copied = region[1];
+    }
+    if (result == null) {
+      return source;
+    }
+    result.append(source, copied, length);
+    return result.toString();
+  }
+
+  private StringBuilder append(StringBuilder result, String source, int copied, int[] region, List<Integer> extracted) {
+    if (result == null) {
+      result = new StringBuilder(source.length());
+    }
+    int id = register(source.substring(region[0], region[1]));
+    extracted.add(id);
+    result.append(source, copied, region[0]);
+    result.append("<@").append(StaticTextDirective.NAME).append(" id=").append(id).append("/>");
+    return result;
+  }
+
+  /**
+   * Return the start and end of the static region of whole lines within the text run or null.
+   */
+  private int[] region(String source, int runStart, int runEnd) {
+    if (runEnd - runStart < minLength || isWhitespace(source, runStart, runEnd)) {
+      // FreeMarker drops white-space only text between non-outputting tags
+      return null;
+    }
+    int start = runStart;
+    if (start > 0 && source.charAt(start - 1) != '\n') {
+      start = source.indexOf('\n', start) + 1;
+      if (start == 0 || start >= runEnd) {
+        return null;
+      }
+    }
+    int lastLine = source.lastIndexOf('\n', runEnd - 1) + 1;
+    if (runStart == 0 && runEnd < source.length() && isWhitespace(source, lastLine, runEnd)) {
+      // FreeMarker keeps the indentation of a tag only line ending the first text of a template
+      return null;
+    }
+    // a last line of only white-space after a construct is stripped so the region can not include it
+    boolean toEnd = runEnd == source.length() && (runStart == 0 || lastLine == runEnd || !isWhitespace(source, lastLine, runEnd));
+    int end = toEnd ? runEnd : lastLine;
+    while (end - start >= minLength) {
+      if ((toEnd && end == runEnd) || followedByText(source, end, runEnd)) {
+        return new int[]{start, end};
+      }
+      end = source.lastIndexOf('\n', end - 2) + 1;
+    }
+    return null;
+  }
+
+  /**
+   * Return true if the line starting at pos contains non white-space text and no FTL construct.
+   * <p>
+   * The directive call is placed at the start of this line so the line must not become
+   * subject to FreeMarker white-space stripping.
+   * </p>
+   */
+  private boolean followedByText(String source, int pos, int runEnd) {
+    int lineEnd = source.indexOf('\n', pos);
+    if (lineEnd == -1) {
+      lineEnd = source.length();
+    }
+    return lineEnd <= runEnd && !isWhitespace(source, pos, lineEnd);
+  }
+
+  private static boolean isWhitespace(String source, int start, int end) {
+    for (int i = start; i < end; i++) {
+      if (!Character.isWhitespace(source.charAt(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * The regions of a template extraction.
+   */
+  private static final class Generation {
+
+    final List<Integer> ids;
+
+    Generation(List<Integer> ids) {
+      this.ids = ids;
+    }
+  }
+
+  private static final class Retired extends WeakReference<Generation> {
+
+    final List<Integer> ids;
+
+    Retired(Generation generation, ReferenceQueue<Generation> queue) {
+      super(generation, queue);
+      this.ids = generation.ids;
+    }
+  }
+
+  private static final class Region {
+
+    final String text;
+    final byte[] bytes;
+    int uses;
+
+    Region(String text, byte[] bytes) {
+      this.text = text;
+      this.bytes = bytes;
+    }
+  }
+}
@@ -0,0 +1,52 @@
+package org.avaje.freemarker;
+
+import freemarker.core.Environment;
+import freemarker.template.TemplateDirectiveBody;
+import freemarker.template.TemplateDirectiveModel;
+import freemarker.template.TemplateException;
+import freemarker.template.TemplateModel;
+import freemarker.template.TemplateModelException;
+import freemarker.template.TemplateNumberModel;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+
+/**
+ * Directive that outputs a static text region of a template extracted by {@link StaticText}.
+ * <p>
+ * When the output is a {@link StaticTextWriter} with the same charset the pre-encoded bytes are
+ * written, otherwise (for example when captured by <code>&lt;#assign&gt;</code> or
+ * <code>&lt;#compress&gt;</code>) the text is written.
+ * </p>
+ */
+public class StaticTextDirective implements TemplateDirectiveModel {
+
+  /**
+   * The name the directive is registered under by ConfigurationBuilder.
+   */
+  public static final String NAME = "__static";
+
+  private final StaticText staticText;
+
+  public StaticTextDirective(StaticText staticText) {
+    this.staticText = staticText;
+  }
+
+  @Override
+  public void execute(Environment env, @SuppressWarnings("rawtypes") Map params, TemplateModel[] loopVars, TemplateDirectiveBody body) throws TemplateException, IOException {
+
+    Object id = params.get("id");
+    if (!(id instanceof TemplateNumberModel)) {
+      throw new TemplateModelException("The <@" + NAME + "> directive requires a number id parameter");
+    }
+    int textId = ((TemplateNumberModel) id).getAsNumber().intValue();
+
+    Writer out = env.getOut();
+    if (out instanceof StaticTextWriter && ((StaticTextWriter) out).getCharset().equals(staticText.getCharset())) {
+      ((StaticTextWriter) out).writeEncoded(staticText.bytes(textId));
+    } else {
+      out.write(staticText.text(textId));
+    }
+  }
+}
@@ -0,0 +1,138 @@
+package org.avaje.freemarker;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Writer that encodes to an OutputStream and additionally accepts pre-encoded bytes.
+ * <p>
+ * Unlike OutputStreamWriter writing pre-encoded bytes does not flush the underlying stream.
+ * </p>
+ *
+ * @see StaticText#writer(OutputStream)
+ */
+public class StaticTextWriter extends Writer {
+
+  private static final int BUFFER_SIZE = 8192;
+
+  private final OutputStream out;
+
+  private final Charset charset;
+
+  private final CharsetEncoder encoder;
+
+  private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+  private char pendingHighSurrogate;
+
+  private boolean pending;
+
+  public StaticTextWriter(OutputStream out, Charset charset) {
+    this.out = out;
+    this.charset = charset;
+    this.encoder = charset.newEncoder()
+      .onMalformedInput(CodingErrorAction.REPLACE)
+      .onUnmappableCharacter(CodingErrorAction.REPLACE);
+  }
+
+  /**
+   * Return the charset chars are encoded with.
+   */
+  public Charset getCharset() {
+    return charset;
+  }
+
+  @Override
+  public void write(char[] cbuf, int off, int len) throws IOException {
+    encode(pending ? withPending(CharBuffer.wrap(cbuf, off, len)) : CharBuffer.wrap(cbuf, off, len));
+  }
+
+  @Override
+  public void write(String str, int off, int len) throws IOException {
+    encode(pending ? withPending(CharBuffer.wrap(str, off, off + len)) : CharBuffer.wrap(str, off, off + len));
+  }
+
+  @Override
+  public void write(int c) throws IOException {
+    write(new char[]{(char) c}, 0, 1);
+  }
+
+  /**
+   * Write bytes that are already encoded with the charset of this writer.
+   */
+  public void writeEncoded(byte[] bytes) throws IOException {
+    if (pending) {
+      pending = false;
+      encode(CharBuffer.wrap(new char[]{pendingHighSurrogate}), true);
+    }
+    if (bytes.length < buffer.remaining()) {
+      buffer.put(bytes);
+    } else {
+      drain();
+      out.write(bytes);
+    }
+  }
+
+  private CharBuffer withPending(CharBuffer chars) {
+    pending = false;
+    CharBuffer combined = CharBuffer.allocate(chars.remaining() + 1);
+    combined.put(pendingHighSurrogate).put(chars);
+    combined.flip();
+    return combined;
+  }
+
+  private void encode(CharBuffer chars) throws IOException {
+    encode(chars, false);
+    if (chars.hasRemaining()) {
+      // a high surrogate at the end that may be completed by the next write
+      pendingHighSurrogate = chars.get();
+      pending = true;
+    }
+  }
+
+  private void encode(CharBuffer chars, boolean endOfInput) throws IOException {
+    for (;;) {
+      CoderResult result = encoder.encode(chars, buffer, endOfInput);
+      if (result.isOverflow()) {
+        drain();
+      } else if (result.isUnderflow()) {
+        return;
+      } else {
+        result.throwException();
+      }
+    }
+  }
+
+  private void drain() throws IOException {
+    if (buffer.position() > 0) {
+      out.write(buffer.array(), 0, buffer.position());
+      buffer.clear();
+    }
+  }
+
+  @Override
+  public void flush() throws IOException {
+    drain();
+    out.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (pending) {
+      pending = false;
+      encode(CharBuffer.wrap(new char[]{pendingHighSurrogate}), true);
+    }
+    while (encoder.flush(buffer).isOverflow()) {
+      drain();
+    }
+    drain();
+    out.close();
+  }
+}
@@ -0,0 +1,126 @@
+package org.avaje.freemarker;
+
+import freemarker.template.Configuration;
+import org.avaje.freemarker.util.FtlUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Loads templates into the FreeMarker template cache in parallel prior to serving traffic.
+ * <p>
+ * Templates are loaded via <code>Configuration.getTemplate()</code> such that each template is read,
+ * merged with its parent layouts and parsed by FreeMarker. Parent layouts shared by many templates
+ * are parsed once and then served from the layout cache of the InheritLayoutTemplateLoader.
+ * </p>
+ * <pre>{@code
+ *
+ *   PreloadResult result = new TemplatePreloader(configuration).preload(new File("src/main/templates"));
+ *
+ * }</pre>
+ */
+public class TemplatePreloader {
+
+  private static final Logger log = LoggerFactory.getLogger(TemplatePreloader.class);
+
+  private final Configuration configuration;
+
+  private final Executor executor;
+
+  /**
+   * Create using the common ForkJoinPool.
+   */
+  public TemplatePreloader(Configuration configuration) {
+    this(configuration, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Create with the executor used to load the templates.
+   */
+  public TemplatePreloader(Configuration configuration, Executor executor) {
+    this.configuration = configuration;
+    this.executor = executor;
+  }
+
+  /**
+   * Preload the templates found under the root directory with a template extension
+   * (<code>.html</code>, <code>.htm</code>, <code>.ftl</code>, <code>.ftlh</code> or <code>.ftlx</code>).
+   * <p>
+   * Other files such as images, css and javascript are not loaded.
+   * </p>
+   */
+  public PreloadResult preload(File templateRoot) {
+    return preload(templateRoot, FtlUtil::isTemplate);
+  }
+
+  /**
+   * Preload the templates under the root directory that match the filter.
+   * <p>
+   * The filter is given the template name relative to the root using '/' as separator.
+   * </p>
+   */
+  public PreloadResult preload(File templateRoot, Predicate<String> filter) {
+    return preload(templateNames(templateRoot.toPath(), filter));
+  }
+
+  /**
+   * Preload the given templates.
+   */
+  public PreloadResult preload(Collection<String> templateNames) {
+
+    long start = System.nanoTime();
+    Map<String, Duration> loadTimes = new ConcurrentHashMap<>();
+    Map<String, Exception> failures = new ConcurrentHashMap<>();
+
+    List<CompletableFuture<Void>> futures = new ArrayList<>(templateNames.size());
+    for (String templateName : templateNames) {
+      futures.add(CompletableFuture.runAsync(() -> load(templateName, loadTimes, failures), executor));
+    }
+    CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+
+    PreloadResult result = new PreloadResult(new TreeMap<>(loadTimes), new TreeMap<>(failures), Duration.ofNanos(System.nanoTime() - start));
+    log.debug("preloaded templates {}", result);
+    return result;
+  }
+
+  private void load(String templateName, Map<String, Duration> loadTimes, Map<String, Exception> failures) {
+    long start = System.nanoTime();
+    try {
+      configuration.getTemplate(templateName);
+      loadTimes.put(templateName, Duration.ofNanos(System.nanoTime() - start));
+    } catch (Exception e) {
+      log.warn("Failed to preload template " + templateName, e);
+      failures.put(templateName, e);
+    }
+  }
+
+  private List<String> templateNames(Path root, Predicate<String> filter) {
+    try (Stream<Path> paths = Files.walk(root)) {
+      return paths.filter(Files::isRegularFile)
+        .map(path -> root.relativize(path).toString().replace(File.separatorChar, '/'))
+        .filter(filter)
+        .sorted()
+        .collect(Collectors.toList());
+    } catch (IOException e) {
+      throw new UncheckedIOException("Error reading templates under " + root, e);
+    }
+  }
+}
@@ -3,60 +3,77 @@ package org.avaje.freemarker.layout;
 class BodyContent implements Tags {
 
   private final boolean withBody;
-  private String bodyTagAttributes;
-  private String bodyContent;
+  private final String bodyTagAttributes;
+  private final ContentSegments bodyContent;
 
-  private BodyContent(String bodyContent) {
+  private BodyContent(ContentSegments bodyContent) {
     this.withBody = false;
     this.bodyContent = bodyContent;
     this.bodyTagAttributes = null;
   }
-  private BodyContent(String bodyContent, String bodyTagAttributes) {
+  private BodyContent(ContentSegments bodyContent, String bodyTagAttributes) {
     this.withBody = true;
     this.bodyContent = bodyContent;
     this.bodyTagAttributes = bodyTagAttributes;
   }
 
   public static BodyContent parse(String templateName, String originalContent) {
-    int bodyTagStart = originalContent.indexOf("<body");
-    if (bodyTagStart == -1) {
-      return new BodyContent(originalContent);
+    return of(originalContent, LayoutTokens.page(templateName, originalContent));
+  }
+
+  /**
+   * Create from the scanned page with the layout body tags added as slots.
+   */
+  static BodyContent of(String originalContent, LayoutTokens tokens) {
+    if (tokens.bodyTagStart == -1) {
+      return new BodyContent(segments(originalContent, 0, originalContent.length(), tokens));
     }
-    int bodyTagEnd = originalContent.indexOf(_END_TAG, bodyTagStart + 5);
-    if (bodyTagEnd == -1) {
-      throw new RuntimeException("'>' character not found in template [" + templateName + "] after '<body' position [" + bodyTagStart + 5 + "]");
+    String bodyTagAttributes = originalContent.substring(tokens.bodyTagStart + 5, tokens.bodyTagEnd);
+    return new BodyContent(segments(originalContent, tokens.bodyTagEnd + 1, tokens.bodyEnd, tokens), bodyTagAttributes);
+  }
+
+  private static ContentSegments segments(String originalContent, int start, int end, LayoutTokens tokens) {
+    int[] slots = tokens.layoutBodyPositions();
+    if (slots.length == 0) {
+      return ContentSegments.of(originalContent, start, end);
     }
-    int bodyEnd = originalContent.lastIndexOf("</body>");
-    if (bodyEnd == -1) {
-      throw new RuntimeException("'</body>' tag not found in template [" + templateName + "] after position [" + bodyTagEnd + "]");
+    ContentSegments.Builder builder = ContentSegments.builder();
+    int pos = start;
+    for (int slot : slots) {
+      if (slot >= start && slot + layoutBodyTag.length() <= end) {
+        builder.add(originalContent, pos, slot).addSlot(layoutBodyTag);
+        pos = slot + layoutBodyTag.length();
+      }
     }
-    String bodyTagAttributes = originalContent.substring(bodyTagStart + 5, bodyTagEnd);
-    String bodyContent = originalContent.substring(bodyTagEnd + 1, bodyEnd);
-    return new BodyContent(bodyContent, bodyTagAttributes);
+    return builder.add(originalContent, pos, end).build();
   }
 
-  public void mergeWith(BodyContent childBody) {
-    if (childBody.bodyTagAttributes != null) {
-      bodyTagAttributes = childBody.bodyTagAttributes;
-    }
-    bodyContent = StringHelper.replaceString(bodyContent, layoutBodyTag, childBody.getBodyContent());
+  boolean withBody() {
+    return withBody;
+  }
+
+  String bodyTagAttributes() {
+    return bodyTagAttributes;
   }
 
-  public String getBodyContent() {
+  /**
+   * Return the body content with the layout body tags as slots.
+   */
+  ContentSegments content() {
     return bodyContent;
   }
 
-  public void render(StringBuilder sb) {
+  public void render(ContentSegments.Builder builder) {
     if (withBody) {
-      sb.append("<body");
+      builder.add("<body");
       if (bodyTagAttributes != null) {
-        sb.append(bodyTagAttributes);
+        builder.add(bodyTagAttributes);
       }
-      sb.append(">");
+      builder.add(">");
     }
-    sb.append(bodyContent);
+    builder.add(bodyContent);
     if (withBody) {
-      sb.append("</body>\n</html>\n");
+      builder.add("</body>\n</html>\n");
     }
   }
 }
@@ -0,0 +1,229 @@
+package org.avaje.freemarker.layout;
+
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable content made up of segments (source, start, end) of the original template sources.
+ * <p>
+ * This allows content to be merged without copying the underlying strings. The content is
+ * only materialized when it is appended to the final render buffer or streamed via {@link #reader()}.
+ * </p>
+ */
+final class ContentSegments {
+
+  private final List<Segment> segments;
+
+  private final int length;
+
+  private ContentSegments(List<Segment> segments, int length) {
+    this.segments = segments;
+    this.length = length;
+  }
+
+  /**
+   * Create with the given range of the source.
+   */
+  static ContentSegments of(String source, int start, int end) {
+    return new ContentSegments(Collections.singletonList(new Segment(source, start, end)), end - start);
+  }
+
+  /**
+   * Create with all of the source.
+   */
+  static ContentSegments of(String source) {
+    return of(source, 0, source.length());
+  }
+
+  /**
+   * Return a builder to create content from multiple sources.
+   */
+  static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Return the segments.
+   */
+  List<Segment> segments() {
+    return segments;
+  }
+
+  /**
+   * Return the total length of the content.
+   */
+  int length() {
+    return length;
+  }
+
+  /**
+   * Return the content with the slot segments replaced by the replacement segments.
+   * <p>
+   * Slots are added by the builder at positions found when the source was scanned so
+   * no search of the content is required. This instance is returned when there are no slots.
+   * </p>
+   */
+  ContentSegments replaceSlots(ContentSegments replacement) {
+    List<Segment> result = null;
+    int slotCount = 0;
+    int slotLength = 0;
+    for (int i = 0; i < segments.size(); i++) {
+      Segment segment = segments.get(i);
+      if (segment.slot) {
+        if (result == null) {
+          result = new ArrayList<>(segments.size() + replacement.segments.size());
+          result.addAll(segments.subList(0, i));
+        }
+        result.addAll(replacement.segments);
+        slotCount++;
+        slotLength += segment.end - segment.start;
+      } else if (result != null) {
+        result.add(segment);
+      }
+    }
+    if (result == null) {
+      return this;
+    }
+    return new ContentSegments(result, length - slotLength + slotCount * replacement.length);
+  }
+
+  /**
+   * Append the content to the buffer.
+   */
+  void appendTo(StringBuilder sb) {
+    for (Segment segment : segments) {
+      sb.append(segment.source, segment.start, segment.end);
+    }
+  }
+
+  /**
+   * Return a Reader that streams the content directly from the segments.
+   */
+  Reader reader() {
+    return new SegmentReader(segments);
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder(length);
+    appendTo(sb);
+    return sb.toString();
+  }
+
+  /**
+   * Builds content from strings, ranges of strings and other content.
+   */
+  static final class Builder {
+
+    private final List<Segment> segments = new ArrayList<>();
+    private int length;
+
+    Builder add(String source) {
+      return add(source, 0, source.length());
+    }
+
+    Builder add(String source, int start, int end) {
+      if (end > start) {
+        segments.add(new Segment(source, start, end));
+        length += end - start;
+      }
+      return this;
+    }
+
+    /**
+     * Add the source as a slot that can later be replaced via {@link #replaceSlots(ContentSegments)}.
+     */
+    Builder addSlot(String source) {
+      segments.add(new Segment(source, 0, source.length(), true, false));
+      length += source.length();
+      return this;
+    }
+
+    /**
+     * Add content known to contain no variables such that variable replacement does not search it.
+     */
+    Builder addPlain(String source) {
+      return addPlain(source, 0, source.length());
+    }
+
+    Builder addPlain(String source, int start, int end) {
+      if (end > start) {
+        segments.add(new Segment(source, start, end, false, true));
+        length += end - start;
+      }
+      return this;
+    }
+
+    Builder add(ContentSegments content) {
+      segments.addAll(content.segments);
+      length += content.length;
+      return this;
+    }
+
+    ContentSegments build() {
+      return new ContentSegments(segments, length);
+    }
+  }
+
+  /**
+   * Reader over the segments copying directly from the source strings.
+   */
+  private static final class SegmentReader extends Reader {
+
+    private final List<Segment> segments;
+    private int index;
+    private int pos;
+
+    SegmentReader(List<Segment> segments) {
+      this.segments = segments;
+      this.pos = segments.isEmpty() ? 0 : segments.get(0).start;
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) {
+      if (len == 0) {
+        return 0;
+      }
+      int count = 0;
+      while (count < len && index < segments.size()) {
+        Segment segment = segments.get(index);
+        int chunk = Math.min(len - count, segment.end - pos);
+        segment.source.getChars(pos, pos + chunk, cbuf, off + count);
+        count += chunk;
+        pos += chunk;
+        if (pos == segment.end && ++index < segments.size()) {
+          pos = segments.get(index).start;
+        }
+      }
+      return count == 0 ? -1 : count;
+    }
+
+    @Override
+    public void close() {
+      // nothing to close
+    }
+  }
+
+  static final class Segment {
+
+    final String source;
+    final int start;
+    final int end;
+    final boolean slot;
+    final boolean plain;
+
+    Segment(String source, int start, int end) {
+      this(source, start, end, false, false);
+    }
+
+    Segment(String source, int start, int end, boolean slot, boolean plain) {
+      this.source = source;
+      this.start = start;
+      this.end = end;
+      this.slot = slot;
+      this.plain = plain;
+    }
+  }
+}
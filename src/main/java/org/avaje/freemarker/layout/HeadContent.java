@@ -3,9 +3,6 @@ package org.avaje.freemarker.layout;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.IOException;
-import java.io.LineNumberReader;
-import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -17,20 +14,12 @@ class HeadContent implements Tags {
 
   private static final Logger log = LoggerFactory.getLogger(HeadContent.class);
 
-  private static final String TAG_TITLE = "<title>";
-  private static final String TAG_TITLE_END = "</title>";
-  private static final String META_LAYOUT = "<meta name=\"layout\"";
-  private static final String _END_TAG = ">";
-  private static final String TAG_BREAD = "<meta name=\"bread";
-  private static final String META_ID_LAYOUT_HEAD = "<meta id=\"layout-head\"";
-
-  private List<String> lines = new ArrayList<>();
-  private Map<String, String> variables = new LinkedHashMap<>();
-  private Map<String, Crumb> bread = new LinkedHashMap<>();
+  private final List<String> lines;
+  private final Map<String, String> variables;
+  private final Map<String, Crumb> bread;
 
   private final String templateName;
   private final int headStart;
-  private String content;
   private String title;
   private String parentLayout;
   private int metaAddPosition = -1;
@@ -38,44 +27,86 @@ class HeadContent implements Tags {
   private HeadContent() {
     this.headStart = -1;
     this.templateName = "";
+    this.lines = new ArrayList<>();
+    this.variables = new LinkedHashMap<>();
+    this.bread = new LinkedHashMap<>();
   }
 
   public HeadContent(String content, int headStart, String templateName) {
+    this(content, LayoutTokens.head(templateName, content), headStart, templateName);
+  }
+
+  private HeadContent(String source, LayoutTokens tokens, int headStart, String templateName) {
     this.headStart = headStart;
-    this.content = content;
+    this.lines = new ArrayList<>();
+    this.variables = new LinkedHashMap<>();
+    this.bread = new LinkedHashMap<>();
     this.templateName = templateName;
-    parseMetaContent();
-    parseLines();
+    read(source, tokens);
   }
 
   public int start() {
     return headStart;
   }
 
+  String title() {
+    return title;
+  }
+
+  List<String> lines() {
+    return lines;
+  }
+
+  /**
+   * Return the line index the child head lines are inserted at or -1 to append them.
+   */
+  int metaAddPosition() {
+    return metaAddPosition;
+  }
+
+  Map<String, String> variables() {
+    return variables;
+  }
+
+  Map<String, Crumb> bread() {
+    return bread;
+  }
+
   public void render(StringBuilder sb) {
     sb.append("\n<head>\n");
     if (title != null) {
       sb.append(String.format("  <title>%s</title>\n", title));
     }
-    for (String line : lines) {
+    sb.append(renderLines(0, lines.size()));
+    sb.append("</head>\n");
+  }
+
+  /**
+   * Render the non blank lines in the range each followed by a line break.
+   */
+  String renderLines(int from, int to) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = from; i < to; i++) {
+      String line = lines.get(i);
       if (!line.trim().isEmpty()) {
         sb.append(line).append("\n");
       }
     }
-    sb.append("</head>\n");
+    return sb.toString();
   }
 
   static HeadContent parse(String templateName, String originalContent) {
-    int headStart = originalContent.indexOf(_HEAD);
-    if (headStart == -1) {
+    return of(templateName, originalContent, LayoutTokens.page(templateName, originalContent));
+  }
+
+  /**
+   * Create from the scanned page.
+   */
+  static HeadContent of(String templateName, String originalContent, LayoutTokens tokens) {
+    if (tokens.headStart == -1) {
       return HeadContent.NONE;
-    } else {
-      int headEnd = originalContent.indexOf(_HEAD_END, headStart + _HEAD.length());
-      if (headEnd == -1) {
-        throw new RuntimeException("'" + _HEAD_END + "' tag not found in template[" + templateName + "] after position [" + headStart + "]");
-      }
-      return new HeadContent(originalContent.substring(headStart + 6, headEnd), headStart, templateName);
     }
+    return new HeadContent(originalContent, tokens, tokens.headStart, templateName);
   }
 
   boolean hasParentLayout() {
@@ -86,149 +117,80 @@ class HeadContent implements Tags {
     return parentLayout;
   }
 
-  private void parseLines() {
-    LineNumberReader lineReader = new LineNumberReader(new StringReader(content));
-    try {
-      String line;
-      while ((line = lineReader.readLine()) != null) {
-        addLine(line);
+  /**
+   * Read the head elements with the remaining content between them added as lines.
+   */
+  private void read(String source, LayoutTokens tokens) {
+    StringBuilder line = new StringBuilder(80);
+    int pos = tokens.headContentStart;
+    for (LayoutTokens.Token token : tokens.headTokens()) {
+      addText(source, pos, token.start, line);
+      pos = token.end;
+      switch (token.type) {
+        case TITLE:
+          title = token.value;
+          break;
+        case LAYOUT:
+          if (parentLayout != null) {
+            log.error("Duplicate meta layout in page " + templateName);
+          }
+          parentLayout = token.value;
+          break;
+        case CRUMB:
+          bread.putIfAbsent(token.name, new Crumb(token.name, token.value, token.href));
+          break;
+        case LAYOUT_HEAD:
+          endLine(line);
+          metaAddPosition = lines.size();
+          break;
+        default:
+          // variables read below
       }
-    } catch (IOException e) {
-      throw new RuntimeException(e);
-    }
-  }
-
-  private void addLine(String line) {
-    boolean consumed =
-      readTitle(line)
-        || readParentLayout(line)
-        || readCrumb(line)
-        || readMetaLayout(line);
-
-    if (!consumed) {
-      lines.add(line);
     }
-  }
-
-  private boolean readMetaLayout(String line) {
-    if (!line.contains(META_ID_LAYOUT_HEAD)) {
-      return false;
-    }
-    metaAddPosition = lines.size();
-    return true;
-  }
-
-  boolean readParentLayout(String line) {
-    final int pos = line.indexOf(META_LAYOUT);
-    if (pos == -1) {
-      return false;
-    }
-    int end = line.lastIndexOf(_END_TAG);
-    if (end == -1) {
-      throw new RuntimeException("'>' not found for <meta name=\"content\" in line [" + line + "]");
-    }
-    if (parentLayout != null) {
-      log.error("Duplicate meta layout in page " + templateName);
-    }
-    int tnStart = line.indexOf("content=", pos);
-    if (tnStart == -1) {
-      throw new RuntimeException("No 'content=' attribute in <meta name=\"layout\" ... element?");
-    }
-    String layout = line.substring(tnStart + 8, end);
-    if (layout.endsWith("/")) {
-      layout = layout.substring(0, layout.length() - 1);
-    }
-    parentLayout = StringHelper.removeChars(layout, new char[]{'"', '\''}).trim();
-    return true;
-  }
-
-  private boolean readTitle(String line) {
-    if (title != null) {
-      return false;
-    }
-    final int pos = line.indexOf(TAG_TITLE);
-    if (pos == -1) {
-      return false;
-    }
-    final int end = line.lastIndexOf(TAG_TITLE_END);
-    title = line.substring(pos + TAG_TITLE.length(), end);
-    return true;
-  }
-
-  private boolean readCrumb(String line) {
-    final int pos = line.indexOf(TAG_BREAD);
-    if (pos == -1) {
-      return false;
-    }
-    int end = line.lastIndexOf("/>");
-    if (end == -1) {
-      throw new RuntimeException("'/>' not found in line [" + line + "]");
+    addText(source, pos, tokens.headEnd, line);
+    endLine(line);
+    tokens.readVariables(variables);
+  }
+
+  /**
+   * Add the text splitting it into lines on line breaks.
+   */
+  private void addText(String source, int start, int end, StringBuilder line) {
+    for (int i = start; i < end; i++) {
+      char ch = source.charAt(i);
+      if (ch == '\n') {
+        endLine(line);
+      } else if (ch == '\r') {
+        endLine(line);
+        if (i + 1 < end && source.charAt(i + 1) == '\n') {
+          i++;
+        }
+      } else {
+        line.append(ch);
+      }
     }
-
-    String breadContent = line.substring(pos, end);
-
-    String name = getAttribute("name", breadContent);
-    String desc = getAttribute("content", breadContent);
-    String href = getAttribute("href", breadContent);
-
-    Crumb crumb = new Crumb(name, desc, href);
-    bread.putIfAbsent(name, crumb);
-    return true;
-  }
-
-
-  private void parseMetaContent() {
-//    int metaContentStart = content.indexOf("<template name=\"meta-content\">");
-//    if (metaContentStart > -1) {
-//      int metaContentEnd = content.indexOf("</template>", metaContentStart + 32);
-//      if (metaContentEnd == -1) {
-//        throw new RuntimeException("'</template>' not found for <template name=\"meta-content\" at pos[" + metaContentStart + 32 + "]");
-//      }
-//      templateMetaContent = content.substring(metaContentStart + 32, metaContentEnd).trim();
-//      content = content.substring(0, metaContentStart) + content.substring(metaContentEnd + 11);
-//    }
-    parseVariables();
   }
 
-  private void parseVariables() {
-    content = HeadVariableReader.readAll(content, variables);
-  }
-
-  private String getAttribute(String attribute, String breadContent) {
-    String attr = attribute + "=\"";
-    int start = breadContent.indexOf(attr);
-    int end = breadContent.indexOf("\"", start + attr.length() + 1);
-    return breadContent.substring(start + attr.length(), end);
-  }
-
-  void mergeWith(HeadContent child) {
-    this.variables.putAll(child.variables);
-    this.bread.putAll(child.bread);
-    if (child.title != null) {
-      this.title = child.title;
-    }
-    if (metaAddPosition == -1) {
-      this.lines.addAll(child.lines);
-    } else {
-      this.lines.addAll(metaAddPosition, child.lines);
+  private void endLine(StringBuilder line) {
+    if (line.length() > 0) {
+      lines.add(line.toString());
+      line.setLength(0);
     }
   }
 
-  String replaceVariables(String pageContent) {
-    if (variables.isEmpty()) {
-      return pageContent;
-    }
-    for (Map.Entry<String, String> entry : variables.entrySet()) {
-      String varId = entry.getKey();
-      String varContent = entry.getValue();
-      pageContent = StringHelper.replaceString(pageContent, "$" + varId, varContent);
-    }
-    return pageContent;
+  /**
+   * Return the replacer for the variables and breadcrumb to apply to the rendered page.
+   */
+  VariableReplacer variableReplacer() {
+    return new VariableReplacer(variables, renderBreadCrumbs(bread));
   }
 
-  String replaceBreadCrumbs(String pageContent) {
+  /**
+   * Render the breadcrumbs in order of their names (bread0, bread1, ...).
+   */
+  static String renderBreadCrumbs(Map<String, Crumb> bread) {
     if (bread.isEmpty()) {
-      return StringHelper.replaceString(pageContent, "$breadcrumb", "");
+      return "";
     }
 
     final int size = bread.size();
@@ -244,7 +206,7 @@ class HeadContent implements Tags {
         crumbs.append(crumbContent);
       }
     }
-    return StringHelper.replaceString(pageContent, "$breadcrumb", crumbs.toString());
+    return crumbs.toString();
   }
 
 }
@@ -4,62 +4,34 @@ import java.util.Map;
 
 /**
  * Reads, extracts variables from the head meta section.
+ * <p>
+ * Both <code>&lt;template id=""&gt;</code> and <code>&lt;var id=""&gt;</code> elements are read
+ * by {@link LayoutTokens} with the remaining content built once. Template elements take
+ * precedence over var elements with the same id.
+ * </p>
  */
 class HeadVariableReader {
 
-  private final Map<String, String> variables;
-  private String content;
-  private int start;
-
-  private String elementStart = "<template id=\"";
-  private String elementEnd = "</template>";
-
+  /**
+   * Read the variables into the map returning the content with the variable elements removed.
+   */
   static String readAll(String content, Map<String, String> variables) {
-    return new HeadVariableReader(content, variables).read();
-  }
-
-  HeadVariableReader(String content, Map<String, String> variables) {
-    this.variables = variables;
-    this.content = content;
-  }
-
-  private void readUsingVarVariables() {
-    elementStart = "<var id=\"";
-    elementEnd = "</var>";
-    readVariables();
-  }
-
-  private void readPositions() {
-    start = content.indexOf(elementStart);
-  }
-
-  String read() {
-    readVariables();
-    readUsingVarVariables();
-    return content;
-  }
-
-  void readVariables() {
-    readPositions();
-    while (start > -1) {
-      readVariable(start);
-      readPositions();
+    LayoutTokens tokens = LayoutTokens.head("", content);
+    StringBuilder remaining = null;
+    int pos = 0;
+    for (LayoutTokens.Token token : tokens.headTokens()) {
+      if (token.type == LayoutTokens.Type.TEMPLATE || token.type == LayoutTokens.Type.VAR) {
+        if (remaining == null) {
+          remaining = new StringBuilder(content.length());
+        }
+        remaining.append(content, pos, token.start);
+        pos = token.end;
+      }
     }
-  }
-
-  private void readVariable(int start) {
-    int pos = content.indexOf("\">", start + elementStart.length());
-    if (pos == -1) {
-      throw new RuntimeException("No closing '\">' reading meta variable at pos[" + start + "]");
+    if (remaining == null) {
+      return content;
     }
-    int end = content.indexOf(elementEnd, pos);
-    if (end == -1) {
-      throw new RuntimeException(elementEnd + " not found reading meta variable at pos[" + pos + "]");
-    }
-    String varId = content.substring(start + elementStart.length(), pos).trim();
-    String varContent = content.substring(pos + 2, end).trim();
-
-    variables.putIfAbsent(varId, varContent);
-    content = content.substring(0, start) + content.substring(end + elementEnd.length());
+    tokens.readVariables(variables);
+    return remaining.append(content, pos, content.length()).toString();
   }
 }
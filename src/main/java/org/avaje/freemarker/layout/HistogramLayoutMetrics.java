@@ -0,0 +1,227 @@
+package org.avaje.freemarker.layout;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In memory LayoutMetrics that records per template timings as histograms.
+ * <p>
+ * The recorded values can be exported periodically to a metrics system or used to find
+ * the slowest templates via {@link #slowestMerges(int)}.
+ * </p>
+ */
+public class HistogramLayoutMetrics implements LayoutMetrics {
+
+  private final Map<String, Histogram> mergeTimes = new ConcurrentHashMap<>();
+  private final Map<String, Histogram> readTimes = new ConcurrentHashMap<>();
+  private final Map<String, Histogram> filterTimes = new ConcurrentHashMap<>();
+  private final Map<String, Integer> layoutDepths = new ConcurrentHashMap<>();
+
+  private final LongAdder layoutCacheHits = new LongAdder();
+  private final LongAdder layoutCacheMisses = new LongAdder();
+  private final LongAdder mergedSourceCacheHits = new LongAdder();
+  private final LongAdder mergesJoined = new LongAdder();
+  private final LongAdder inputLength = new LongAdder();
+  private final LongAdder outputLength = new LongAdder();
+
+  @Override
+  public void merged(String templateName, long nanos, int layoutDepth, int inputChars, int outputChars) {
+    histogram(mergeTimes, templateName).record(nanos);
+    layoutDepths.put(templateName, layoutDepth);
+    inputLength.add(inputChars);
+    outputLength.add(outputChars);
+  }
+
+  @Override
+  public void mergeJoined(String templateName) {
+    mergesJoined.increment();
+  }
+
+  @Override
+  public void sourceRead(String templateName, long nanos, int chars) {
+    histogram(readTimes, templateName).record(nanos);
+  }
+
+  @Override
+  public void mergedSourceCacheHit(String templateName) {
+    mergedSourceCacheHits.increment();
+  }
+
+  @Override
+  public void layoutCacheHit(String layoutName) {
+    layoutCacheHits.increment();
+  }
+
+  @Override
+  public void layoutCacheMiss(String layoutName) {
+    layoutCacheMisses.increment();
+  }
+
+  @Override
+  public void filtered(String templateName, long nanos) {
+    histogram(filterTimes, templateName).record(nanos);
+  }
+
+  private Histogram histogram(Map<String, Histogram> map, String templateName) {
+    return map.computeIfAbsent(templateName, name -> new Histogram());
+  }
+
+  /**
+   * Return the merge times keyed by template name.
+   */
+  public Map<String, Histogram> getMergeTimes() {
+    return Collections.unmodifiableMap(mergeTimes);
+  }
+
+  /**
+   * Return the times to read sources from the wrapped loader keyed by template or layout name.
+   */
+  public Map<String, Histogram> getReadTimes() {
+    return Collections.unmodifiableMap(readTimes);
+  }
+
+  /**
+   * Return the ContentFilter times keyed by template name.
+   */
+  public Map<String, Histogram> getFilterTimes() {
+    return Collections.unmodifiableMap(filterTimes);
+  }
+
+  /**
+   * Return the number of parent layouts keyed by template name.
+   */
+  public Map<String, Integer> getLayoutDepths() {
+    return Collections.unmodifiableMap(layoutDepths);
+  }
+
+  public long getLayoutCacheHits() {
+    return layoutCacheHits.sum();
+  }
+
+  public long getLayoutCacheMisses() {
+    return layoutCacheMisses.sum();
+  }
+
+  public long getMergedSourceCacheHits() {
+    return mergedSourceCacheHits.sum();
+  }
+
+  /**
+   * Return the number of requests that shared a merge already in progress.
+   */
+  public long getMergesJoined() {
+    return mergesJoined.sum();
+  }
+
+  /**
+   * Return the total length in chars of the templates and layouts that have been merged.
+   */
+  public long getInputLength() {
+    return inputLength.sum();
+  }
+
+  /**
+   * Return the total length in chars of the merged templates.
+   */
+  public long getOutputLength() {
+    return outputLength.sum();
+  }
+
+  /**
+   * Return the names of the templates with the highest maximum merge time.
+   */
+  public List<String> slowestMerges(int count) {
+    List<Map.Entry<String, Histogram>> entries = new ArrayList<>(mergeTimes.entrySet());
+    entries.sort(Comparator.comparingLong((Map.Entry<String, Histogram> e) -> e.getValue().getMaxNanos()).reversed());
+    List<String> names = new ArrayList<>(Math.min(count, entries.size()));
+    for (int i = 0; i < count && i < entries.size(); i++) {
+      names.add(entries.get(i).getKey());
+    }
+    return names;
+  }
+
+  /**
+   * Clear all the recorded metrics.
+   */
+  public void reset() {
+    mergeTimes.clear();
+    readTimes.clear();
+    filterTimes.clear();
+    layoutDepths.clear();
+    layoutCacheHits.reset();
+    layoutCacheMisses.reset();
+    mergedSourceCacheHits.reset();
+    mergesJoined.reset();
+    inputLength.reset();
+    outputLength.reset();
+  }
+
+  /**
+   * Histogram of timings using power of 2 microsecond buckets.
+   */
+  public static final class Histogram {
+
+    private static final int BUCKETS = 40;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+    void record(long nanos) {
+      long micros = nanos / 1000;
+      int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+      buckets.incrementAndGet(bucket);
+      count.increment();
+      totalNanos.add(nanos);
+      maxNanos.accumulate(nanos);
+    }
+
+    public long getCount() {
+      return count.sum();
+    }
+
+    public long getTotalNanos() {
+      return totalNanos.sum();
+    }
+
+    public long getMaxNanos() {
+      return maxNanos.get();
+    }
+
+    public long getMeanNanos() {
+      long count = getCount();
+      return count == 0 ? 0 : getTotalNanos() / count;
+    }
+
+    /**
+     * Return the approximate percentile (0 to 1) as the upper bound of the bucket containing it.
+     */
+    public long getPercentileNanos(double percentile) {
+      long count = getCount();
+      if (count == 0) {
+        return 0;
+      }
+      long target = (long) Math.ceil(percentile * count);
+      long cumulative = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+        cumulative += buckets.get(i);
+        if (cumulative >= target) {
+          return Math.min(getMaxNanos(), (1L << i) * 1000);
+        }
+      }
+      return getMaxNanos();
+    }
+
+    public String toString() {
+      return "count:" + getCount() + " meanMicros:" + getMeanNanos() / 1000 + " p99Micros:" + getPercentileNanos(0.99) / 1000 + " maxMicros:" + getMaxNanos() / 1000;
+    }
+  }
+}
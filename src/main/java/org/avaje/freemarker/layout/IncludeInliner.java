@@ -0,0 +1,429 @@
+package org.avaje.freemarker.layout;
+
+import org.avaje.freemarker.StaticPages;
+import org.avaje.freemarker.util.FtlUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Inlines static includes into merged templates when they are loaded.
+ * <p>
+ * An <code>&lt;#include&gt;</code> with a literal path is replaced by the content of the included
+ * template when the resolved template name matches the static include predicate, or when it has
+ * <code>parse=false</code> and the content contains no FreeMarker syntax. Inlined content is
+ * inlined recursively with its relative include paths resolved against the included template.
+ * The paths of the includes and imports left in inlined content are made absolute, and content
+ * with a computed or acquired include or import path is not inlined.
+ * </p>
+ * <p>
+ * An include is only inlined when the output is the same given FreeMarker white-space stripping.
+ * So includes before the first FTL construct of a template (where FreeMarker keeps the indentation),
+ * with other parameters or a computed path, of missing templates, and content that would change
+ * the stripping of its lines are left for FreeMarker. Templates with a parent layout are also left
+ * for FreeMarker as it loads them merged with their layouts.
+ * </p>
+ */
+final class IncludeInliner {
+
+  private static final Logger log = LoggerFactory.getLogger(IncludeInliner.class);
+
+  private static final String INCLUDE = "<#include";
+
+  private static final String IMPORT = "<#import";
+
+  private static final int MAX_DEPTH = 20;
+
+  private static final Pattern INCLUDE_PARAMS = Pattern.compile("\\s+(?:\"([^\"\\\\${}]*)\"|'([^'\\\\${}]*)')(?:\\s+parse\\s*=\\s*(true|false))?\\s*/?");
+
+  private static final Pattern PATH = Pattern.compile("\\s+(?:\"([^\"\\\\${}]*)\"|'([^'\\\\${}]*)')");
+
+  /**
+   * Content using syntax or white-space handling that inlining does not cater for.
+   */
+  private static final String[] NOT_INLINABLE = {"[#", "[@", "<#ftl", "<#t>", "<#t/>", "<#lt", "<#rt", "<#nt"};
+
+  /**
+   * FTL tags that do not output such that FreeMarker drops white-space between them.
+   */
+  private static final String[] NOT_OUTPUTTING = {"<#--", "<#assign", "<#global", "<#local", "<#macro", "</#macro", "<#function", "</#function", "<#import", "<#setting"};
+
+  /**
+   * Include on a line with only white-space.
+   */
+  private static final int LINE_OWN = 0;
+
+  /**
+   * Include on a line with text and no other FTL tags.
+   */
+  private static final int LINE_TEXT = 1;
+
+  /**
+   * Include next to text on a line with other FTL tags.
+   */
+  private static final int LINE_MIXED = 2;
+
+  /**
+   * Include on a line with other FTL tags and no text next to it.
+   */
+  private static final int LINE_TAGS = 3;
+
+  private final RawTemplateSource templateSource;
+
+  private final Predicate<String> staticInclude;
+
+  IncludeInliner(RawTemplateSource templateSource, Predicate<String> staticInclude) {
+    this.templateSource = templateSource;
+    this.staticInclude = staticInclude;
+  }
+
+  /**
+   * Return the content with the static includes inlined adding the names of the inlined templates to includes.
+   */
+  String inline(String templateName, String content, String encoding, Set<String> includes) throws IOException {
+    return inline(templateName, content, encoding, includes, new ArrayDeque<>());
+  }
+
+  /**
+   * Return the content with the static includes inlined or null when it is included content with
+   * an include or import path that can not be made absolute.
+   */
+  private String inline(String templateName, String content, String encoding, Set<String> includes, Deque<String> stack) throws IOException {
+    boolean included = !stack.isEmpty();
+    if (!(content.contains(INCLUDE) || included && content.contains(IMPORT)) || !inlinable(content)) {
+      return content;
+    }
+    StringBuilder result = null;
+    int copied = 0;
+    boolean constructBefore = false;
+    int pos = 0;
+    int length = content.length();
+    while (pos < length) {
+      int end = FtlUtil.constructEnd(content, pos);
+      if (end == -1) {
+        pos++;
+        continue;
+      }
+      int[] range = null;
+      String replacement = null;
+      if (content.startsWith(INCLUDE, pos)) {
+        Matcher matcher = INCLUDE_PARAMS.matcher(content);
+        matcher.region(pos + INCLUDE.length(), end - 1);
+        if (matcher.matches() && content.charAt(end - 1) == '>') {
+          String path = matcher.group(1) != null ? matcher.group(1) : matcher.group(2);
+          boolean parse = !"false".equals(matcher.group(3));
+          String name = resolve(templateName, path);
+          int line = lineType(content, pos, end);
+          if (name != null && constructBefore && line != LINE_TAGS) {
+            replacement = inlined(templateName, name, parse, line, encoding, includes, stack);
+          }
+          if (replacement != null) {
+            range = line == LINE_OWN ? lineRange(content, pos, end) : new int[]{pos, end};
+          }
+        }
+      }
+      if (range == null && included && (content.startsWith(INCLUDE, pos) || content.startsWith(IMPORT, pos))) {
+        // left within inlined content so made relative to the root rather than the including template
+        Matcher matcher = PATH.matcher(content);
+        matcher.region(content.startsWith(INCLUDE, pos) ? pos + INCLUDE.length() : pos + IMPORT.length(), end);
+        if (!matcher.lookingAt()) {
+          return null;
+        }
+        int group = matcher.group(1) != null ? 1 : 2;
+        String path = matcher.group(group);
+        String name = resolve(templateName, path);
+        if (name == null) {
+          return null;
+        }
+        if (!path.startsWith("/")) {
+          range = new int[]{matcher.start(group), matcher.end(group)};
+          replacement = "/" + name;
+        }
+      }
+      if (range != null) {
+        if (result == null) {
+          result = new StringBuilder(length + replacement.length());
+        }
+        result.append(content, copied, range[0]).append(replacement);
+        copied = range[1];
+        pos = Math.max(range[1], end);
+      } else {
+        pos = end;
+      }
+      constructBefore = true;
+    }
+    if (result == null) {
+      return content;
+    }
+    return result.append(content, copied, length).toString();
+  }
+
+  /**
+   * Return the content of the included template with its static includes inlined or null to leave the include.
+   */
+  private String inlined(String templateName, String name, boolean parse, int line, String encoding, Set<String> includes, Deque<String> stack) throws IOException {
+    if (LayoutComposer.isLayoutTemplate(name) || (parse && !staticInclude.test(name))) {
+      return null;
+    }
+    if (stack.contains(name)) {
+      throw new RuntimeException("Cyclic include of " + name + " in template " + templateName);
+    }
+    if (stack.size() == MAX_DEPTH) {
+      throw new RuntimeException("Includes nested deeper than " + MAX_DEPTH + " at " + name + " in template " + templateName);
+    }
+    String content = source(name, encoding);
+    if (content == null || (parse ? !inlinable(content) : !StaticPages.isStatic(content))) {
+      return null;
+    }
+    if (hasParentLayout(name, content)) {
+      log.debug("Include {} in template {} not inlined as it has a parent layout", name, templateName);
+      return null;
+    }
+    Set<String> nested = new LinkedHashSet<>();
+    if (parse) {
+      stack.push(name);
+      try {
+        content = inline(name, content, encoding, nested, stack);
+      } finally {
+        stack.pop();
+      }
+      if (content == null) {
+        log.debug("Include {} in template {} not inlined as it has an include or import path that can not be made absolute", name, templateName);
+        return null;
+      }
+    }
+    if (!fits(content, line)) {
+      log.debug("Include {} in template {} not inlined as its white-space stripping differs", name, templateName);
+      return null;
+    }
+    includes.add(name);
+    includes.addAll(nested);
+    return content;
+  }
+
+  private String source(String name, String encoding) {
+    try {
+      return templateSource.getSource(name, encoding);
+    } catch (IOException e) {
+      log.debug("Include {} not inlined", name, e);
+      return null;
+    }
+  }
+
+  /**
+   * Return true if the included template is merged with a parent layout when loaded (or has an invalid head).
+   */
+  private static boolean hasParentLayout(String name, String content) {
+    try {
+      return HeadContent.parse(name, content).hasParentLayout();
+    } catch (RuntimeException e) {
+      // reported when FreeMarker loads the include
+      return true;
+    }
+  }
+
+  private static boolean inlinable(String content) {
+    for (String match : NOT_INLINABLE) {
+      if (content.contains(match)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Return true if the content renders the same inlined at the include as included.
+   * <p>
+   * The content must have text before its first and after its last FTL tag when these do not
+   * output, as FreeMarker drops white-space between such tags and the template start or end. On a line of its
+   * own the content replaces whole lines, so must end with a line break and its first FTL construct
+   * must not be a tag on a line of its own (as FreeMarker keeps the indentation of that line in the
+   * included template but not once inlined). On a line with text the content must be a single line
+   * with text at its edges or lines without FTL tags.
+   * </p>
+   */
+  private static boolean fits(String content, int line) {
+    int[] tags = tags(content);
+    if (tags == null ? !hasText(content) : !edgeFits(content, tags[0], 0, tags[0]) || !edgeFits(content, tags[1], tags[2], content.length())) {
+      return false;
+    }
+    if (line == LINE_OWN) {
+      if (!content.endsWith("\n")) {
+        return false;
+      }
+      int first = firstConstruct(content);
+      if (first == -1 || content.charAt(first) != '<') {
+        return true;
+      }
+      int firstLine = lineType(content, first, FtlUtil.constructEnd(content, first));
+      return firstLine == LINE_TEXT || firstLine == LINE_MIXED;
+    }
+    if (content.indexOf('\n') == -1) {
+      // a single line with text at its edges stays a line with text
+      return tags == null || hasText(content.substring(0, tags[0])) && hasText(content.substring(tags[2]));
+    }
+    if (tags != null || line != LINE_TEXT) {
+      return false;
+    }
+    // FreeMarker drops a last line with only white-space that follows an interpolation
+    String lastLine = content.substring(content.lastIndexOf('\n') + 1);
+    return lastLine.isEmpty() || hasText(lastLine) || firstConstruct(content) == -1;
+  }
+
+  private static int firstConstruct(String content) {
+    for (int pos = 0; pos < content.length(); pos++) {
+      if (FtlUtil.constructEnd(content, pos) > -1) {
+        return pos;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Return true if the tag outputs or the white-space between it and the content start or end has text.
+   */
+  private static boolean edgeFits(String content, int tag, int start, int end) {
+    for (String match : NOT_OUTPUTTING) {
+      if (content.startsWith(match, tag)) {
+        return hasText(content.substring(start, end));
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Return the start of the first, the start of the last and the end of the last FTL tag or null if there are none.
+   */
+  private static int[] tags(String content) {
+    int[] tags = null;
+    int pos = 0;
+    while (pos < content.length()) {
+      int end = FtlUtil.constructEnd(content, pos);
+      if (end == -1) {
+        pos++;
+        continue;
+      }
+      if (content.charAt(pos) == '<') {
+        if (tags == null) {
+          tags = new int[]{pos, pos, end};
+        }
+        tags[1] = pos;
+        tags[2] = end;
+      }
+      pos = end;
+    }
+    return tags;
+  }
+
+  /**
+   * Return true if the content has text or interpolations (that stop FreeMarker stripping a line).
+   */
+  private static boolean hasText(String content) {
+    int pos = 0;
+    while (pos < content.length()) {
+      char ch = content.charAt(pos);
+      int end = FtlUtil.constructEnd(content, pos);
+      if (end == -1) {
+        if (!Character.isWhitespace(ch)) {
+          return true;
+        }
+        pos++;
+      } else if (ch != '<') {
+        return true;
+      } else {
+        pos = end;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Return the type of the line of the FTL tag given its start and end.
+   * <p>
+   * FreeMarker white-space stripping looks at the FTL tags on a line up to the first text, so on a
+   * line with other tags the include must be next to text for inlining not to change it. The last
+   * line without a line break is treated as having other tags, as the stripping differs for it.
+   * </p>
+   */
+  private static int lineType(String content, int start, int end) {
+    int lineStart = content.lastIndexOf('\n', start - 1) + 1;
+    int lineEnd = content.indexOf('\n', end);
+    boolean lastLine = lineEnd == -1;
+    if (lastLine) {
+      lineEnd = content.length();
+    }
+    boolean otherTags = lastLine;
+    int runStart = lineStart;
+    int runEnd = lineEnd;
+    int pos = lineStart;
+    while (pos < lineEnd) {
+      int constructEnd = pos == start ? end : FtlUtil.constructEnd(content, pos);
+      if (constructEnd == -1) {
+        pos++;
+        continue;
+      }
+      if (pos != start && content.charAt(pos) == '<') {
+        otherTags = true;
+        if (pos < start) {
+          runStart = constructEnd;
+        } else if (runEnd == lineEnd) {
+          runEnd = pos;
+        }
+      }
+      pos = constructEnd;
+    }
+    if (!hasText(content.substring(lineStart, start)) && !hasText(content.substring(end, lineEnd))) {
+      return otherTags ? LINE_TAGS : LINE_OWN;
+    }
+    if (!otherTags) {
+      return LINE_TEXT;
+    }
+    boolean nextToText = hasText(content.substring(runStart, start)) || hasText(content.substring(end, runEnd));
+    return nextToText ? LINE_MIXED : LINE_TAGS;
+  }
+
+  /**
+   * Return the range of the line of the FTL tag including its line break as stripped by FreeMarker.
+   */
+  private static int[] lineRange(String content, int start, int end) {
+    int lineStart = content.lastIndexOf('\n', start - 1) + 1;
+    int lineEnd = content.indexOf('\n', end);
+    return new int[]{lineStart, lineEnd == -1 ? content.length() : lineEnd + 1};
+  }
+
+  /**
+   * Return the template name of the include path or null if it is not a plain template name.
+   */
+  static String resolve(String templateName, String path) {
+    String name;
+    if (path.startsWith("/")) {
+      name = path.substring(1);
+    } else {
+      int slash = templateName.lastIndexOf('/');
+      name = templateName.substring(0, slash + 1) + path;
+    }
+    if (name.isEmpty() || name.contains("*") || name.contains("://")) {
+      return null;
+    }
+    Deque<String> segments = new ArrayDeque<>();
+    for (String segment : name.split("/", -1)) {
+      if (segment.equals("..")) {
+        if (segments.isEmpty()) {
+          return null;
+        }
+        segments.removeLast();
+      } else if (!segment.equals(".") && !segment.isEmpty()) {
+        segments.addLast(segment);
+      }
+    }
+    return segments.isEmpty() ? null : String.join("/", segments);
+  }
+}
@@ -2,9 +2,13 @@ package org.avaje.freemarker.layout;
 
 import java.io.IOException;
 import java.io.Reader;
+import java.nio.file.Path;
+import java.util.Set;
 
 import javax.servlet.ServletContext;
 
+import org.avaje.freemarker.OverlayTemplateLoader;
+import org.avaje.freemarker.PathTemplateLoader;
 import org.avaje.freemarker.util.IOUtil;
 
 import freemarker.cache.TemplateLoader;
@@ -17,6 +21,8 @@ public final class InheritLayoutTemplateLoader implements TemplateLoader {
   
   private final TemplateLoader wrapped;
 
+  private final Source source;
+
   private final RawTemplateInherit inheritHandler;
 
   /**
@@ -33,6 +39,13 @@ public final class InheritLayoutTemplateLoader implements TemplateLoader {
     return wrap(new WebappTemplateLoader(servletContext, templatePath), contentFilter);
   }
   
+  /**
+   * Create a PathTemplateLoader for the template directory and wrap it with inheritance layout handling.
+   */
+  public static TemplateLoader createPathLoader(Path templateRoot, ContentFilter contentFilter) {
+    return wrap(new PathTemplateLoader(templateRoot), contentFilter);
+  }
+  
   /**
    * Wrap a TemplateLoader with inheritance layout handling.
    */
@@ -45,19 +58,44 @@ public final class InheritLayoutTemplateLoader implements TemplateLoader {
    */
   public InheritLayoutTemplateLoader(TemplateLoader wrapped, ContentFilter contentFilter) {
     this.wrapped = wrapped;
-    this.inheritHandler = new RawTemplateInherit(new Source(wrapped), contentFilter);
+    this.source = new Source(wrapped);
+    this.inheritHandler = new RawTemplateInherit(source, contentFilter);
+  }
+
+  /**
+   * Create given the builder options.
+   */
+  InheritLayoutTemplateLoader(LayoutLoaderBuilder builder) {
+    this.wrapped = builder.getTemplateLoader();
+    this.source = new Source(wrapped);
+    this.inheritHandler = new RawTemplateInherit(builder, source);
   }
 
   public Object findTemplateSource(String name) throws IOException {
-    Object o = wrapped.findTemplateSource(name);
+    Object o = wrapped.findTemplateSource(inheritHandler.sourceName(name));
     if (o == null) {
+      // deleted (or never existed)
+      inheritHandler.removed(name);
       return null;
     }
     return new SourceWrapper(name, o);
   }
 
+  /**
+   * Return the maximum last modified time of the template, the parent layouts it was merged with
+   * and the static includes inlined into it.
+   * <p>
+   * This means that a change to a parent layout is detected as a change to all the templates that
+   * inherit from it.
+   * </p>
+   */
   public long getLastModified(Object templateSource) {
-    return wrapped.getLastModified(((SourceWrapper) templateSource).wrappedSource);
+    SourceWrapper wrapper = (SourceWrapper) templateSource;
+    long lastModified = wrapped.getLastModified(wrapper.wrappedSource);
+    for (String dependency : inheritHandler.dependencies(wrapper.templateName)) {
+      lastModified = Math.max(lastModified, source.getLastModified(dependency));
+    }
+    return lastModified;
   }
 
   public void closeTemplateSource(Object templateSource) throws IOException {
@@ -69,6 +107,30 @@ public final class InheritLayoutTemplateLoader implements TemplateLoader {
     return inheritHandler.getReader(((SourceWrapper) templateSource).templateName, encoding);
   }
 
+  /**
+   * Invalidate a changed template or layout returning the names of the templates that should be
+   * removed from the FreeMarker template cache.
+   * <p>
+   * This includes the template itself and all the templates that inherit from it.
+   * </p>
+   */
+  public Set<String> invalidate(String templateName) {
+    if (wrapped instanceof OverlayTemplateLoader) {
+      ((OverlayTemplateLoader) wrapped).clearLookupCache(templateName);
+    }
+    return inheritHandler.invalidate(templateName);
+  }
+
+  /**
+   * Clear all the cached parent layouts, theme layout lookups and static pages.
+   */
+  public void invalidateAll() {
+    if (wrapped instanceof OverlayTemplateLoader) {
+      ((OverlayTemplateLoader) wrapped).clearLookupCache();
+    }
+    inheritHandler.clearLayoutCache();
+  }
+
   private static final class SourceWrapper {
     final String templateName;
     final Object wrappedSource;
@@ -79,7 +141,7 @@ public final class InheritLayoutTemplateLoader implements TemplateLoader {
     }
   }
 
-  private static class Source implements RawTemplateSource {
+  static class Source implements RawTemplateSource {
 
     private final TemplateLoader wrapped;
 
@@ -89,12 +151,33 @@ public final class InheritLayoutTemplateLoader implements TemplateLoader {
     
     public String getSource(String templateName, String encoding) throws IOException {
 
+      Object s = wrapped.findTemplateSource(templateName);
+      if (s == null) {
+        return null;
+      }
       try {
-        Object s = wrapped.findTemplateSource(templateName);
         Reader reader = wrapped.getReader(s, encoding);
         return IOUtil.read(reader);
       } catch (Exception e) {
         throw new IOException("Error loading source for template: "+templateName, e);
+      } finally {
+        wrapped.closeTemplateSource(s);
+      }
+    }
+
+    public long getLastModified(String templateName) {
+      try {
+        Object s = wrapped.findTemplateSource(templateName);
+        if (s == null) {
+          return -1;
+        }
+        try {
+          return wrapped.getLastModified(s);
+        } finally {
+          wrapped.closeTemplateSource(s);
+        }
+      } catch (IOException e) {
+        return -1;
       }
     }
   }
@@ -0,0 +1,120 @@
+package org.avaje.freemarker.layout;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Bounded cache of parsed parent layouts keyed by template name and encoding.
+ * <p>
+ * Entries are checked against the last modified time of the source and a layout with an unknown
+ * (-1) last modified time is loaded each time. The cached layout is
+ * returned and callers merge children via its compiled plan such that the cached layout is not modified.
+ * Concurrent requests for the same layout load and parse it once.
+ * </p>
+ */
+class LayoutCache {
+
+  static final int DEFAULT_MAX_SIZE = 100;
+
+  private final RawTemplateSource templateSource;
+
+  private final LayoutMetrics metrics;
+
+  private final Map<String, CachedLayout> cache;
+
+  private final Map<String, Object> loadLocks = new ConcurrentHashMap<>();
+
+  LayoutCache(RawTemplateSource templateSource, int maxSize, LayoutMetrics metrics) {
+    this.templateSource = templateSource;
+    this.metrics = metrics;
+    this.cache = new LinkedHashMap<String, CachedLayout>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, CachedLayout> eldest) {
+        return size() > maxSize;
+      }
+    };
+  }
+
+  /**
+   * Return the parsed layout loading and parsing it if required.
+   * <p>
+   * The returned layout is shared and must not be modified, children are merged via its {@link PageContent#plan()}.
+   * </p>
+   */
+  PageContent get(String layoutName, String encoding) throws IOException {
+
+    String key = layoutName + ":" + encoding;
+    long lastModified = templateSource.getLastModified(layoutName);
+
+    CachedLayout entry = cached(key);
+    if (stale(entry, lastModified)) {
+      Object lock = loadLocks.computeIfAbsent(key, k -> new Object());
+      synchronized (lock) {
+        try {
+          entry = cached(key);
+          if (stale(entry, lastModified)) {
+            metrics.layoutCacheMiss(layoutName);
+            long start = System.nanoTime();
+            String content = templateSource.getSource(layoutName, encoding);
+            if (content == null) {
+              throw new IOException("layout not found: " + layoutName);
+            }
+            metrics.sourceRead(layoutName, System.nanoTime() - start, content.length());
+            entry = new CachedLayout(new PageContent(layoutName, content, lastModified), lastModified);
+            synchronized (cache) {
+              cache.put(key, entry);
+            }
+            return entry.page;
+          }
+        } finally {
+          // waiting requests find the loaded layout, later requests use a new lock
+          loadLocks.remove(key, lock);
+        }
+      }
+    }
+    metrics.layoutCacheHit(layoutName);
+    return entry.page;
+  }
+
+  private static boolean stale(CachedLayout entry, long lastModified) {
+    return entry == null || lastModified == -1 || entry.lastModified != lastModified;
+  }
+
+  private CachedLayout cached(String key) {
+    synchronized (cache) {
+      return cache.get(key);
+    }
+  }
+
+  /**
+   * Remove the cached layout for all encodings.
+   */
+  void remove(String layoutName) {
+    String prefix = layoutName + ":";
+    synchronized (cache) {
+      cache.keySet().removeIf(key -> key.startsWith(prefix));
+    }
+  }
+
+  /**
+   * Remove all the cached layouts.
+   */
+  void clear() {
+    synchronized (cache) {
+      cache.clear();
+    }
+  }
+
+  private static class CachedLayout {
+
+    final PageContent page;
+    final long lastModified;
+
+    CachedLayout(PageContent page, long lastModified) {
+      this.page = page;
+      this.lastModified = lastModified;
+    }
+  }
+}
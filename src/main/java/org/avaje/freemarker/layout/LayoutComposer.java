@@ -0,0 +1,315 @@
+package org.avaje.freemarker.layout;
+
+import org.avaje.freemarker.util.FtlUtil;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Generates the templates used to compose pages with their parent layouts at render time.
+ * <p>
+ * Each parent layout becomes a shared layout template (the layout name with an
+ * <code>@layout</code> suffix) that defines a macro. A page includes its parent layout template
+ * and calls the macro with its head, title, body tag attributes, variables and body as nested
+ * content. FreeMarker then parses each layout once rather than once per page that inherits it.
+ * </p>
+ * <p>
+ * The output is the same as textual merging with these differences:
+ * </p>
+ * <ul>
+ * <li>A <code>$variable</code> in a layout matches the whole name (letters, digits, '_' and '-') rather than a prefix</li>
+ * <li>A <code>$variable</code> inside a FreeMarker tag or interpolation in a layout is not replaced</li>
+ * <li>Relative includes in a layout are relative to the layout rather than the page</li>
+ * </ul>
+ * <p>
+ * Pages and layouts that use the square bracket syntax or the ftl directive, and layouts that
+ * define macros or functions are merged textually.
+ * </p>
+ */
+final class LayoutComposer {
+
+  /**
+   * The suffix added to the name of a layout for its layout template.
+   */
+  static final String LAYOUT_SUFFIX = "@layout";
+
+  private static final String EMPTY = "${\"\"}";
+
+  private static final String[] NOT_COMPOSABLE_PAGE = {"[#", "[@", "<#ftl"};
+
+  private static final String[] NOT_COMPOSABLE_LAYOUT = {"[#", "[@", "<#ftl", "<#macro", "<#function", "<#nested", "<#return"};
+
+  private LayoutComposer() {
+  }
+
+  /**
+   * Return true if the template name is the name of a layout template.
+   */
+  static boolean isLayoutTemplate(String templateName) {
+    return templateName.endsWith(LAYOUT_SUFFIX);
+  }
+
+  /**
+   * Return the name of the layout given the name of its layout template.
+   */
+  static String layoutName(String layoutTemplateName) {
+    return layoutTemplateName.substring(0, layoutTemplateName.length() - LAYOUT_SUFFIX.length());
+  }
+
+  /**
+   * Return true if the page source can be composed with its layouts at render time.
+   */
+  static boolean composablePage(String source) {
+    return !containsAny(source, NOT_COMPOSABLE_PAGE);
+  }
+
+  /**
+   * Return true if the layout source can be used as a layout template.
+   */
+  static boolean composableLayout(String source) {
+    return !containsAny(source, NOT_COMPOSABLE_LAYOUT);
+  }
+
+  private static boolean containsAny(String source, String[] matches) {
+    for (String match : matches) {
+      if (source.contains(match)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Return the page template calling the macro of its immediate parent layout.
+   * <p>
+   * The title, body tag attributes and variables are those of the page merged with all its
+   * layouts with the variables replaced, such that the layout templates only pass them through.
+   * Only the variables used by the layouts are passed.
+   * </p>
+   */
+  static String page(PageContent page, List<PageContent> layouts) {
+
+    LayoutPlan.Merged merged = LayoutPlan.of(page);
+    Set<String> used = new HashSet<>();
+    for (PageContent layout : layouts) {
+      merged = layout.plan().merge(merged);
+      used.addAll(layout.plan().variableNames());
+    }
+    VariableReplacer replacer = new VariableReplacer(merged.variables(), HeadContent.renderBreadCrumbs(merged.bread()));
+    Map<String, String> values = replacer.values();
+    Iterator<String> names = values.keySet().iterator();
+    while (names.hasNext()) {
+      if (!used.contains(names.next())) {
+        names.remove();
+      }
+    }
+
+    HeadContent head = page.head();
+    String headLines = replacer.replace(head.renderLines(0, head.lines().size()));
+    String body = replacer.replace(page.body().content()).toString();
+
+    String parent = layouts.get(0).getTemplateName();
+    StringBuilder sb = new StringBuilder(headLines.length() + body.length() + 512);
+    include(sb, parent);
+    sb.append("<@").append(macroName(parent)).append(" __vars=[");
+    boolean first = true;
+    for (String name : values.keySet()) {
+      if (!first) {
+        sb.append(", ");
+      }
+      first = false;
+      literal(sb, name);
+    }
+    sb.append("] __title=").append(merged.title() != null);
+    sb.append(" __bodyAttributes=").append(merged.bodyTagAttributes() != null);
+    sb.append(" ; __part, __name>\n");
+    sb.append("<#if __part == \"head\">\n").append(headLines);
+    sb.append("<#elseif __part == \"body\">\n").append(body);
+    sb.append("</#if><#if __part == \"title\">");
+    text(sb, merged.title() == null ? "" : replacer.replace(merged.title()));
+    sb.append("<#elseif __part == \"bodyAttributes\">");
+    text(sb, merged.bodyTagAttributes() == null ? "" : replacer.replace(merged.bodyTagAttributes()));
+    if (!values.isEmpty()) {
+      sb.append("<#elseif __part == \"var\">");
+      first = true;
+      for (Map.Entry<String, String> entry : values.entrySet()) {
+        sb.append(first ? "<#if __name == " : "<#elseif __name == ");
+        first = false;
+        literal(sb, entry.getKey());
+        sb.append('>');
+        text(sb, entry.getValue());
+      }
+      sb.append("</#if>");
+    }
+    sb.append("</#if></@").append(macroName(parent)).append('>');
+    return sb.toString();
+  }
+
+  /**
+   * Return the layout template defining the macro that renders the layout.
+   * <p>
+   * The parent is the resolved name of the parent layout or null for the top layout. Each
+   * <code>$variable</code> in the layout outputs the variable passed by the page if defined.
+   * </p>
+   */
+  static String layout(PageContent layout, String parent) {
+
+    LayoutPlan plan = layout.plan();
+    String name = layout.getTemplateName();
+    StringBuilder sb = new StringBuilder(layout.sourceLength() + 1024);
+    if (parent != null) {
+      include(sb, parent);
+    }
+    sb.append("<#macro ").append(macroName(name)).append(" __vars=[] __title=false __bodyAttributes=false>\n");
+    if (parent != null) {
+      sb.append("<@").append(macroName(parent)).append(" __vars=__vars __title=__title __bodyAttributes=__bodyAttributes ; __part, __name>\n");
+      sb.append("<#if __part == \"head\">\n");
+      segments(sb, plan.headBefore());
+      sb.append("<#nested \"head\", \"\">\n");
+      segments(sb, plan.headAfter());
+      sb.append("<#elseif __part == \"body\">\n");
+      segments(sb, plan.body());
+      sb.append("<#else><#nested __part, __name></#if></@").append(macroName(parent)).append('>');
+    } else {
+      if (plan.withHead()) {
+        sb.append(plan.prefix()).append("\n<head>\n");
+        sb.append("<#if __title>\n  <title><#nested \"title\", \"\"></title>\n</#if>\n");
+        segments(sb, plan.headBefore());
+        sb.append("<#nested \"head\", \"\">\n");
+        segments(sb, plan.headAfter());
+        sb.append("</head>\n");
+      }
+      if (plan.withBody()) {
+        sb.append("<body<#if __bodyAttributes><#nested \"bodyAttributes\", \"\"></#if>>");
+      }
+      segments(sb, plan.body());
+      if (plan.withBody()) {
+        sb.append("</body>\n</html>\n");
+      }
+    }
+    return sb.append("</#macro>").toString();
+  }
+
+  /**
+   * Return the name of the macro defined by the layout template.
+   */
+  static String macroName(String layoutName) {
+    StringBuilder sb = new StringBuilder(layoutName.length() + 9).append("__layout_");
+    for (int i = 0; i < layoutName.length(); i++) {
+      char ch = layoutName.charAt(i);
+      sb.append(Character.isLetterOrDigit(ch) ? ch : '_');
+    }
+    return sb.toString();
+  }
+
+  private static void include(StringBuilder sb, String layoutName) {
+    sb.append("<#include ");
+    literal(sb, "/" + (layoutName.startsWith("/") ? layoutName.substring(1) : layoutName) + LAYOUT_SUFFIX);
+    sb.append(">\n");
+  }
+
+  /**
+   * Append the text such that its first and last lines are not subject to white-space stripping.
+   */
+  private static void text(StringBuilder sb, String text) {
+    sb.append(EMPTY).append(text).append(EMPTY);
+  }
+
+  /**
+   * Append the layout content with slots as the nested body and variables output at render time.
+   */
+  private static void segments(StringBuilder sb, ContentSegments content) {
+    for (ContentSegments.Segment segment : content.segments()) {
+      if (segment.slot) {
+        sb.append("<#nested \"body\", \"\">").append(EMPTY);
+      } else if (segment.plain) {
+        sb.append(segment.source, segment.start, segment.end);
+      } else {
+        variables(sb, segment.source.substring(segment.start, segment.end));
+      }
+    }
+  }
+
+  /**
+   * Return the names of the variables used in the layout content.
+   */
+  static Set<String> variableNames(ContentSegments... contents) {
+    Set<String> names = new HashSet<>();
+    for (ContentSegments content : contents) {
+      for (ContentSegments.Segment segment : content.segments()) {
+        if (!segment.slot && !segment.plain) {
+          variables(null, segment.source.substring(segment.start, segment.end), names);
+        }
+      }
+    }
+    return names;
+  }
+
+  private static void variables(StringBuilder sb, String text) {
+    variables(sb, text, null);
+  }
+
+  /**
+   * Append the text with variables output at render time or when sb is null collect the variable names.
+   */
+  private static void variables(StringBuilder sb, String text, Set<String> names) {
+    int last = 0;
+    int pos = 0;
+    int length = text.length();
+    while (pos < length) {
+      int end = FtlUtil.constructEnd(text, pos);
+      if (end > -1) {
+        pos = end;
+        continue;
+      }
+      if (text.charAt(pos) == '$') {
+        int nameEnd = pos + 1;
+        while (nameEnd < length && isNameChar(text.charAt(nameEnd))) {
+          nameEnd++;
+        }
+        if (nameEnd > pos + 1) {
+          String name = text.substring(pos + 1, nameEnd);
+          if (sb == null) {
+            names.add(name);
+            pos = nameEnd;
+            continue;
+          }
+          sb.append(text, last, pos).append("<#if __vars?seq_contains(");
+          literal(sb, name);
+          sb.append(")><#nested \"var\", ");
+          literal(sb, name);
+          sb.append("><#else>$").append(name).append("</#if>").append(EMPTY);
+          last = nameEnd;
+        }
+        pos = nameEnd;
+      } else {
+        pos++;
+      }
+    }
+    if (sb != null) {
+      sb.append(text, last, length);
+    }
+  }
+
+  private static boolean isNameChar(char ch) {
+    return Character.isLetterOrDigit(ch) || ch == '_' || ch == '-';
+  }
+
+  /**
+   * Append the value as a FreeMarker string literal.
+   */
+  private static void literal(StringBuilder sb, String value) {
+    sb.append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char ch = value.charAt(i);
+      if (ch == '"' || ch == '\\' || ch == '{') {
+        sb.append('\\');
+      }
+      sb.append(ch);
+    }
+    sb.append('"');
+  }
+}
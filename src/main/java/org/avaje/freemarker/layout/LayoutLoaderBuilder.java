@@ -0,0 +1,226 @@
+package org.avaje.freemarker.layout;
+
+import freemarker.cache.TemplateLoader;
+import org.avaje.freemarker.StaticPages;
+import org.avaje.freemarker.StaticText;
+
+import java.nio.file.Path;
+import java.util.function.Predicate;
+
+/**
+ * Bean used to build an InheritLayoutTemplateLoader.
+ */
+public class LayoutLoaderBuilder {
+
+  private TemplateLoader templateLoader;
+
+  private ContentFilter contentFilter;
+
+  private int maxCachedLayouts = LayoutCache.DEFAULT_MAX_SIZE;
+
+  private boolean streaming;
+
+  private LayoutMetrics metrics = LayoutMetrics.NOOP;
+
+  private Path mergedSourceCacheDir;
+
+  private LayoutResolver layoutResolver = LayoutResolver.IDENTITY;
+
+  private SharedLayouts sharedLayouts;
+
+  private StaticText staticText;
+
+  private StaticPages staticPages;
+
+  private boolean runtimeComposition;
+
+  private Predicate<String> staticIncludes;
+
+  /**
+   * Build the InheritLayoutTemplateLoader wrapping the template loader.
+   */
+  public InheritLayoutTemplateLoader build() {
+    if (sharedLayouts != null) {
+      if (templateLoader == null) {
+        templateLoader = sharedLayouts.getTemplateLoader();
+      } else if (templateLoader != sharedLayouts.getTemplateLoader()) {
+        throw new IllegalStateException("templateLoader must be the templateLoader of the sharedLayouts");
+      }
+    }
+    if (templateLoader == null) {
+      throw new IllegalStateException("templateLoader is required");
+    }
+    return new InheritLayoutTemplateLoader(this);
+  }
+
+  public TemplateLoader getTemplateLoader() {
+    return templateLoader;
+  }
+
+  /**
+   * Set the underlying TemplateLoader that is wrapped with layout inheritance handling.
+   */
+  public void setTemplateLoader(TemplateLoader templateLoader) {
+    this.templateLoader = templateLoader;
+  }
+
+  public ContentFilter getContentFilter() {
+    return contentFilter;
+  }
+
+  /**
+   * Set a filter applied to the content after layout inheritance.
+   */
+  public void setContentFilter(ContentFilter contentFilter) {
+    this.contentFilter = contentFilter;
+  }
+
+  public int getMaxCachedLayouts() {
+    return maxCachedLayouts;
+  }
+
+  /**
+   * Set the maximum number of parsed parent layouts to cache.
+   */
+  public void setMaxCachedLayouts(int maxCachedLayouts) {
+    this.maxCachedLayouts = maxCachedLayouts;
+  }
+
+  public boolean isStreaming() {
+    return streaming;
+  }
+
+  /**
+   * Set to true to stream merged templates to FreeMarker from the merged segments.
+   * <p>
+   * This avoids building each merged template as a single large String. It is not used
+   * when a ContentFilter is set as the filter requires the content as a String.
+   * </p>
+   */
+  public void setStreaming(boolean streaming) {
+    this.streaming = streaming;
+  }
+
+  public LayoutMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Set the listener for merge timings, layout cache hits and misses etc.
+   * <p>
+   * Defaults to {@link LayoutMetrics#NOOP}.
+   * </p>
+   */
+  public void setMetrics(LayoutMetrics metrics) {
+    this.metrics = metrics == null ? LayoutMetrics.NOOP : metrics;
+  }
+
+  public Path getMergedSourceCacheDir() {
+    return mergedSourceCacheDir;
+  }
+
+  /**
+   * Set a directory used to persist merged templates across restarts.
+   * <p>
+   * A merged template is served from this directory while the content of the template and all
+   * its parent layouts is unchanged. The directory can be shared by multiple JVMs, use a directory
+   * per {@link LayoutResolver} (such as per theme) as the entries are keyed by the template name.
+   * </p>
+   */
+  public void setMergedSourceCacheDir(Path mergedSourceCacheDir) {
+    this.mergedSourceCacheDir = mergedSourceCacheDir;
+  }
+
+  public LayoutResolver getLayoutResolver() {
+    return layoutResolver;
+  }
+
+  /**
+   * Set the resolver of the parent layout names such as a {@link ThemeLayoutResolver}.
+   */
+  public void setLayoutResolver(LayoutResolver layoutResolver) {
+    this.layoutResolver = layoutResolver == null ? LayoutResolver.IDENTITY : layoutResolver;
+  }
+
+  public SharedLayouts getSharedLayouts() {
+    return sharedLayouts;
+  }
+
+  /**
+   * Set the parsed layouts and merged templates shared with other loaders.
+   * <p>
+   * When set the templateLoader defaults to the template loader of the shared layouts and
+   * maxCachedLayouts is not used.
+   * </p>
+   */
+  public void setSharedLayouts(SharedLayouts sharedLayouts) {
+    this.sharedLayouts = sharedLayouts;
+  }
+
+  public StaticText getStaticText() {
+    return staticText;
+  }
+
+  /**
+   * Set to replace the large static regions of merged templates with pre-encoded text.
+   * <p>
+   * The same StaticText must be set on the ConfigurationBuilder to register the directive that
+   * outputs the static regions. Streaming is not used when this is set.
+   * </p>
+   */
+  public void setStaticText(StaticText staticText) {
+    this.staticText = staticText;
+  }
+
+  public StaticPages getStaticPages() {
+    return staticPages;
+  }
+
+  /**
+   * Set to classify merged templates serving those without interpolations or directives as static pages.
+   * <p>
+   * The same StaticPages must be set on the ConfigurationBuilder to register the directive that
+   * outputs the static pages. Streaming is not used when this is set.
+   * </p>
+   */
+  public void setStaticPages(StaticPages staticPages) {
+    this.staticPages = staticPages;
+  }
+
+  public Predicate<String> getStaticIncludes() {
+    return staticIncludes;
+  }
+
+  /**
+   * Set the predicate of the template names of includes that are inlined when templates are loaded.
+   * <p>
+   * Matching includes with a literal path are replaced by the content of the included template
+   * (recursively) such that there is no include per render, and includes with <code>parse=false</code>
+   * are inlined when their content has no FreeMarker syntax. Includes are left for FreeMarker where
+   * inlining would change the output white-space or the included template has a parent layout. With
+   * a ContentFilter the inlined content is filtered as part of the including template. The inlined templates are dependencies
+   * of the template such that a change to them reloads it. Use <code>name -&gt; false</code> to only
+   * inline <code>parse=false</code> includes. Streaming is not used when this is set.
+   * </p>
+   */
+  public void setStaticIncludes(Predicate<String> staticIncludes) {
+    this.staticIncludes = staticIncludes;
+  }
+
+  public boolean isRuntimeComposition() {
+    return runtimeComposition;
+  }
+
+  /**
+   * Set to true to compose pages with their parent layouts at render time.
+   * <p>
+   * Each parent layout is loaded as a separate layout template that is parsed once and shared
+   * by all the pages that inherit from it, rather than being merged into and parsed with each page.
+   * Pages and layouts that can not be composed are merged textually, see {@link LayoutComposer}
+   * for the differences to textual merging.
+   * </p>
+   */
+  public void setRuntimeComposition(boolean runtimeComposition) {
+    this.runtimeComposition = runtimeComposition;
+  }
+}
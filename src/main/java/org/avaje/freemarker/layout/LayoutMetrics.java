@@ -0,0 +1,80 @@
+package org.avaje.freemarker.layout;
+
+/**
+ * Listener for timings and counts of layout merging and template loading.
+ * <p>
+ * Register an implementation via {@link LayoutLoaderBuilder#setMetrics(LayoutMetrics)}. All methods
+ * default to doing nothing such that implementations only override the events they are interested in.
+ * Implementations must be thread safe.
+ * </p>
+ * <p>
+ * Sizes are reported in chars of the decoded sources (not bytes), as the wrapped loader
+ * supplies decoded sources.
+ * </p>
+ *
+ * @see HistogramLayoutMetrics
+ */
+public interface LayoutMetrics {
+
+  /**
+   * Metrics implementation that ignores all events.
+   */
+  LayoutMetrics NOOP = new LayoutMetrics() {
+  };
+
+  /**
+   * A template was merged with its parent layouts (including when the merged content was
+   * obtained from the merged source cache or the shared layouts).
+   *
+   * @param templateName The name of the template
+   * @param nanos        The time taken to read and merge the template
+   * @param layoutDepth  The number of parent layouts the template was merged with
+   * @param inputChars   The number of chars of the template and its parent layouts
+   * @param outputChars  The number of chars of the merged template
+   */
+  default void merged(String templateName, long nanos, int layoutDepth, int inputChars, int outputChars) {
+  }
+
+  /**
+   * A request for a template joined a merge of the same template already in progress.
+   */
+  default void mergeJoined(String templateName) {
+  }
+
+  /**
+   * The source of a template or layout was read from the wrapped loader.
+   *
+   * @param templateName The name of the template or layout
+   * @param nanos        The time taken to read the source
+   * @param chars        The number of chars of the source
+   */
+  default void sourceRead(String templateName, long nanos, int chars) {
+  }
+
+  /**
+   * The merged template was read from the merged source cache rather than being merged.
+   */
+  default void mergedSourceCacheHit(String templateName) {
+  }
+
+  /**
+   * A parent layout was obtained from the layout cache.
+   */
+  default void layoutCacheHit(String layoutName) {
+  }
+
+  /**
+   * A parent layout was not in the layout cache (or was modified) and was loaded.
+   */
+  default void layoutCacheMiss(String layoutName) {
+  }
+
+  /**
+   * The ContentFilter was applied to the merged template.
+   *
+   * @param templateName The name of the template
+   * @param nanos        The time taken by the filter
+   */
+  default void filtered(String templateName, long nanos) {
+  }
+}
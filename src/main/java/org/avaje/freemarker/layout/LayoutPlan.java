@@ -0,0 +1,226 @@
+package org.avaje.freemarker.layout;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A parent layout compiled once into immutable static content and the slots a child fills.
+ * <p>
+ * The slots are the head insertion point (layout-head), the title, the body (layout-body) and
+ * the variables and breadcrumb. The static head lines are pre-rendered either side of the insertion
+ * point and static content without variables is marked such that the variable replacement does not
+ * search it. Merging a child then only adds the child content to the slots such that the cost
+ * depends on the size of the child rather than the size of the layout.
+ * </p>
+ */
+final class LayoutPlan {
+
+  private final String prefix;
+  private final boolean withHead;
+  private final String title;
+  private final ContentSegments headBefore;
+  private final ContentSegments headAfter;
+  private final Map<String, String> variables;
+  private final Map<String, Crumb> bread;
+  private final boolean withBody;
+  private final String bodyTagAttributes;
+  private final ContentSegments body;
+  private final boolean composable;
+  private volatile Set<String> variableNames;
+
+  private LayoutPlan(PageContent layout, HeadContent head, BodyContent bodyContent) {
+    this.withHead = head.start() > -1;
+    this.prefix = withHead ? layout.prefix() : "";
+    this.title = head.title();
+    int insertAt = head.metaAddPosition();
+    int lineCount = head.lines().size();
+    this.headBefore = plain(head.renderLines(0, insertAt == -1 ? lineCount : insertAt));
+    this.headAfter = plain(insertAt == -1 ? "" : head.renderLines(insertAt, lineCount));
+    this.variables = Collections.unmodifiableMap(new LinkedHashMap<>(head.variables()));
+    this.bread = Collections.unmodifiableMap(new LinkedHashMap<>(head.bread()));
+    this.withBody = bodyContent.withBody();
+    this.bodyTagAttributes = bodyContent.bodyTagAttributes();
+    this.body = plain(bodyContent.content());
+    this.composable = LayoutComposer.composableLayout(layout.source());
+  }
+
+  /**
+   * Compile the parsed layout.
+   */
+  static LayoutPlan compile(PageContent layout) {
+    return new LayoutPlan(layout, layout.head(), layout.body());
+  }
+
+  /**
+   * Return the content of the page to merge into its parent layout.
+   */
+  static Merged of(PageContent page) {
+    HeadContent head = page.head();
+    BodyContent body = page.body();
+    ContentSegments headLines = ContentSegments.of(head.renderLines(0, head.lines().size()));
+    return new Merged(head.title(), headLines, head.variables(), head.bread(), body.bodyTagAttributes(), body.content());
+  }
+
+  /**
+   * Fill the slots with the child returning the result to merge into the next parent layout.
+   */
+  Merged merge(Merged child) {
+    ContentSegments head = ContentSegments.builder().add(headBefore).add(child.head).add(headAfter).build();
+    Map<String, String> mergedVariables = new LinkedHashMap<>(variables);
+    mergedVariables.putAll(child.variables);
+    Map<String, Crumb> mergedBread = new LinkedHashMap<>(bread);
+    mergedBread.putAll(child.bread);
+    return new Merged(
+      child.title != null ? child.title : title,
+      head,
+      mergedVariables,
+      mergedBread,
+      child.bodyTagAttributes != null ? child.bodyTagAttributes : bodyTagAttributes,
+      body.replaceSlots(child.body));
+  }
+
+  /**
+   * Fill the slots with the child as the top layout returning the content with variables replaced.
+   */
+  ContentSegments render(Merged child) {
+    Merged merged = merge(child);
+    ContentSegments.Builder builder = ContentSegments.builder();
+    if (withHead) {
+      builder.addPlain(prefix).addPlain("\n<head>\n");
+      if (merged.title != null) {
+        builder.add("  <title>" + merged.title + "</title>\n");
+      }
+      builder.add(merged.head).addPlain("</head>\n");
+    }
+    if (withBody) {
+      builder.addPlain("<body");
+      if (merged.bodyTagAttributes != null) {
+        builder.add(merged.bodyTagAttributes);
+      }
+      builder.addPlain(">");
+    }
+    builder.add(merged.body);
+    if (withBody) {
+      builder.addPlain("</body>\n</html>\n");
+    }
+    VariableReplacer replacer = new VariableReplacer(merged.variables, HeadContent.renderBreadCrumbs(merged.bread));
+    return replacer.replace(builder.build());
+  }
+
+  boolean withHead() {
+    return withHead;
+  }
+
+  String prefix() {
+    return prefix;
+  }
+
+  /**
+   * Return the static head lines before the child head lines are inserted.
+   */
+  ContentSegments headBefore() {
+    return headBefore;
+  }
+
+  /**
+   * Return the static head lines after the child head lines are inserted.
+   */
+  ContentSegments headAfter() {
+    return headAfter;
+  }
+
+  boolean withBody() {
+    return withBody;
+  }
+
+  /**
+   * Return the body with the layout body tags as slots.
+   */
+  ContentSegments body() {
+    return body;
+  }
+
+  /**
+   * Return true if the layout can be composed with its children at render time.
+   */
+  boolean composable() {
+    return composable;
+  }
+
+  /**
+   * Return the names of the variables used in the head and body computing them on first use.
+   */
+  Set<String> variableNames() {
+    Set<String> names = variableNames;
+    if (names == null) {
+      names = Collections.unmodifiableSet(LayoutComposer.variableNames(headBefore, headAfter, body));
+      variableNames = names;
+    }
+    return names;
+  }
+
+  /**
+   * Return the content with segments that contain no variables marked as plain.
+   */
+  private static ContentSegments plain(ContentSegments content) {
+    ContentSegments.Builder builder = ContentSegments.builder();
+    for (ContentSegments.Segment segment : content.segments()) {
+      if (segment.slot) {
+        builder.addSlot(segment.source);
+      } else {
+        int dollar = segment.source.indexOf('$', segment.start);
+        if (dollar == -1 || dollar >= segment.end) {
+          builder.addPlain(segment.source, segment.start, segment.end);
+        } else {
+          builder.add(segment.source, segment.start, segment.end);
+        }
+      }
+    }
+    return builder.build();
+  }
+
+  private static ContentSegments plain(String content) {
+    return plain(ContentSegments.of(content));
+  }
+
+  /**
+   * The content of a child merged with zero or more layouts.
+   */
+  static final class Merged {
+
+    private final String title;
+    private final ContentSegments head;
+    private final Map<String, String> variables;
+    private final Map<String, Crumb> bread;
+    private final String bodyTagAttributes;
+    private final ContentSegments body;
+
+    private Merged(String title, ContentSegments head, Map<String, String> variables, Map<String, Crumb> bread,
+                   String bodyTagAttributes, ContentSegments body) {
+      this.title = title;
+      this.head = head;
+      this.variables = variables;
+      this.bread = bread;
+      this.bodyTagAttributes = bodyTagAttributes;
+      this.body = body;
+    }
+
+    String title() {
+      return title;
+    }
+
+    Map<String, String> variables() {
+      return variables;
+    }
+
+    Map<String, Crumb> bread() {
+      return bread;
+    }
+
+    String bodyTagAttributes() {
+      return bodyTagAttributes;
+    }
+  }
+}
@@ -0,0 +1,170 @@
+package org.avaje.freemarker.layout;
+
+import freemarker.cache.FileTemplateLoader;
+import freemarker.cache.TemplateLoader;
+import org.avaje.freemarker.util.FtlUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Merges all the templates in a directory at build time writing the fully merged templates
+ * to an output directory.
+ * <p>
+ * The output directory is then served using {@link #createLoader(File)} such that there is no
+ * layout inheritance processing at runtime. Merge errors such as a missing parent layout or
+ * missing <code>&lt;/head&gt;</code> are reported for all the templates at once.
+ * </p>
+ * <p>
+ * Only the files matching the template filter (by default the <code>.html</code>, <code>.htm</code>,
+ * <code>.ftl</code>, <code>.ftlh</code> and <code>.ftlx</code> extensions) are merged. Other files
+ * such as images and fonts are copied unchanged.
+ * </p>
+ * <pre>{@code
+ *
+ *   java -cp ... org.avaje.freemarker.layout.LayoutPrecompiler src/main/templates target/templates
+ *
+ * }</pre>
+ */
+public class LayoutPrecompiler {
+
+  private static final Logger log = LoggerFactory.getLogger(LayoutPrecompiler.class);
+
+  private final Path sourceDir;
+
+  private final Path outputDir;
+
+  private final String encoding;
+
+  private final RawTemplateInherit inheritHandler;
+
+  private Predicate<String> templateFilter = FtlUtil::isTemplate;
+
+  /**
+   * Create with the source and output directories using UTF-8 encoding and no ContentFilter.
+   */
+  public LayoutPrecompiler(File sourceDir, File outputDir) throws IOException {
+    this(sourceDir, outputDir, "UTF-8", null);
+  }
+
+  /**
+   * Create additionally specifying the encoding and ContentFilter.
+   */
+  public LayoutPrecompiler(File sourceDir, File outputDir, String encoding, ContentFilter contentFilter) throws IOException {
+    this.sourceDir = sourceDir.toPath();
+    this.outputDir = outputDir.toPath();
+    this.encoding = encoding;
+    this.inheritHandler = new RawTemplateInherit(new InheritLayoutTemplateLoader.Source(new FileTemplateLoader(sourceDir)), contentFilter);
+  }
+
+  /**
+   * Create a TemplateLoader that serves the precompiled templates from the output directory.
+   */
+  public static TemplateLoader createLoader(File outputDir) throws IOException {
+    return new FileTemplateLoader(outputDir);
+  }
+
+  /**
+   * Set the filter of the file names (relative to the source directory) that are merged as templates.
+   * <p>
+   * Files not matching are copied to the output directory unchanged.
+   * </p>
+   */
+  public void setTemplateFilter(Predicate<String> templateFilter) {
+    this.templateFilter = templateFilter;
+  }
+
+  /**
+   * Merge all the templates writing them to the output directory and copy the other files.
+   *
+   * @return The number of templates written
+   * @throws IOException Listing all the templates that failed to merge
+   */
+  public int precompile() throws IOException {
+
+    Map<String, Exception> errors = new LinkedHashMap<>();
+    int count = 0;
+    for (String templateName : fileNames()) {
+      if (!templateFilter.test(templateName)) {
+        Path target = outputDir.resolve(templateName);
+        Files.createDirectories(target.getParent());
+        Files.copy(sourceDir.resolve(templateName), target, StandardCopyOption.REPLACE_EXISTING);
+        continue;
+      }
+      try {
+        String content = inheritHandler.getSource(templateName, encoding);
+        Path target = outputDir.resolve(templateName);
+        Files.createDirectories(target.getParent());
+        Files.write(target, content.getBytes(encoding));
+        count++;
+      } catch (Exception e) {
+        log.debug("Error merging template " + templateName, e);
+        errors.put(templateName, e);
+      }
+    }
+
+    if (!errors.isEmpty()) {
+      throw new IOException(errorMessage(errors));
+    }
+    log.debug("precompiled {} templates to {}", count, outputDir);
+    return count;
+  }
+
+  private List<String> fileNames() throws IOException {
+    try (Stream<Path> paths = Files.walk(sourceDir)) {
+      List<String> names = new ArrayList<>();
+      for (Path path : paths.filter(Files::isRegularFile).sorted().collect(Collectors.toList())) {
+        names.add(sourceDir.relativize(path).toString().replace(File.separatorChar, '/'));
+      }
+      return names;
+    }
+  }
+
+  private String errorMessage(Map<String, Exception> errors) {
+    StringBuilder sb = new StringBuilder();
+    sb.append("Failed to precompile ").append(errors.size()).append(" template(s):");
+    for (Map.Entry<String, Exception> entry : errors.entrySet()) {
+      sb.append("\n  ").append(entry.getKey()).append(" - ").append(message(entry.getValue()));
+    }
+    return sb.toString();
+  }
+
+  private String message(Throwable e) {
+    String message = e.getMessage();
+    if (e.getCause() != null) {
+      message = message + " - " + message(e.getCause());
+    }
+    return message;
+  }
+
+  /**
+   * Precompile templates with arguments of source directory, output directory and optionally encoding.
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2) {
+      System.err.println("Usage: LayoutPrecompiler <sourceDir> <outputDir> [encoding]");
+      System.exit(2);
+    }
+    String encoding = args.length > 2 ? args[2] : "UTF-8";
+    LayoutPrecompiler precompiler = new LayoutPrecompiler(new File(args[0]), new File(args[1]), encoding, null);
+    try {
+      int count = precompiler.precompile();
+      System.out.println("Precompiled " + count + " templates to " + args[1]);
+    } catch (IOException e) {
+      System.err.println(e.getMessage());
+      System.exit(1);
+    }
+  }
+}
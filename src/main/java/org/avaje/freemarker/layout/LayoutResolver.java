@@ -0,0 +1,24 @@
+package org.avaje.freemarker.layout;
+
+/**
+ * Resolves the layout named by <code>&lt;meta name="layout" content="..."/&gt;</code> to the
+ * name of the template that is loaded as the parent layout.
+ * <p>
+ * The resolved name identifies the layout source, such that loaders sharing parsed layouts via
+ * {@link SharedLayouts} share them whenever they resolve to the same name.
+ * </p>
+ *
+ * @see ThemeLayoutResolver
+ */
+public interface LayoutResolver {
+
+  /**
+   * Resolver that loads the layout by the name given in the page.
+   */
+  LayoutResolver IDENTITY = layoutName -> layoutName;
+
+  /**
+   * Return the name of the template to load for the layout named in a page.
+   */
+  String resolve(String layoutName);
+}
@@ -0,0 +1,311 @@
+package org.avaje.freemarker.layout;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The layout markers of a page found in a single forward scan of the source.
+ * <p>
+ * Each '&lt;' is matched against the markers such that the head and body are located and the head
+ * elements (title, meta layout, breadcrumbs, layout-head and variables) are read by position rather
+ * than by line. Variable elements are skipped as a whole so markers within them are not read.
+ * </p>
+ */
+final class LayoutTokens implements Tags {
+
+  enum Type {
+    TITLE, LAYOUT, CRUMB, LAYOUT_HEAD, TEMPLATE, VAR
+  }
+
+  private static final String TAG_TITLE = "<title>";
+  private static final String TAG_TITLE_END = "</title>";
+  private static final String META_LAYOUT = "<meta name=\"layout\"";
+  private static final String META_BREAD = "<meta name=\"bread";
+  private static final String META_ID_LAYOUT_HEAD = "<meta id=\"layout-head\"";
+  private static final String TEMPLATE_START = "<template id=\"";
+  private static final String TEMPLATE_END = "</template>";
+  private static final String VAR_START = "<var id=\"";
+  private static final String VAR_END = "</var>";
+  private static final String BODY_START = "<body";
+  private static final String BODY_END = "</body>";
+
+  /**
+   * A head element with its range in the source and the values read from it.
+   */
+  static final class Token {
+
+    final Type type;
+    final int start;
+    final int end;
+    final String name;
+    final String value;
+    final String href;
+
+    Token(Type type, int start, int end, String name, String value, String href) {
+      this.type = type;
+      this.start = start;
+      this.end = end;
+      this.name = name;
+      this.value = value;
+      this.href = href;
+    }
+  }
+
+  private final String templateName;
+  private final String source;
+  private final List<Token> headTokens = new ArrayList<>();
+
+  private int[] layoutBody = new int[2];
+  private int layoutBodyCount;
+
+  private boolean inHead;
+  private boolean titleRead;
+
+  /**
+   * The position of the head tag and the range of the head content.
+   */
+  int headStart = -1;
+  int headContentStart = -1;
+  int headEnd = -1;
+  int bodyTagStart = -1;
+  int bodyTagEnd = -1;
+  int bodyEnd = -1;
+
+  private LayoutTokens(String templateName, String source) {
+    this.templateName = templateName;
+    this.source = source;
+  }
+
+  /**
+   * Scan the page source for the head, body and layout markers.
+   */
+  static LayoutTokens page(String templateName, String source) {
+    LayoutTokens tokens = new LayoutTokens(templateName, source);
+    tokens.scan(false);
+    if (tokens.headStart > -1 && tokens.headEnd == -1) {
+      throw new RuntimeException("'" + _HEAD_END + "' tag not found in template[" + templateName + "] after position [" + tokens.headStart + "]");
+    }
+    if (tokens.bodyTagStart > -1 && tokens.bodyEnd == -1) {
+      throw new RuntimeException("'" + BODY_END + "' tag not found in template [" + templateName + "] after position [" + tokens.bodyTagEnd + "]");
+    }
+    return tokens;
+  }
+
+  /**
+   * Scan content that is all head content (without the head tags).
+   */
+  static LayoutTokens head(String templateName, String content) {
+    LayoutTokens tokens = new LayoutTokens(templateName, content);
+    tokens.headStart = 0;
+    tokens.headContentStart = 0;
+    tokens.headEnd = content.length();
+    tokens.inHead = true;
+    tokens.scan(true);
+    return tokens;
+  }
+
+  /**
+   * Return the head elements in source order.
+   */
+  List<Token> headTokens() {
+    return headTokens;
+  }
+
+  /**
+   * Return the positions of the layout body tags.
+   */
+  int[] layoutBodyPositions() {
+    return layoutBodyCount == layoutBody.length ? layoutBody : Arrays.copyOf(layoutBody, layoutBodyCount);
+  }
+
+  /**
+   * Put the template and var variables into the map with template variables taking precedence.
+   */
+  void readVariables(Map<String, String> variables) {
+    for (Token token : headTokens) {
+      if (token.type == Type.TEMPLATE) {
+        variables.putIfAbsent(token.name, token.value);
+      }
+    }
+    for (Token token : headTokens) {
+      if (token.type == Type.VAR) {
+        variables.putIfAbsent(token.name, token.value);
+      }
+    }
+  }
+
+  private void scan(boolean headOnly) {
+    int pos = source.indexOf('<');
+    while (pos > -1) {
+      int next = inHead ? headMarker(pos, headOnly) : pageMarker(pos);
+      pos = source.indexOf('<', next);
+    }
+  }
+
+  private int pageMarker(int pos) {
+    switch (charAt(pos + 1)) {
+      case 'h':
+        if (headStart == -1 && source.startsWith(_HEAD, pos)) {
+          headStart = pos;
+          headContentStart = pos + _HEAD.length();
+          inHead = true;
+          return pos + _HEAD.length();
+        }
+        break;
+      case 'b':
+        if (bodyTagStart == -1 && source.startsWith(BODY_START, pos)) {
+          bodyTagStart = pos;
+          bodyTagEnd = source.indexOf(_END_TAG, pos + BODY_START.length());
+          if (bodyTagEnd == -1) {
+            throw new RuntimeException("'>' character not found in template [" + templateName + "] after '<body' position [" + pos + "]");
+          }
+          return bodyTagEnd + 1;
+        }
+        break;
+      case '/':
+        if (bodyTagStart > -1 && source.startsWith(BODY_END, pos)) {
+          bodyEnd = pos;
+          return pos + BODY_END.length();
+        }
+        break;
+      case 'd':
+        return layoutBody(pos);
+      default:
+    }
+    return pos + 1;
+  }
+
+  private int headMarker(int pos, boolean headOnly) {
+    switch (charAt(pos + 1)) {
+      case '/':
+        if (!headOnly && source.startsWith(_HEAD_END, pos)) {
+          headEnd = pos;
+          inHead = false;
+          return pos + _HEAD_END.length();
+        }
+        break;
+      case 't':
+        if (source.startsWith(TEMPLATE_START, pos)) {
+          return variable(Type.TEMPLATE, pos, TEMPLATE_START, TEMPLATE_END);
+        }
+        if (!titleRead && source.startsWith(TAG_TITLE, pos)) {
+          return title(pos);
+        }
+        break;
+      case 'v':
+        if (source.startsWith(VAR_START, pos)) {
+          return variable(Type.VAR, pos, VAR_START, VAR_END);
+        }
+        break;
+      case 'm':
+        if (source.startsWith(META_LAYOUT, pos)) {
+          return metaLayout(pos);
+        }
+        if (source.startsWith(META_BREAD, pos)) {
+          return crumb(pos);
+        }
+        if (source.startsWith(META_ID_LAYOUT_HEAD, pos)) {
+          int end = tagEnd(pos, META_ID_LAYOUT_HEAD);
+          headTokens.add(new Token(Type.LAYOUT_HEAD, pos, end, null, null, null));
+          return end;
+        }
+        break;
+      case 'd':
+        return layoutBody(pos);
+      default:
+    }
+    return pos + 1;
+  }
+
+  private char charAt(int pos) {
+    return pos < source.length() ? source.charAt(pos) : 0;
+  }
+
+  private int layoutBody(int pos) {
+    if (!source.startsWith(layoutBodyTag, pos)) {
+      return pos + 1;
+    }
+    if (layoutBodyCount == layoutBody.length) {
+      layoutBody = Arrays.copyOf(layoutBody, layoutBodyCount * 2);
+    }
+    layoutBody[layoutBodyCount++] = pos;
+    return pos + layoutBodyTag.length();
+  }
+
+  private int title(int pos) {
+    int end = source.indexOf(TAG_TITLE_END, pos + TAG_TITLE.length());
+    if (end == -1) {
+      throw new RuntimeException("'" + TAG_TITLE_END + "' not found in template[" + templateName + "] after position [" + pos + "]");
+    }
+    titleRead = true;
+    String title = source.substring(pos + TAG_TITLE.length(), end);
+    headTokens.add(new Token(Type.TITLE, pos, end + TAG_TITLE_END.length(), null, title, null));
+    return end + TAG_TITLE_END.length();
+  }
+
+  private int metaLayout(int pos) {
+    int end = tagEnd(pos, META_LAYOUT);
+    int contentStart = source.indexOf("content=", pos);
+    if (contentStart == -1 || contentStart > end) {
+      throw new RuntimeException("No 'content=' attribute in <meta name=\"layout\" ... element in template[" + templateName + "]?");
+    }
+    String layout = source.substring(contentStart + 8, end - 1);
+    if (layout.endsWith("/")) {
+      layout = layout.substring(0, layout.length() - 1);
+    }
+    layout = StringHelper.removeChars(layout, new char[]{'"', '\''}).trim();
+    headTokens.add(new Token(Type.LAYOUT, pos, end, null, layout, null));
+    return end;
+  }
+
+  private int crumb(int pos) {
+    int end = source.indexOf("/>", pos);
+    if (end == -1) {
+      throw new RuntimeException("'/>' not found for " + META_BREAD + " in template[" + templateName + "] at position [" + pos + "]");
+    }
+    String name = attribute("name", pos, end);
+    String desc = attribute("content", pos, end);
+    String href = attribute("href", pos, end);
+    headTokens.add(new Token(Type.CRUMB, pos, end + 2, name, desc, href));
+    return end + 2;
+  }
+
+  private int variable(Type type, int pos, String elementStart, String elementEnd) {
+    int idEnd = source.indexOf("\">", pos + elementStart.length());
+    if (idEnd == -1) {
+      throw new RuntimeException("No closing '\">' reading meta variable at pos[" + pos + "]");
+    }
+    int end = source.indexOf(elementEnd, idEnd);
+    if (end == -1) {
+      throw new RuntimeException(elementEnd + " not found reading meta variable at pos[" + idEnd + "]");
+    }
+    String id = source.substring(pos + elementStart.length(), idEnd).trim();
+    String value = source.substring(idEnd + 2, end).trim();
+    headTokens.add(new Token(type, pos, end + elementEnd.length(), id, value, null));
+    return end + elementEnd.length();
+  }
+
+  /**
+   * Return the position after the '>' closing the tag.
+   */
+  private int tagEnd(int pos, String tag) {
+    int end = source.indexOf(_END_TAG, pos + tag.length());
+    if (end == -1) {
+      throw new RuntimeException("'>' not found for " + tag + " in template[" + templateName + "] at position [" + pos + "]");
+    }
+    return end + 1;
+  }
+
+  private String attribute(String attribute, int start, int end) {
+    String attr = attribute + "=\"";
+    int valueStart = source.indexOf(attr, start);
+    if (valueStart == -1 || valueStart > end) {
+      throw new RuntimeException("No '" + attribute + "' attribute in " + META_BREAD + " element in template[" + templateName + "] at position [" + start + "]");
+    }
+    valueStart += attr.length();
+    int valueEnd = source.indexOf('"', valueStart);
+    return source.substring(valueStart, valueEnd);
+  }
+}
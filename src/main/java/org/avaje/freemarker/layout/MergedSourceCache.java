@@ -0,0 +1,223 @@
+package org.avaje.freemarker.layout;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Persistent cache of merged template sources stored in a directory.
+ * <p>
+ * Entries are keyed by the template name and looked up with the template source before it is
+ * parsed. Each entry holds the merged content along with a SHA-256 hash of the template and, for
+ * each parent layout, the layout name as given in the child, the resolved name, the last modified
+ * time and a SHA-256 hash of the layout. An entry is used when the template hash matches and each
+ * layout resolves to the same name and is unchanged. A layout is unchanged when its last modified
+ * time matches, otherwise when its hash matches, such that a hit does not parse the sources and
+ * usually does not read the layouts. Entries are written to a temporary file and atomically moved
+ * into place such that multiple JVMs can share the directory.
+ * </p>
+ */
+class MergedSourceCache {
+
+  private static final Logger log = LoggerFactory.getLogger(MergedSourceCache.class);
+
+  private static final int VERSION = 2;
+
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  private final Path directory;
+
+  private final RawTemplateSource templateSource;
+
+  private final Map<String, LayoutHash> layoutHashes = new ConcurrentHashMap<>();
+
+  MergedSourceCache(Path directory, RawTemplateSource templateSource) {
+    this.directory = directory;
+    this.templateSource = templateSource;
+    try {
+      Files.createDirectories(directory);
+    } catch (IOException e) {
+      throw new RuntimeException("Unable to create merged source cache directory " + directory, e);
+    }
+  }
+
+  /**
+   * Return the cached merge if the template source matches and its parent layouts are unchanged.
+   */
+  Merged get(String templateName, String encoding, String source, LayoutResolver layoutResolver) {
+    Path file = file(templateName, encoding);
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+      if (in.readInt() != VERSION || !templateName.equals(in.readUTF()) || !encoding.equals(in.readUTF())) {
+        return null;
+      }
+      if (!hash(source).equals(in.readUTF())) {
+        return null;
+      }
+      int inputChars = in.readInt();
+      int depth = in.readInt();
+      List<String> chain = new ArrayList<>(depth);
+      for (int i = 0; i < depth; i++) {
+        String parentLayout = in.readUTF();
+        String layoutName = in.readUTF();
+        long lastModified = in.readLong();
+        String hash = in.readUTF();
+        if (!layoutName.equals(layoutResolver.resolve(parentLayout)) || !unchanged(layoutName, encoding, lastModified, hash)) {
+          return null;
+        }
+        chain.add(layoutName);
+      }
+      byte[] content = new byte[in.readInt()];
+      in.readFully(content);
+      return new Merged(Collections.unmodifiableList(chain), inputChars, new String(content, StandardCharsets.UTF_8));
+
+    } catch (NoSuchFileException e) {
+      return null;
+    } catch (IOException | RuntimeException e) {
+      log.warn("Ignoring unreadable merged source cache entry " + file, e);
+      return null;
+    }
+  }
+
+  /**
+   * Store the content merged from the page and its parent layouts (starting with the immediate parent).
+   */
+  void put(String templateName, String encoding, PageContent page, List<PageContent> layouts, String content) {
+    Path file = file(templateName, encoding);
+    Path tmp = null;
+    try {
+      tmp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+        out.writeInt(VERSION);
+        out.writeUTF(templateName);
+        out.writeUTF(encoding);
+        out.writeUTF(hash(page.source()));
+        int inputChars = page.sourceLength();
+        for (PageContent layout : layouts) {
+          inputChars += layout.sourceLength();
+        }
+        out.writeInt(inputChars);
+        out.writeInt(layouts.size());
+        PageContent child = page;
+        for (PageContent layout : layouts) {
+          out.writeUTF(child.getParentLayout());
+          out.writeUTF(layout.getTemplateName());
+          out.writeLong(layout.lastModified());
+          out.writeUTF(hash(layout.source()));
+          child = layout;
+        }
+        byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+      }
+      move(tmp, file);
+      tmp = null;
+    } catch (IOException | RuntimeException e) {
+      log.warn("Unable to write merged source cache entry " + file, e);
+    } finally {
+      if (tmp != null) {
+        try {
+          Files.deleteIfExists(tmp);
+        } catch (IOException e) {
+          log.debug("Unable to delete " + tmp, e);
+        }
+      }
+    }
+  }
+
+  private void move(Path tmp, Path file) throws IOException {
+    try {
+      Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    } catch (AtomicMoveNotSupportedException e) {
+      Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  /**
+   * Return true if the layout has the last modified time or otherwise the hash it was merged with.
+   */
+  private boolean unchanged(String layoutName, String encoding, long lastModified, String hash) throws IOException {
+    long current = templateSource.getLastModified(layoutName);
+    return (current != -1 && current == lastModified) || hash.equals(layoutHash(layoutName, encoding, current));
+  }
+
+  /**
+   * Return the hash of the layout source reusing the previous hash while it is unmodified.
+   */
+  private String layoutHash(String layoutName, String encoding, long lastModified) throws IOException {
+    String key = layoutName + ":" + encoding;
+    LayoutHash cached = layoutHashes.get(key);
+    if (cached != null && lastModified != -1 && cached.lastModified == lastModified) {
+      return cached.hash;
+    }
+    String source = templateSource.getSource(layoutName, encoding);
+    if (source == null) {
+      throw new IOException("layout not found: " + layoutName);
+    }
+    String hash = hash(source);
+    layoutHashes.put(key, new LayoutHash(lastModified, hash));
+    return hash;
+  }
+
+  private Path file(String templateName, String encoding) {
+    return directory.resolve(hash(templateName + ":" + encoding) + ".merged");
+  }
+
+  static String hash(String content) {
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-256").digest(content.getBytes(StandardCharsets.UTF_8));
+      char[] hex = new char[digest.length * 2];
+      for (int i = 0; i < digest.length; i++) {
+        hex[i * 2] = HEX[(digest[i] >> 4) & 0xF];
+        hex[i * 2 + 1] = HEX[digest[i] & 0xF];
+      }
+      return new String(hex);
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * A merged template read from the cache.
+   */
+  static class Merged {
+
+    final List<String> chain;
+    final int inputChars;
+    final String content;
+
+    Merged(List<String> chain, int inputChars, String content) {
+      this.chain = chain;
+      this.inputChars = inputChars;
+      this.content = content;
+    }
+  }
+
+  private static class LayoutHash {
+
+    final long lastModified;
+    final String hash;
+
+    LayoutHash(long lastModified, String hash) {
+      this.lastModified = lastModified;
+      this.hash = hash;
+    }
+  }
+}
@@ -5,15 +5,65 @@ class PageContent {
   private final String templateName;
 
   private final String originalContent;
+  private final int sourceLength;
+  private final long lastModified;
   private HeadContent headContent;
   private BodyContent bodyContent;
 
+  /**
+   * The compiled plan when used as a parent layout.
+   */
+  private volatile LayoutPlan plan;
+
   PageContent(String templateName, String originalContent) {
+    this(templateName, originalContent, -1);
+  }
+
+  PageContent(String templateName, String originalContent, long lastModified) {
     this.templateName = templateName;
     this.originalContent = originalContent;
+    this.sourceLength = originalContent.length();
+    this.lastModified = lastModified;
     parse();
   }
 
+  /**
+   * Return the layout plan compiling it on first use.
+   */
+  LayoutPlan plan() {
+    LayoutPlan result = plan;
+    if (result == null) {
+      result = LayoutPlan.compile(this);
+      plan = result;
+    }
+    return result;
+  }
+
+  String getTemplateName() {
+    return templateName;
+  }
+
+  /**
+   * Return the length of the original template source.
+   */
+  int sourceLength() {
+    return sourceLength;
+  }
+
+  /**
+   * Return the last modified time of the source when it was loaded (-1 if unknown).
+   */
+  long lastModified() {
+    return lastModified;
+  }
+
+  /**
+   * Return the original template source.
+   */
+  String source() {
+    return originalContent;
+  }
+
   boolean hasParentLayout() {
     return headContent != null && headContent.hasParentLayout();
   }
@@ -22,33 +72,58 @@ class PageContent {
     return headContent.getParentLayout();
   }
 
+  HeadContent head() {
+    return headContent;
+  }
+
+  BodyContent body() {
+    return bodyContent;
+  }
+
   private void parse() {
-    bodyContent = BodyContent.parse(templateName, originalContent);
-    headContent = HeadContent.parse(templateName, originalContent);
+    LayoutTokens tokens = LayoutTokens.page(templateName, originalContent);
+    bodyContent = BodyContent.of(originalContent, tokens);
+    headContent = HeadContent.of(templateName, originalContent, tokens);
   }
 
 
   String renderContent() {
-		String pageContent = baseRender();
-    pageContent = headContent.replaceVariables(pageContent);
-    pageContent = headContent.replaceBreadCrumbs(pageContent);
-    return pageContent;
+    return renderSegments().toString();
+  }
+
+  /**
+   * Render the page with variables replaced as segments without materializing the content.
+   */
+  ContentSegments renderSegments() {
+    return headContent.variableReplacer().replace(baseRender());
   }
 
-  private String baseRender() {
-    StringBuilder sb = new StringBuilder(originalContent.length() + 512);
+  private ContentSegments baseRender() {
+    ContentSegments.Builder builder = ContentSegments.builder();
     int headStart = headContent.start();
     if (headStart > -1) {
-			sb.append(originalContent.substring(0, headStart).trim());
-			headContent.render(sb);
-		}
-    bodyContent.render(sb);
-		return sb.toString();
-	}
-
-  void mergeChild(PageContent child) {
-    this.headContent.mergeWith(child.headContent);
-    this.bodyContent.mergeWith(child.bodyContent);
+      builder.add(prefix());
+      StringBuilder head = new StringBuilder(512);
+      headContent.render(head);
+      builder.add(head.toString());
+    }
+    bodyContent.render(builder);
+    return builder.build();
+  }
+
+  /**
+   * Return the content prior to the head trimming leading and trailing whitespace.
+   */
+  String prefix() {
+    int end = Math.max(headContent.start(), 0);
+    int start = 0;
+    while (start < end && originalContent.charAt(start) <= ' ') {
+      start++;
+    }
+    while (end > start && originalContent.charAt(end - 1) <= ' ') {
+      end--;
+    }
+    return originalContent.substring(start, end);
   }
 
 }
@@ -1,11 +1,23 @@
 package org.avaje.freemarker.layout;
 
+import org.avaje.freemarker.StaticPages;
+import org.avaje.freemarker.StaticText;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.Reader;
 import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 
 /**
  * Raw string manipulation of HTML templates handling layout inheritance and dealing with HEAD
@@ -15,54 +27,402 @@ class RawTemplateInherit {
 
 	private static final Logger log = LoggerFactory.getLogger(RawTemplateInherit.class);
 
+	private static final String HEAD_ENCODING = "ISO-8859-1";
+
 	private final RawTemplateSource templateSource;
 	private final ContentFilter contentFilter;
+	private final boolean streaming;
+	private final LayoutMetrics metrics;
+	private final LayoutCache layoutCache;
+	private final LayoutResolver layoutResolver;
+	private final SharedLayouts sharedLayouts;
+	private final MergedSourceCache mergedSourceCache;
+	private final StaticText staticText;
+	private final StaticPages staticPages;
+	private final boolean runtimeComposition;
+	private final IncludeInliner includeInliner;
+	private final Map<String, List<String>> layoutChains = new ConcurrentHashMap<>();
+	private final Map<String, List<String>> inlinedIncludes = new ConcurrentHashMap<>();
+	private final Map<String, CompletableFuture<ContentSegments>> merging = new ConcurrentHashMap<>();
 
 	RawTemplateInherit(RawTemplateSource templateSource, ContentFilter contentFilter) {
 		this.templateSource = templateSource;
 		this.contentFilter = contentFilter;
+		this.streaming = false;
+		this.metrics = LayoutMetrics.NOOP;
+		this.layoutCache = new LayoutCache(templateSource, LayoutCache.DEFAULT_MAX_SIZE, metrics);
+		this.layoutResolver = LayoutResolver.IDENTITY;
+		this.sharedLayouts = null;
+		this.mergedSourceCache = null;
+		this.staticText = null;
+		this.staticPages = null;
+		this.runtimeComposition = false;
+		this.includeInliner = null;
 	}
 
+	RawTemplateInherit(LayoutLoaderBuilder builder, RawTemplateSource templateSource) {
+		this.templateSource = templateSource;
+		this.contentFilter = builder.getContentFilter();
+		this.streaming = builder.isStreaming();
+		this.metrics = builder.getMetrics();
+		this.sharedLayouts = builder.getSharedLayouts();
+		this.layoutCache = sharedLayouts != null ? sharedLayouts.layoutCache() : new LayoutCache(templateSource, builder.getMaxCachedLayouts(), metrics);
+		this.layoutResolver = builder.getLayoutResolver();
+		this.mergedSourceCache = builder.getMergedSourceCacheDir() == null ? null : new MergedSourceCache(builder.getMergedSourceCacheDir(), templateSource);
+		this.staticText = builder.getStaticText();
+		this.staticPages = builder.getStaticPages();
+		this.runtimeComposition = builder.isRuntimeComposition();
+		this.includeInliner = builder.getStaticIncludes() == null ? null : new IncludeInliner(templateSource, builder.getStaticIncludes());
+	}
+
+	/**
+	 * Return the name of the template source which for a layout template is the name of the layout.
+	 */
+	String sourceName(String templateName) {
+		if (runtimeComposition && LayoutComposer.isLayoutTemplate(templateName)) {
+			return LayoutComposer.layoutName(templateName);
+		}
+		return templateName;
+	}
+
+	/**
+	 * Return a Reader of the merged template.
+	 * <p>
+	 * In streaming mode without a ContentFilter the Reader streams directly from the segments
+	 * of the merged page rather than building the merged content as a String.
+	 * </p>
+	 */
 	public Reader getReader(String templateName, String encoding) throws IOException {
+		if (streaming && contentFilter == null && staticText == null && staticPages == null && includeInliner == null) {
+			return merge(templateName, encoding).reader();
+		}
 		return new StringReader(getSource(templateName, encoding));
 	}
 
 	String getSource(String templateName, String encoding) throws IOException {
 
+		String result = merge(templateName, encoding).toString();
+		if (includeInliner != null) {
+			Set<String> includes = new LinkedHashSet<>();
+			result = includeInliner.inline(templateName, result, encoding, includes);
+			inlinedIncludes.put(templateName, includes.isEmpty() ? Collections.<String>emptyList() : Collections.unmodifiableList(new ArrayList<>(includes)));
+		}
+		if (contentFilter != null) {
+		  long start = System.nanoTime();
+		  result = contentFilter.filter(result);
+		  metrics.filtered(templateName, System.nanoTime() - start);
+		}
+		if (staticPages != null) {
+			String page = staticPages.classify(templateName, result);
+			if (page != result) {
+				if (staticText != null) {
+					staticText.remove(templateName);
+				}
+				return page;
+			}
+		}
+		return staticText == null ? result : staticText.extract(templateName, result);
+	}
+
+	/**
+	 * Merge the template with concurrent callers for the same template sharing a single merge.
+	 */
+	private ContentSegments merge(String templateName, String encoding) throws IOException {
+
+		String key = templateName + ":" + encoding;
+		CompletableFuture<ContentSegments> future = new CompletableFuture<>();
+		CompletableFuture<ContentSegments> inProgress = merging.putIfAbsent(key, future);
+		if (inProgress != null) {
+			metrics.mergeJoined(templateName);
+			return join(inProgress);
+		}
+		try {
+			ContentSegments content = mergeTemplate(templateName, encoding);
+			future.complete(content);
+			return content;
+		} catch (IOException | RuntimeException | Error e) {
+			future.completeExceptionally(e);
+			throw e;
+		} finally {
+			merging.remove(key, future);
+		}
+	}
+
+	private ContentSegments join(CompletableFuture<ContentSegments> inProgress) throws IOException {
+		try {
+			return inProgress.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted waiting for template merge");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new RuntimeException(cause);
+		}
+	}
+
+	private ContentSegments mergeTemplate(String templateName, String encoding) throws IOException {
+
+		if (runtimeComposition && LayoutComposer.isLayoutTemplate(templateName)) {
+			return composeLayout(templateName, encoding);
+		}
+		long start = System.nanoTime();
 		String baseContent = templateSource.getSource(templateName, encoding);
 		if (baseContent == null) {
 			throw new RuntimeException("template not found: " + templateName);
 		}
+		metrics.sourceRead(templateName, System.nanoTime() - start, baseContent.length());
+
+		if (mergedSourceCache != null) {
+			// checked before parsing the page and its layouts
+			MergedSourceCache.Merged cached = mergedSourceCache.get(templateName, encoding, baseContent, layoutResolver);
+			if (cached != null) {
+				layoutChains.put(templateName, cached.chain);
+				metrics.mergedSourceCacheHit(templateName);
+				metrics.merged(templateName, System.nanoTime() - start, cached.chain.size(), cached.inputChars, cached.content.length());
+				return ContentSegments.of(cached.content);
+			}
+		}
 
 		PageContent page = new PageContent(templateName, baseContent);
+		List<PageContent> layouts = resolveLayouts(templateName, page, encoding);
+		List<String> chain = layoutNames(layouts);
+		layoutChains.put(templateName, chain);
 
-		// detect and merge layout inheritance
-		String result = mergeInheritedLayout(encoding, page);
-		if (contentFilter != null) {
-		  return contentFilter.filter(result);
-		} else {
-		  return result;
+		if (runtimeComposition && composable(page, layouts)) {
+			ContentSegments content = ContentSegments.of(LayoutComposer.page(page, layouts));
+			metrics.merged(templateName, System.nanoTime() - start, chain.size(), sourceLength(page, layouts), content.length());
+			return content;
+		}
+		if (sharedLayouts != null) {
+			ContentSegments shared = sharedLayouts.merged(templateName, encoding, baseContent, layouts);
+			if (shared != null) {
+				metrics.merged(templateName, System.nanoTime() - start, chain.size(), sourceLength(page, layouts), shared.length());
+				return shared;
+			}
+		}
+
+		ContentSegments content = render(page, layouts);
+		metrics.merged(templateName, System.nanoTime() - start, chain.size(), sourceLength(page, layouts), content.length());
+
+		if (sharedLayouts != null) {
+			sharedLayouts.putMerged(templateName, encoding, baseContent, layouts, content);
+		}
+		if (mergedSourceCache != null) {
+			mergedSourceCache.put(templateName, encoding, page, layouts, content.toString());
+		}
+		return content;
+	}
+
+	/**
+	 * Fill the compiled plan of each parent layout in turn rendering with the top layout.
+	 */
+	private ContentSegments render(PageContent page, List<PageContent> layouts) {
+		if (layouts.isEmpty()) {
+			return page.renderSegments();
+		}
+		int top = layouts.size() - 1;
+		LayoutPlan.Merged merged = LayoutPlan.of(page);
+		for (int i = 0; i < top; i++) {
+			merged = layouts.get(i).plan().merge(merged);
+		}
+		return layouts.get(top).plan().render(merged);
+	}
+
+	/**
+	 * Return true if the page has parent layouts and it and all its layouts can be composed at render time.
+	 */
+	private boolean composable(PageContent page, List<PageContent> layouts) {
+		if (layouts.isEmpty() || !LayoutComposer.composablePage(page.source())) {
+			return false;
+		}
+		for (PageContent layout : layouts) {
+			if (!layout.plan().composable()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Return the layout template for the layout that defines the macro the children call.
+	 */
+	private ContentSegments composeLayout(String templateName, String encoding) throws IOException {
+		String layoutName = LayoutComposer.layoutName(templateName);
+		PageContent layout = layoutCache.get(layoutName, encoding);
+		List<PageContent> layouts = resolveLayouts(layoutName, layout, encoding);
+		layoutChains.put(templateName, layoutNames(layouts));
+		String parent = layouts.isEmpty() ? null : layouts.get(0).getTemplateName();
+		return ContentSegments.of(LayoutComposer.layout(layout, parent));
+	}
+
+	private int sourceLength(PageContent page, List<PageContent> layouts) {
+		int length = page.sourceLength();
+		for (PageContent layout : layouts) {
+			length += layout.sourceLength();
+		}
+		return length;
+	}
+
+	/**
+	 * Return the parsed parent layouts of the page starting with the immediate parent.
+	 */
+	private List<PageContent> resolveLayouts(String templateName, PageContent page, String encoding) throws IOException {
+		List<PageContent> layouts = new ArrayList<>();
+		PageContent current = page;
+		while (current.hasParentLayout()) {
+			String parentLayout = layoutResolver.resolve(current.getParentLayout());
+			log.trace("merge parentLayout {}", parentLayout);
+			for (PageContent layout : layouts) {
+				if (layout.getTemplateName().equals(parentLayout)) {
+					throw new RuntimeException("Cyclic layout inheritance of " + parentLayout + " in template " + templateName);
+				}
+			}
+			current = layoutCache.get(parentLayout, encoding);
+			layouts.add(current);
+		}
+		return layouts;
+	}
+
+	private List<String> layoutNames(List<PageContent> layouts) {
+		if (layouts.isEmpty()) {
+			return Collections.emptyList();
 		}
+		List<String> names = new ArrayList<>(layouts.size());
+		for (PageContent layout : layouts) {
+			names.add(layout.getTemplateName());
+		}
+		return Collections.unmodifiableList(names);
 	}
 
-	private String mergeInheritedLayout(String encoding, PageContent page) throws IOException {
-		if (!page.hasParentLayout()) {
-			return page.renderContent();
+	/**
+	 * Return the parent layouts the template was merged with when it was last loaded.
+	 * <p>
+	 * FreeMarker asks for the last modified time before loading a template, so for a template
+	 * not loaded yet the parent layouts are resolved from the heads of its source and layouts.
+	 * </p>
+	 */
+	List<String> layoutChain(String templateName) {
+		List<String> chain = layoutChains.get(templateName);
+		if (chain == null) {
+			chain = resolveChain(sourceName(templateName));
+			List<String> loaded = layoutChains.putIfAbsent(templateName, chain);
+			return loaded == null ? chain : loaded;
 		}
-		return mergeContent(encoding, page);
+		return chain;
 	}
 
-	private String mergeContent(String encoding, PageContent page) throws IOException {
-		// there is page inheritance
-		String parentLayout = page.getParentLayout();
-		log.trace("merge parentLayout {}", parentLayout);
+	/**
+	 * Return the names of the parent layouts reading the meta layout of each source in turn.
+	 * <p>
+	 * The sources are decoded as ISO-8859-1 as the encoding is not known here, which reads
+	 * the (ASCII) meta layout tags of sources in any ASCII compatible encoding.
+	 * </p>
+	 */
+	private List<String> resolveChain(String sourceName) {
+		List<String> names = new ArrayList<>();
+		try {
+			String current = sourceName;
+			while (true) {
+				String source = templateSource.getSource(current, HEAD_ENCODING);
+				HeadContent head = source == null ? HeadContent.NONE : HeadContent.parse(current, source);
+				if (!head.hasParentLayout()) {
+					break;
+				}
+				current = layoutResolver.resolve(head.getParentLayout());
+				if (current.equals(sourceName) || names.contains(current)) {
+					// cyclic, reported when the template is loaded
+					break;
+				}
+				names.add(current);
+			}
+		} catch (IOException | RuntimeException e) {
+			log.debug("Error resolving the parent layouts of " + sourceName, e);
+		}
+		return names.isEmpty() ? Collections.<String>emptyList() : Collections.unmodifiableList(names);
+	}
 
-		String parentContent = templateSource.getSource(parentLayout, encoding);
-		PageContent parentPage = new PageContent(parentLayout, parentContent);
-		parentPage.mergeChild(page);
+	/**
+	 * Return the parent layouts and the inlined includes of the template when it was last loaded.
+	 */
+	List<String> dependencies(String templateName) {
+		List<String> includes = inlinedIncludes.get(templateName);
+		if (includes == null || includes.isEmpty()) {
+			return layoutChain(templateName);
+		}
+		List<String> dependencies = new ArrayList<>(layoutChain(templateName));
+		dependencies.addAll(includes);
+		return dependencies;
+	}
 
-		// recursively inherit
-		return mergeInheritedLayout(encoding, parentPage);
+	/**
+	 * Remove the template from the layout cache returning the names of the templates that
+	 * need to be reloaded.
+	 * <p>
+	 * This is the template itself and all the templates that were merged with it as a parent layout
+	 * or that inlined it as a static include (or that resolved the layout a theme layout overrides).
+	 * The static pages of these templates are removed.
+	 * </p>
+	 */
+	Set<String> invalidate(String templateName) {
+		layoutCache.remove(templateName);
+		Set<String> affected = new LinkedHashSet<>();
+		affected.add(templateName);
+		if (runtimeComposition) {
+			affected.add(templateName + LayoutComposer.LAYOUT_SUFFIX);
+		}
+		String overridden = null;
+		if (layoutResolver instanceof ThemeLayoutResolver) {
+			// a theme layout that is added or removed changes which layout the pages resolve
+			ThemeLayoutResolver themeResolver = (ThemeLayoutResolver) layoutResolver;
+			themeResolver.clear();
+			overridden = themeResolver.overriddenLayout(templateName);
+		}
+		for (Map.Entry<String, List<String>> entry : layoutChains.entrySet()) {
+			List<String> chain = entry.getValue();
+			if (chain.contains(templateName) || overridden != null && (chain.contains(overridden) || chain.contains("/" + overridden))) {
+				affected.add(entry.getKey());
+			}
+		}
+		for (Map.Entry<String, List<String>> entry : inlinedIncludes.entrySet()) {
+			if (entry.getValue().contains(templateName)) {
+				affected.add(entry.getKey());
+			}
+		}
+		for (String name : affected) {
+			removed(name);
+		}
+		return affected;
+	}
+
+	/**
+	 * Remove the static page of a template that was deleted or evicted.
+	 */
+	void removed(String templateName) {
+		if (staticPages != null) {
+			staticPages.remove(templateName);
+		}
+	}
+
+	/**
+	 * Clear the cache of parsed parent layouts, the theme layout lookups and the static pages.
+	 */
+	void clearLayoutCache() {
+		layoutCache.clear();
+		if (layoutResolver instanceof ThemeLayoutResolver) {
+			((ThemeLayoutResolver) layoutResolver).clear();
+		}
+		if (staticPages != null) {
+			staticPages.clear();
+		}
 	}
 
 }
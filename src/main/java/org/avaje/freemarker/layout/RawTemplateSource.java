@@ -5,5 +5,12 @@ import java.io.IOException;
 public interface RawTemplateSource {
 
 	String getSource(String templateName, String encoding) throws IOException;
-	
+
+	/**
+	 * Return the last modified time of the template or -1 if that is not known.
+	 */
+	default long getLastModified(String templateName) {
+		return -1;
+	}
+
 }
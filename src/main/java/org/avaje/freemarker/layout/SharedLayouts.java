@@ -0,0 +1,138 @@
+package org.avaje.freemarker.layout;
+
+import freemarker.cache.TemplateLoader;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parsed parent layouts and merged templates shared by multiple InheritLayoutTemplateLoaders.
+ * <p>
+ * Use this when serving many tenants (or themes) from the same templates with a loader per tenant
+ * that differ only by their {@link LayoutResolver}. Each layout is parsed once for all tenants and a
+ * merged template is shared by all the tenants that resolve the same chain of parent layouts, such
+ * that the memory used does not grow with the number of tenants.
+ * </p>
+ * <pre>{@code
+ *
+ *   SharedLayouts shared = new SharedLayouts(new PathTemplateLoader(root));
+ *
+ *   LayoutLoaderBuilder builder = new LayoutLoaderBuilder();
+ *   builder.setSharedLayouts(shared);
+ *   builder.setLayoutResolver(new ThemeLayoutResolver(shared.getTemplateLoader(), "themes/" + tenant));
+ *   TemplateLoader tenantLoader = builder.build();
+ *
+ * }</pre>
+ */
+public class SharedLayouts {
+
+  static final int DEFAULT_MAX_MERGES = 1000;
+
+  private final TemplateLoader templateLoader;
+
+  private final LayoutCache layoutCache;
+
+  private final Map<String, SharedMerge> merges;
+
+  /**
+   * Create for the template loader used by all the tenants.
+   */
+  public SharedLayouts(TemplateLoader templateLoader) {
+    this(templateLoader, LayoutCache.DEFAULT_MAX_SIZE, DEFAULT_MAX_MERGES, LayoutMetrics.NOOP);
+  }
+
+  /**
+   * Create specifying the cache sizes.
+   *
+   * @param templateLoader   The template loader used by all the tenants
+   * @param maxCachedLayouts The maximum number of parsed parent layouts to cache
+   * @param maxCachedMerges  The maximum number of merged templates to cache
+   * @param metrics          The listener for layout cache hits and misses
+   */
+  public SharedLayouts(TemplateLoader templateLoader, int maxCachedLayouts, int maxCachedMerges, LayoutMetrics metrics) {
+    this.templateLoader = templateLoader;
+    this.layoutCache = new LayoutCache(new InheritLayoutTemplateLoader.Source(templateLoader), maxCachedLayouts, metrics);
+    this.merges = new LinkedHashMap<String, SharedMerge>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, SharedMerge> eldest) {
+        return size() > maxCachedMerges;
+      }
+    };
+  }
+
+  /**
+   * Return the template loader used by all the tenants.
+   */
+  public TemplateLoader getTemplateLoader() {
+    return templateLoader;
+  }
+
+  LayoutCache layoutCache() {
+    return layoutCache;
+  }
+
+  /**
+   * Return the merged template if it was merged from the same source and parsed layouts.
+   */
+  ContentSegments merged(String templateName, String encoding, String source, List<PageContent> layouts) {
+    SharedMerge merge;
+    synchronized (merges) {
+      merge = merges.get(key(templateName, encoding, layouts));
+    }
+    return merge != null && merge.matches(source, layouts) ? merge.content : null;
+  }
+
+  void putMerged(String templateName, String encoding, String source, List<PageContent> layouts, ContentSegments content) {
+    SharedMerge merge = new SharedMerge(source, layouts.toArray(new PageContent[0]), content);
+    synchronized (merges) {
+      merges.put(key(templateName, encoding, layouts), merge);
+    }
+  }
+
+  private String key(String templateName, String encoding, List<PageContent> layouts) {
+    StringBuilder key = new StringBuilder(templateName).append(':').append(encoding);
+    for (PageContent layout : layouts) {
+      key.append(':').append(layout.getTemplateName());
+    }
+    return key.toString();
+  }
+
+  /**
+   * Clear the shared parsed layouts and merged templates.
+   */
+  public void clear() {
+    layoutCache.clear();
+    synchronized (merges) {
+      merges.clear();
+    }
+  }
+
+  private static class SharedMerge {
+
+    final String source;
+    final PageContent[] layouts;
+    final ContentSegments content;
+
+    SharedMerge(String source, PageContent[] layouts, ContentSegments content) {
+      this.source = source;
+      this.layouts = layouts;
+      this.content = content;
+    }
+
+    /**
+     * Match on the source and the same parsed layout instances (which are replaced when modified).
+     */
+    boolean matches(String source, List<PageContent> current) {
+      if (current.size() != layouts.length || !this.source.equals(source)) {
+        return false;
+      }
+      for (int i = 0; i < layouts.length; i++) {
+        if (layouts[i] != current.get(i)) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+}
@@ -50,6 +50,10 @@ class StringHelper {
 	 * Additionally specify the additionalSize to add to the buffer. This will
 	 * make the buffer bigger so that it doesn't have to grow when replacement
 	 * occurs.
+	 * <p>
+	 * This jumps between matches using indexOf and bulk copies the content in
+	 * between. When there is no match the source instance is returned.
+	 * </p>
 	 */
 	public static String replaceString(String source, String match, String replace,
 			int additionalSize, int startPos, int endPos) {
@@ -57,61 +61,34 @@ class StringHelper {
 		if (source == null){
 			return source;
 		}
-		
-		char match0 = match.charAt(0);
-		
+
 		int matchLength = match.length();
+		if (matchLength == 0) {
+			return source;
+		}
+
+		int sourceLength = source.length();
+		if (matchLength == 1 && replace.length() == 1 && startPos == 0 && endPos == sourceLength) {
+			return source.replace(match.charAt(0), replace.charAt(0));
+		}
 
-		if (matchLength == 1 && replace.length() == 1) {
-			char replace0 = replace.charAt(0);
-			return source.replace(match0, replace0);
+		int lastMatch = endPos - matchLength;
+		int pos = source.indexOf(match, startPos);
+		if (pos == -1 || pos > lastMatch) {
+			return source;
 		}
 		if (matchLength >= replace.length()) {
 			additionalSize = 0;
 		}
 
-
-		int sourceLength = source.length();
-		int lastMatch = endPos - matchLength;
-
 		StringBuilder sb = new StringBuilder(sourceLength + additionalSize);
-
-		if (startPos > 0) {
-			sb.append(source.substring(0, startPos));
+		int copyFrom = 0;
+		while (pos > -1 && pos <= lastMatch) {
+			sb.append(source, copyFrom, pos).append(replace);
+			copyFrom = pos + matchLength;
+			pos = source.indexOf(match, copyFrom);
 		}
-
-		char sourceChar;
-		boolean isMatch;
-		int sourceMatchPos;
-
-		for (int i = startPos; i < sourceLength; i++) {
-			sourceChar = source.charAt(i);
-			if (i > lastMatch || sourceChar != match0) {
-				sb.append(sourceChar);
-
-			} else {
-				// check to see if this is a match
-				isMatch = true;
-				sourceMatchPos = i;
-				
-				// check each following character...
-				for (int j = 1; j < matchLength; j++) {
-					sourceMatchPos++;
-					if (source.charAt(sourceMatchPos) != match.charAt(j)) {
-						isMatch = false;
-						break;
-					}
-				}
-				if (isMatch) {
-					i = i + matchLength - 1;
-					sb.append(replace);
-				} else {
-					// was not a match
-					sb.append(sourceChar);
-				}
-			}
-		}
-
+		sb.append(source, copyFrom, sourceLength);
 		return sb.toString();
 	}
 
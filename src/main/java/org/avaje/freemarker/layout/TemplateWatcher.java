@@ -0,0 +1,285 @@
+package org.avaje.freemarker.layout;
+
+import freemarker.cache.TemplateLoader;
+import freemarker.template.Configuration;
+import org.avaje.freemarker.OverlayTemplateLoader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Watches the template directories and removes changed templates from the FreeMarker template cache.
+ * <p>
+ * When the Configuration uses an InheritLayoutTemplateLoader a change to a parent layout also
+ * removes the cached layout and all the templates that inherit from it. With the watcher running
+ * the template update delay can be set effectively infinite such that FreeMarker does not check
+ * <code>getLastModified</code> on each request.
+ * </p>
+ * <p>
+ * FreeMarker caches a template per locale and encoding it was requested with. Given the locales the
+ * application serves, the changed templates are removed for each of these locales (with their
+ * encodings), otherwise the whole template cache is cleared on each change.
+ * </p>
+ * <pre>{@code
+ *
+ *   builder.setTemplateUpdateDelay(Integer.MAX_VALUE);
+ *   Configuration configuration = builder.build();
+ *
+ *   List<Locale> locales = Arrays.asList(Locale.ENGLISH, Locale.GERMAN);
+ *   TemplateWatcher watcher = TemplateWatcher.start(configuration, locales, Paths.get("src/main/templates"));
+ *   ...
+ *   watcher.close();
+ *
+ * }</pre>
+ */
+public class TemplateWatcher implements Closeable {
+
+  private static final Logger log = LoggerFactory.getLogger(TemplateWatcher.class);
+
+  private final Configuration configuration;
+
+  private final List<Path> roots;
+
+  private final List<Locale> locales;
+
+  private final WatchService watchService;
+
+  private final Map<WatchKey, Path> watchedDirs = new ConcurrentHashMap<>();
+
+  private final Thread thread;
+
+  /**
+   * Create and start a watcher of the template root directories.
+   */
+  public static TemplateWatcher start(Configuration configuration, Path... roots) throws IOException {
+    TemplateWatcher watcher = new TemplateWatcher(configuration, Arrays.asList(roots));
+    watcher.start();
+    return watcher;
+  }
+
+  /**
+   * Create and start a watcher of the template root directories removing changed templates for the given locales.
+   */
+  public static TemplateWatcher start(Configuration configuration, List<Locale> locales, Path... roots) throws IOException {
+    TemplateWatcher watcher = new TemplateWatcher(configuration, Arrays.asList(roots), locales);
+    watcher.start();
+    return watcher;
+  }
+
+  /**
+   * Create a watcher of the template root directories (and their sub directories).
+   * <p>
+   * As the locales the templates are requested with are not known the whole template cache is
+   * cleared on each change.
+   * </p>
+   */
+  public TemplateWatcher(Configuration configuration, List<Path> roots) throws IOException {
+    this(configuration, roots, Collections.emptyList());
+  }
+
+  /**
+   * Create a watcher of the template root directories removing changed templates for the given locales.
+   *
+   * @param configuration The configuration with the template cache
+   * @param roots         The template root directories (and their sub directories) to watch
+   * @param locales       The locales the templates are requested with (in addition to the configuration locale)
+   */
+  public TemplateWatcher(Configuration configuration, List<Path> roots, List<Locale> locales) throws IOException {
+    if (roots.isEmpty()) {
+      throw new IllegalArgumentException("At least one template root is required");
+    }
+    this.configuration = configuration;
+    this.locales = Collections.unmodifiableList(new ArrayList<>(locales));
+    List<Path> normalized = new ArrayList<>(roots.size());
+    for (Path root : roots) {
+      normalized.add(root.toAbsolutePath().normalize());
+    }
+    this.roots = Collections.unmodifiableList(normalized);
+    this.watchService = normalized.get(0).getFileSystem().newWatchService();
+    for (Path root : normalized) {
+      registerAll(root);
+    }
+    this.thread = new Thread(this::run, "template-watcher");
+    this.thread.setDaemon(true);
+  }
+
+  /**
+   * Start the background thread processing the file change events.
+   */
+  public void start() {
+    thread.start();
+  }
+
+  /**
+   * Stop watching.
+   */
+  @Override
+  public void close() throws IOException {
+    watchService.close();
+  }
+
+  private void registerAll(Path dir) throws IOException {
+    try (Stream<Path> dirs = Files.walk(dir)) {
+      dirs.filter(Files::isDirectory).forEach(this::register);
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  private void register(Path dir) {
+    try {
+      WatchKey key = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+        StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+      watchedDirs.put(key, dir);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Error watching " + dir, e);
+    }
+  }
+
+  private void run() {
+    try {
+      for (;;) {
+        WatchKey key = watchService.take();
+        try {
+          processEvents(key);
+        } catch (RuntimeException e) {
+          log.error("Error processing template changes", e);
+        }
+        if (!key.reset()) {
+          watchedDirs.remove(key);
+        }
+      }
+    } catch (ClosedWatchServiceException | InterruptedException e) {
+      log.debug("template watcher stopped");
+    }
+  }
+
+  private void processEvents(WatchKey key) {
+    Path dir = watchedDirs.get(key);
+    if (dir == null) {
+      key.pollEvents();
+      return;
+    }
+    Set<Path> changed = new LinkedHashSet<>();
+    for (WatchEvent<?> event : key.pollEvents()) {
+      if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+        invalidateAll();
+        return;
+      }
+      Path child = dir.resolve((Path) event.context());
+      if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(child)) {
+        addDirectory(child, changed);
+      } else {
+        changed.add(child);
+      }
+    }
+    for (Path file : changed) {
+      changed(file);
+    }
+  }
+
+  private void addDirectory(Path dir, Set<Path> changed) {
+    try (Stream<Path> paths = Files.walk(dir)) {
+      paths.forEach(path -> {
+        if (Files.isDirectory(path)) {
+          register(path);
+        } else {
+          changed.add(path);
+        }
+      });
+    } catch (IOException | UncheckedIOException e) {
+      log.warn("Error watching new directory " + dir, e);
+    }
+  }
+
+  /**
+   * Remove the changed file from the caches.
+   */
+  void changed(Path file) {
+    String templateName = templateName(file);
+    if (templateName == null) {
+      return;
+    }
+    Set<String> affected;
+    TemplateLoader loader = configuration.getTemplateLoader();
+    if (loader instanceof InheritLayoutTemplateLoader) {
+      affected = ((InheritLayoutTemplateLoader) loader).invalidate(templateName);
+    } else {
+      if (loader instanceof OverlayTemplateLoader) {
+        ((OverlayTemplateLoader) loader).clearLookupCache(templateName);
+      }
+      affected = Collections.singleton(templateName);
+    }
+    log.debug("template {} changed, removing {}", templateName, affected);
+    if (locales.isEmpty()) {
+      configuration.clearTemplateCache();
+      return;
+    }
+    for (String name : affected) {
+      try {
+        removeFromCache(name);
+      } catch (IOException e) {
+        log.warn("Error removing template " + name + " from cache", e);
+      }
+    }
+  }
+
+  /**
+   * Remove the template cached for each locale with its encoding or the default encoding (parsed or not).
+   */
+  private void removeFromCache(String name) throws IOException {
+    Set<Locale> allLocales = new LinkedHashSet<>(locales);
+    allLocales.add(configuration.getLocale());
+    for (Locale locale : allLocales) {
+      Set<String> encodings = new LinkedHashSet<>();
+      encodings.add(configuration.getEncoding(locale));
+      encodings.add(configuration.getDefaultEncoding());
+      for (String encoding : encodings) {
+        configuration.removeTemplateFromCache(name, locale, encoding, true);
+        configuration.removeTemplateFromCache(name, locale, encoding, false);
+      }
+    }
+  }
+
+  private void invalidateAll() {
+    log.debug("template watcher overflow, clearing all cached templates");
+    TemplateLoader loader = configuration.getTemplateLoader();
+    if (loader instanceof InheritLayoutTemplateLoader) {
+      ((InheritLayoutTemplateLoader) loader).invalidateAll();
+    } else if (loader instanceof OverlayTemplateLoader) {
+      ((OverlayTemplateLoader) loader).clearLookupCache();
+    }
+    configuration.clearTemplateCache();
+  }
+
+  private String templateName(Path file) {
+    Path absolute = file.toAbsolutePath().normalize();
+    for (Path root : roots) {
+      if (absolute.startsWith(root)) {
+        return root.relativize(absolute).toString().replace(File.separatorChar, '/');
+      }
+    }
+    return null;
+  }
+}
@@ -0,0 +1,71 @@
+package org.avaje.freemarker.layout;
+
+import freemarker.cache.TemplateLoader;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * LayoutResolver that uses the layout in a theme directory when the theme overrides it and
+ * otherwise the default layout.
+ * <p>
+ * For example with a theme path of <code>themes/acme</code> the layout <code>layout/main.html</code>
+ * resolves to <code>themes/acme/layout/main.html</code> if that exists. Lookups are cached, use
+ * {@link #clear()} when a theme adds or removes layouts (the TemplateWatcher does this via
+ * {@link InheritLayoutTemplateLoader#invalidate(String)}).
+ * </p>
+ */
+public class ThemeLayoutResolver implements LayoutResolver {
+
+  private final TemplateLoader templateLoader;
+
+  private final String themePrefix;
+
+  private final Map<String, String> resolved = new ConcurrentHashMap<>();
+
+  /**
+   * Create for the theme directory (relative to the root of the template loader).
+   */
+  public ThemeLayoutResolver(TemplateLoader templateLoader, String themePath) {
+    this.templateLoader = templateLoader;
+    this.themePrefix = themePath.endsWith("/") ? themePath : themePath + "/";
+  }
+
+  @Override
+  public String resolve(String layoutName) {
+    return resolved.computeIfAbsent(layoutName, this::lookup);
+  }
+
+  private String lookup(String layoutName) {
+    String themed = themePrefix + (layoutName.startsWith("/") ? layoutName.substring(1) : layoutName);
+    try {
+      Object source = templateLoader.findTemplateSource(themed);
+      if (source == null) {
+        return layoutName;
+      }
+      templateLoader.closeTemplateSource(source);
+      return themed;
+    } catch (IOException e) {
+      throw new RuntimeException("Error looking up theme layout " + themed, e);
+    }
+  }
+
+  /**
+   * Return the default layout the template overrides when it is in the theme directory or null.
+   */
+  String overriddenLayout(String templateName) {
+    return templateName.startsWith(themePrefix) ? templateName.substring(themePrefix.length()) : null;
+  }
+
+  /**
+   * Clear the cached lookups.
+   */
+  public void clear() {
+    resolved.clear();
+  }
+
+  public String toString() {
+    return "ThemeLayoutResolver[" + themePrefix + "]";
+  }
+}
@@ -0,0 +1,135 @@
+package org.avaje.freemarker.layout;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Replaces all the <code>$variable</code> and <code>$breadcrumb</code> occurrences in a single pass.
+ * <p>
+ * The content is scanned for '$' and at each occurrence the variables are matched in order
+ * (with $breadcrumb last). The replacement values have the later variables already applied
+ * to them such that the result is the same as replacing each variable in turn.
+ * </p>
+ */
+class VariableReplacer {
+
+  private static final String BREADCRUMB = "$breadcrumb";
+
+  private final String[] matches;
+  private final String[] values;
+  private final int extraLength;
+
+  VariableReplacer(Map<String, String> variables, String breadcrumb) {
+    int size = variables.size() + 1;
+    this.matches = new String[size];
+    this.values = new String[size];
+    int pos = 0;
+    for (Map.Entry<String, String> entry : variables.entrySet()) {
+      matches[pos] = "$" + entry.getKey();
+      values[pos++] = entry.getValue();
+    }
+    matches[pos] = BREADCRUMB;
+    values[pos] = breadcrumb;
+
+    int extra = 0;
+    for (int i = size - 1; i >= 0; i--) {
+      values[i] = replace(values[i], i + 1);
+      extra += values[i].length();
+    }
+    this.extraLength = extra;
+  }
+
+  /**
+   * Return the content with all the variables replaced.
+   * <p>
+   * The same instance is returned when the content contains no variables.
+   * </p>
+   */
+  String replace(String content) {
+    return replace(content, 0);
+  }
+
+  /**
+   * Return the content with all the variables replaced without copying the content.
+   * <p>
+   * The segments are split at each variable with the replacement value added as a segment.
+   * Segments known to contain no variables are not searched.
+   * </p>
+   */
+  ContentSegments replace(ContentSegments content) {
+    ContentSegments.Builder builder = ContentSegments.builder();
+    for (ContentSegments.Segment segment : content.segments()) {
+      if (segment.plain) {
+        builder.addPlain(segment.source, segment.start, segment.end);
+        continue;
+      }
+      String source = segment.source;
+      int last = segment.start;
+      int pos = indexOf(source, last, segment.end);
+      while (pos > -1) {
+        int match = matchAt(source, pos, 0);
+        if (match == -1 || pos + matches[match].length() > segment.end) {
+          pos = indexOf(source, pos + 1, segment.end);
+        } else {
+          builder.add(source, last, pos).add(values[match]);
+          last = pos + matches[match].length();
+          pos = indexOf(source, last, segment.end);
+        }
+      }
+      builder.add(source, last, segment.end);
+    }
+    return builder.build();
+  }
+
+  /**
+   * Return the replacement values keyed by variable name including the breadcrumb.
+   */
+  Map<String, String> values() {
+    Map<String, String> result = new LinkedHashMap<>();
+    for (int i = 0; i < matches.length; i++) {
+      result.putIfAbsent(matches[i].substring(1), values[i]);
+    }
+    return result;
+  }
+
+  private static int indexOf(String source, int from, int end) {
+    int pos = source.indexOf('$', from);
+    return pos < end ? pos : -1;
+  }
+
+  private String replace(String content, int firstMatch) {
+    int pos = content.indexOf('$');
+    if (pos == -1 || firstMatch >= matches.length) {
+      return content;
+    }
+    StringBuilder sb = null;
+    int last = 0;
+    while (pos > -1) {
+      int match = matchAt(content, pos, firstMatch);
+      if (match == -1) {
+        pos = content.indexOf('$', pos + 1);
+      } else {
+        if (sb == null) {
+          sb = new StringBuilder(content.length() + extraLength);
+        }
+        sb.append(content, last, pos).append(values[match]);
+        last = pos + matches[match].length();
+        pos = content.indexOf('$', last);
+      }
+    }
+    if (sb == null) {
+      return content;
+    }
+    sb.append(content, last, content.length());
+    return sb.toString();
+  }
+
+  private int matchAt(String content, int pos, int firstMatch) {
+    for (int i = firstMatch; i < matches.length; i++) {
+      if (content.startsWith(matches[i], pos)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+}
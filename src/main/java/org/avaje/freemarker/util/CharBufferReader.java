@@ -0,0 +1,65 @@
+package org.avaje.freemarker.util;
+
+import java.io.Reader;
+import java.nio.CharBuffer;
+
+/**
+ * Reader over a CharBuffer that has already been fully decoded.
+ * <p>
+ * {@link IOUtil#read(Reader)} recognises this reader and creates the String directly from the
+ * remaining chars rather than copying them through a StringBuilder.
+ * </p>
+ */
+public final class CharBufferReader extends Reader {
+
+  private final CharBuffer buffer;
+
+  public CharBufferReader(CharBuffer buffer) {
+    this.buffer = buffer;
+  }
+
+  @Override
+  public int read(char[] cbuf, int off, int len) {
+    if (len == 0) {
+      return 0;
+    }
+    int remaining = buffer.remaining();
+    if (remaining == 0) {
+      return -1;
+    }
+    int count = Math.min(len, remaining);
+    buffer.get(cbuf, off, count);
+    return count;
+  }
+
+  @Override
+  public int read() {
+    return buffer.hasRemaining() ? buffer.get() : -1;
+  }
+
+  @Override
+  public long skip(long n) {
+    int count = (int) Math.min(n, buffer.remaining());
+    buffer.position(buffer.position() + count);
+    return count;
+  }
+
+  @Override
+  public boolean ready() {
+    return true;
+  }
+
+  /**
+   * Return the remaining content as a String consuming it.
+   */
+  public String readRemaining() {
+    String content = buffer.toString();
+    buffer.position(buffer.limit());
+    return content;
+  }
+
+  @Override
+  public void close() {
+    // nothing to release
+  }
+}
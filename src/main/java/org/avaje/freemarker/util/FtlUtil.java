@@ -0,0 +1,123 @@
+package org.avaje.freemarker.util;
+
+import java.util.Locale;
+
+/**
+ * Utilities for template file names and scanning the FTL constructs of template source using the
+ * angle bracket tag syntax.
+ */
+public final class FtlUtil {
+
+  private static final String[] TEMPLATE_EXTENSIONS = {".html", ".htm", ".ftl", ".ftlh", ".ftlx"};
+
+  private FtlUtil() {
+    /* no instances */
+  }
+
+  /**
+   * Return true if the file name has a template extension (<code>.html</code>, <code>.htm</code>,
+   * <code>.ftl</code>, <code>.ftlh</code> or <code>.ftlx</code>).
+   */
+  public static boolean isTemplate(String name) {
+    String lower = name.toLowerCase(Locale.ROOT);
+    for (String extension : TEMPLATE_EXTENSIONS) {
+      if (lower.endsWith(extension)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Return the end of the FTL construct starting at pos or -1 if there is no construct at pos.
+   */
+  public static int constructEnd(String source, int pos) {
+    char c = source.charAt(pos);
+    if (c == '<') {
+      if (source.startsWith("<#--", pos)) {
+        return endOf(source, "-->", pos + 4);
+      }
+      if (source.startsWith("<#noparse", pos) || source.startsWith("<#noParse", pos)) {
+        int close = source.indexOf("</#no", pos);
+        return close == -1 ? source.length() : tagEnd(source, close + 2);
+      }
+      if (source.startsWith("<#", pos) || source.startsWith("<@", pos)) {
+        return tagEnd(source, pos + 2);
+      }
+      if (source.startsWith("</#", pos) || source.startsWith("</@", pos)) {
+        return tagEnd(source, pos + 3);
+      }
+    } else if ((c == '$' || c == '#') && source.startsWith("{", pos + 1)) {
+      return interpolationEnd(source, pos + 2);
+    }
+    return -1;
+  }
+
+  private static int endOf(String source, String match, int from) {
+    int end = source.indexOf(match, from);
+    return end == -1 ? source.length() : end + match.length();
+  }
+
+  /**
+   * Return the position after the '>' closing the tag skipping strings and brackets.
+   */
+  private static int tagEnd(String source, int pos) {
+    int depth = 0;
+    int length = source.length();
+    while (pos < length) {
+      char c = source.charAt(pos);
+      if (c == '"' || c == '\'') {
+        pos = stringEnd(source, pos);
+        continue;
+      }
+      if (c == '(' || c == '[' || c == '{') {
+        depth++;
+      } else if ((c == ')' || c == ']' || c == '}') && depth > 0) {
+        depth--;
+      } else if (c == '>' && depth == 0) {
+        return pos + 1;
+      }
+      pos++;
+    }
+    return length;
+  }
+
+  /**
+   * Return the position after the '}' closing the interpolation skipping strings and nested braces.
+   */
+  private static int interpolationEnd(String source, int pos) {
+    int depth = 0;
+    int length = source.length();
+    while (pos < length) {
+      char c = source.charAt(pos);
+      if (c == '"' || c == '\'') {
+        pos = stringEnd(source, pos);
+        continue;
+      }
+      if (c == '{') {
+        depth++;
+      } else if (c == '}') {
+        if (depth == 0) {
+          return pos + 1;
+        }
+        depth--;
+      }
+      pos++;
+    }
+    return length;
+  }
+
+  private static int stringEnd(String source, int pos) {
+    char quote = source.charAt(pos);
+    int length = source.length();
+    for (int i = pos + 1; i < length; i++) {
+      char c = source.charAt(i);
+      if (c == '\\') {
+        i++;
+      } else if (c == quote) {
+        return i + 1;
+      }
+    }
+    return length;
+  }
+}
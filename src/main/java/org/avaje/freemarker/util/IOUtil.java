@@ -55,6 +55,15 @@ public class IOUtil {
 
 	public static String read(Reader reader) throws IOException {
 		
+		if (reader instanceof CharBufferReader) {
+			// already decoded so create the String directly
+			try {
+				return ((CharBufferReader) reader).readRemaining();
+			} finally {
+				reader.close();
+			}
+		}
+
 		StringBuilder sb = new StringBuilder();
 		try {
 			char[] buffer = new char[4096];
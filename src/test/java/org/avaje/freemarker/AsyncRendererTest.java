@@ -0,0 +1,298 @@
+package org.avaje.freemarker;
+
+import freemarker.cache.FileTemplateLoader;
+import freemarker.template.Configuration;
+import org.avaje.freemarker.layout.LayoutLoaderBuilder;
+import org.junit.Test;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class AsyncRendererTest {
+
+  @Test
+  public void render() throws Exception {
+
+    String content = "<p>hello</p>";
+    FakeOutputStream out = new FakeOutputStream(true);
+    AtomicInteger completed = new AtomicInteger();
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      AsyncRenderer renderer = createRenderer(content, executor);
+      CompletableFuture<Void> future = renderer.render(asyncContext(out, completed), "page.html", null);
+      future.get(10, TimeUnit.SECONDS);
+    } finally {
+      executor.shutdown();
+    }
+
+    assertThat(out.bytes.toString("UTF-8")).isEqualTo(content);
+    assertThat(completed.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void render_staticPage() throws Exception {
+
+    String content = "<p>static \u00e9</p>";
+    FakeOutputStream out = new FakeOutputStream(true);
+    AtomicInteger completed = new AtomicInteger();
+    AtomicInteger contentLength = new AtomicInteger(-1);
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      AsyncRenderer renderer = createRenderer(content, executor, new StaticPages(StandardCharsets.UTF_8));
+      CompletableFuture<Void> future = renderer.render(asyncContext(out, completed, contentLength), "page.html", null);
+      future.get(10, TimeUnit.SECONDS);
+    } finally {
+      executor.shutdown();
+    }
+
+    assertThat(out.bytes.toString("UTF-8")).isEqualTo(content);
+    assertThat(contentLength.get()).isEqualTo(content.getBytes(StandardCharsets.UTF_8).length);
+    assertThat(completed.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void close_shutsDownCreatedExecutorOnly() throws Exception {
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      createRenderer("<p>hello</p>", executor).close();
+      assertThat(executor.isShutdown()).isFalse();
+    } finally {
+      executor.shutdown();
+    }
+
+    AsyncRenderer renderer = createRenderer("<p>hello</p>", null);
+    renderer.close();
+    CompletableFuture<Void> future = renderer.render(asyncContext(new FakeOutputStream(true), new AtomicInteger()), "page.html", null);
+    assertThatThrownBy(() -> future.get(10, TimeUnit.SECONDS)).hasCauseInstanceOf(RejectedExecutionException.class);
+  }
+
+  @Test
+  public void render_slowClient() throws Exception {
+
+    String content = largeContent();
+    FakeOutputStream out = new FakeOutputStream(false);
+    AtomicInteger completed = new AtomicInteger();
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      AsyncRenderer renderer = createRenderer(content, executor);
+      CompletableFuture<Void> future = renderer.render(asyncContext(out, completed), "page.html", null);
+
+      // the client accepts one chunk at a time
+      long deadline = System.currentTimeMillis() + 10000;
+      while (!future.isDone() && System.currentTimeMillis() < deadline) {
+        Thread.sleep(1);
+        out.ready = true;
+        out.listener.onWritePossible();
+      }
+      future.get(1, TimeUnit.SECONDS);
+    } finally {
+      executor.shutdown();
+    }
+
+    assertThat(out.bytes.toString("UTF-8")).isEqualTo(content);
+    assertThat(completed.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void render_clientError() throws Exception {
+
+    FakeOutputStream out = new FakeOutputStream(false);
+    AtomicInteger completed = new AtomicInteger();
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      AsyncRenderer renderer = createRenderer(largeContent(), executor);
+      CompletableFuture<Void> future = renderer.render(asyncContext(out, completed), "page.html", null);
+
+      // the client stops accepting chunks and the connection is then reset
+      Thread.sleep(100);
+      out.listener.onError(new IOException("Connection reset"));
+
+      assertThatThrownBy(() -> future.get(10, TimeUnit.SECONDS)).isInstanceOf(ExecutionException.class).hasMessageContaining("Connection reset");
+      assertThat(completed.get()).isEqualTo(1);
+      // the blocked render thread is released
+      executor.submit(() -> null).get(10, TimeUnit.SECONDS);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void render_asyncTimeout() throws Exception {
+
+    FakeOutputStream out = new FakeOutputStream(false);
+    AtomicInteger completed = new AtomicInteger();
+    List<AsyncListener> listeners = new CopyOnWriteArrayList<>();
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      AsyncRenderer renderer = createRenderer(largeContent(), executor);
+      AsyncContext asyncContext = asyncContext(out, completed, new AtomicInteger(), listeners);
+      CompletableFuture<Void> future = renderer.render(asyncContext, "page.html", null);
+
+      Thread.sleep(100);
+      assertThat(listeners).hasSize(1);
+      listeners.get(0).onTimeout(new AsyncEvent(asyncContext));
+
+      assertThatThrownBy(() -> future.get(10, TimeUnit.SECONDS)).hasMessageContaining("Async timeout");
+      assertThat(completed.get()).isEqualTo(1);
+      executor.submit(() -> null).get(10, TimeUnit.SECONDS);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void render_clientNotAcceptingWithinTimeout() throws Exception {
+
+    FakeOutputStream out = new FakeOutputStream(false);
+    AtomicInteger completed = new AtomicInteger();
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      AsyncRenderer renderer = createRenderer(largeContent(), executor, null, 200);
+      CompletableFuture<Void> future = renderer.render(asyncContext(out, completed), "page.html", null);
+
+      assertThatThrownBy(() -> future.get(10, TimeUnit.SECONDS)).hasMessageContaining("Timed out waiting for the client");
+      assertThat(completed.get()).isEqualTo(1);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  private String largeContent() {
+    StringBuilder sb = new StringBuilder();
+    while (sb.length() < AsyncRenderer.CHUNK_SIZE * AsyncRenderer.MAX_CHUNKS * 3) {
+      sb.append("<p>line ").append(sb.length()).append("</p>\n");
+    }
+    return sb.toString();
+  }
+
+  private AsyncRenderer createRenderer(String content, ExecutorService executor) throws IOException {
+    return createRenderer(content, executor, null);
+  }
+
+  private AsyncRenderer createRenderer(String content, ExecutorService executor, StaticPages staticPages) throws IOException {
+    return createRenderer(content, executor, staticPages, 30000);
+  }
+
+  private AsyncRenderer createRenderer(String content, ExecutorService executor, StaticPages staticPages, long timeoutMillis) throws IOException {
+    Path root = Files.createTempDirectory("async");
+    Files.write(root.resolve("page.html"), content.getBytes(StandardCharsets.UTF_8));
+
+    ConfigurationBuilder builder = new ConfigurationBuilder();
+    if (staticPages == null) {
+      builder.setTemplateLoader(new FileTemplateLoader(root.toFile()));
+    } else {
+      LayoutLoaderBuilder loaderBuilder = new LayoutLoaderBuilder();
+      loaderBuilder.setTemplateLoader(new FileTemplateLoader(root.toFile()));
+      loaderBuilder.setStaticPages(staticPages);
+      builder.setTemplateLoader(loaderBuilder.build());
+      builder.setStaticPages(staticPages);
+    }
+    builder.setRenderExecutor(executor);
+    builder.setAsyncTimeoutMillis(timeoutMillis);
+    Configuration configuration = builder.build();
+    return builder.buildAsyncRenderer(configuration);
+  }
+
+  private AsyncContext asyncContext(FakeOutputStream out, AtomicInteger completed) {
+    return asyncContext(out, completed, new AtomicInteger());
+  }
+
+  private AsyncContext asyncContext(FakeOutputStream out, AtomicInteger completed, AtomicInteger contentLength) {
+    return asyncContext(out, completed, contentLength, new CopyOnWriteArrayList<>());
+  }
+
+  private AsyncContext asyncContext(FakeOutputStream out, AtomicInteger completed, AtomicInteger contentLength, List<AsyncListener> listeners) {
+    HttpServletResponse response = (HttpServletResponse) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{HttpServletResponse.class}, (proxy, method, args) -> {
+      switch (method.getName()) {
+        case "getOutputStream":
+          return out;
+        case "isCommitted":
+          return false;
+        case "setContentLength":
+          contentLength.set((Integer) args[0]);
+          return null;
+        default:
+          return null;
+      }
+    });
+    return (AsyncContext) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{AsyncContext.class}, (proxy, method, args) -> {
+      if (method.getName().equals("getResponse")) {
+        return response;
+      }
+      if (method.getName().equals("complete")) {
+        completed.incrementAndGet();
+      }
+      if (method.getName().equals("addListener")) {
+        listeners.add((AsyncListener) args[0]);
+      }
+      return null;
+    });
+  }
+
+  /**
+   * Servlet stream that is not ready after each write when simulating a slow client.
+   */
+  private static class FakeOutputStream extends ServletOutputStream {
+
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final boolean alwaysReady;
+    volatile boolean ready = true;
+    volatile WriteListener listener;
+
+    FakeOutputStream(boolean alwaysReady) {
+      this.alwaysReady = alwaysReady;
+    }
+
+    @Override
+    public boolean isReady() {
+      return ready;
+    }
+
+    @Override
+    public void setWriteListener(WriteListener listener) {
+      this.listener = listener;
+    }
+
+    @Override
+    public void write(int b) {
+      bytes.write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      bytes.write(b, off, len);
+      if (!alwaysReady) {
+        ready = false;
+      }
+    }
+  }
+}
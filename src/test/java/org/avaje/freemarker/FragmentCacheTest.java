@@ -0,0 +1,185 @@
+package org.avaje.freemarker;
+
+import freemarker.core.Environment;
+import freemarker.template.Configuration;
+import freemarker.template.SimpleNumber;
+import freemarker.template.SimpleScalar;
+import freemarker.template.Template;
+import freemarker.template.TemplateDirectiveBody;
+import freemarker.template.TemplateModelException;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class FragmentCacheTest {
+
+  @Test
+  public void put_evictsLeastRecentlyUsed() {
+
+    FragmentCache cache = new FragmentCache(10, 60);
+    cache.put("a", "aaaa");
+    cache.put("b", "bbbb");
+    cache.get("a");
+    cache.put("c", "cccc");
+
+    assertThat(cache.get("a")).isEqualTo("aaaa");
+    assertThat(cache.get("b")).isNull();
+    assertThat(cache.get("c")).isEqualTo("cccc");
+    assertThat(cache.totalChars()).isEqualTo(8L);
+  }
+
+  @Test
+  public void put_expired() {
+
+    FragmentCache cache = new FragmentCache();
+    cache.put("a", "aaaa", 0);
+    assertThat(cache.get("a")).isNull();
+    assertThat(cache.size()).isEqualTo(0);
+  }
+
+  @Test
+  public void put_maxTtl_notExpired() {
+
+    FragmentCache cache = new FragmentCache();
+    cache.put("a", "aaaa", Long.MAX_VALUE);
+    assertThat(cache.get("a")).isEqualTo("aaaa");
+  }
+
+  @Test
+  public void evict() {
+
+    FragmentCache cache = new FragmentCache();
+    cache.put("nav:en", "nav");
+    cache.put("nav:de", "nav");
+    cache.put("footer", "footer");
+
+    cache.evictPrefix("nav:");
+    assertThat(cache.size()).isEqualTo(1);
+    cache.evict("footer");
+    assertThat(cache.size()).isEqualTo(0);
+    assertThat(cache.totalChars()).isEqualTo(0L);
+  }
+
+  @Test
+  public void directive_rendersBodyOnce() throws Exception {
+
+    FragmentCache cache = new FragmentCache();
+    CacheDirective directive = new CacheDirective(cache);
+    AtomicInteger renders = new AtomicInteger();
+    TemplateDirectiveBody body = out -> out.write("<nav>" + renders.incrementAndGet() + "</nav>");
+
+    Map<String, Object> params = new HashMap<>();
+    params.put("key", new SimpleScalar("nav"));
+    params.put("ttl", new SimpleNumber(60));
+
+    StringWriter first = new StringWriter();
+    directive.execute(environment(first), params, null, body);
+    StringWriter second = new StringWriter();
+    directive.execute(environment(second), params, null, body);
+
+    assertThat(first.toString()).isEqualTo("<nav>1</nav>");
+    assertThat(second.toString()).isEqualTo("<nav>1</nav>");
+    assertThat(renders.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void directive_concurrentMisses_renderBodyOnce() throws Exception {
+
+    CacheDirective directive = new CacheDirective(new FragmentCache());
+    AtomicInteger renders = new AtomicInteger();
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    TemplateDirectiveBody body = out -> {
+      started.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        throw new IllegalStateException(e);
+      }
+      out.write("<nav>" + renders.incrementAndGet() + "</nav>");
+    };
+
+    Map<String, Object> params = new HashMap<>();
+    params.put("key", new SimpleScalar("nav"));
+
+    StringWriter first = new StringWriter();
+    Thread thread = new Thread(() -> {
+      try {
+        directive.execute(environment(first), params, null, body);
+      } catch (Exception e) {
+        throw new IllegalStateException(e);
+      }
+    });
+    thread.start();
+    started.await();
+
+    StringWriter second = new StringWriter();
+    Thread waiting = new Thread(() -> {
+      try {
+        directive.execute(environment(second), params, null, body);
+      } catch (Exception e) {
+        throw new IllegalStateException(e);
+      }
+    });
+    waiting.start();
+    Thread.sleep(50);
+    release.countDown();
+    thread.join();
+    waiting.join();
+
+    assertThat(first.toString()).isEqualTo("<nav>1</nav>");
+    assertThat(second.toString()).isEqualTo("<nav>1</nav>");
+    assertThat(renders.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void directive_nestedSameKey_rendersItself() throws Exception {
+
+    CacheDirective directive = new CacheDirective(new FragmentCache());
+    Map<String, Object> params = new HashMap<>();
+    params.put("key", new SimpleScalar("nav"));
+
+    StringWriter out = new StringWriter();
+    Environment env = environment(out);
+    directive.execute(env, params, null, writer -> {
+      writer.write("<nav>");
+      directive.execute(env, params, null, inner -> inner.write("inner"));
+      writer.write("</nav>");
+    });
+
+    // the nested render of the key in progress does not wait on itself
+    assertThat(out.toString()).contains("inner");
+  }
+
+  @Test
+  public void directive_requiresKey() {
+
+    CacheDirective directive = new CacheDirective(new FragmentCache());
+    assertThatThrownBy(() -> directive.execute(environment(new StringWriter()), new HashMap<>(), null, out -> out.write("x")))
+      .isInstanceOf(TemplateModelException.class);
+  }
+
+  @Test
+  public void configurationBuilder_registersDirective() {
+
+    ConfigurationBuilder builder = new ConfigurationBuilder();
+    builder.setFragmentCache(new FragmentCache());
+    Configuration configuration = builder.build();
+
+    assertThat(configuration.getSharedVariable(CacheDirective.NAME)).isInstanceOf(CacheDirective.class);
+  }
+
+  private Environment environment(Writer out) throws IOException {
+    return new Environment(new Template("test", new StringReader(""), new Configuration()), null, out);
+  }
+}
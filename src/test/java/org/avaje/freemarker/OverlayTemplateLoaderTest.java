@@ -0,0 +1,118 @@
+package org.avaje.freemarker;
+
+import freemarker.cache.TemplateLoader;
+import org.avaje.freemarker.layout.InheritLayoutTemplateLoader;
+import org.avaje.freemarker.util.IOUtil;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class OverlayTemplateLoaderTest {
+
+  private static final String LAYOUT = "<html>\n<head>\n<title>Layout</title>\n<meta id=\"layout-head\"/>\n</head>\n<body>\n<div id=\"layout-body\"></div>\n</body>\n</html>";
+
+  private static final String PAGE = "<html>\n<head>\n<title>Page</title>\n<meta name=\"layout\" content=\"layout.html\"/>\n</head>\n<body>\n<div>page</div>\n</body>\n</html>";
+
+  @Test
+  public void firstRootWins() throws IOException {
+
+    Path tenant = Files.createTempDirectory("tenant");
+    Path shared = Files.createTempDirectory("shared");
+    write(tenant.resolve("a.html"), "tenant");
+    write(shared.resolve("a.html"), "shared");
+    write(shared.resolve("b.html"), "shared b");
+
+    OverlayTemplateLoader loader = new OverlayTemplateLoader(new PathTemplateLoader(tenant), new PathTemplateLoader(shared));
+
+    assertThat(read(loader, "a.html")).isEqualTo("tenant");
+    assertThat(read(loader, "b.html")).isEqualTo("shared b");
+    assertThat(loader.findTemplateSource("missing.html")).isNull();
+  }
+
+  @Test
+  public void misses_cached() throws IOException {
+
+    Path shared = Files.createTempDirectory("shared");
+    write(shared.resolve("b.html"), "shared b");
+
+    CountingLoader tenant = new CountingLoader();
+    OverlayTemplateLoader loader = new OverlayTemplateLoader(tenant, new PathTemplateLoader(shared));
+
+    loader.findTemplateSource("b.html");
+    loader.findTemplateSource("b.html");
+    assertThat(tenant.finds.get("b.html")).isEqualTo(1);
+
+    tenant.templates.put("b.html", "tenant b");
+    assertThat(read(loader, "b.html")).isEqualTo("shared b");
+
+    loader.clearLookupCache("b.html");
+    assertThat(read(loader, "b.html")).isEqualTo("tenant b");
+  }
+
+  @Test
+  public void misses_expire() throws IOException {
+
+    CountingLoader tenant = new CountingLoader();
+    OverlayTemplateLoader loader = new OverlayTemplateLoader(Arrays.<TemplateLoader>asList(tenant, new CountingLoader()), 0, 10);
+
+    loader.findTemplateSource("b.html");
+    loader.findTemplateSource("b.html");
+    assertThat(tenant.finds.get("b.html")).isEqualTo(2);
+  }
+
+  @Test
+  public void inherit_layoutFromLaterRoot() throws IOException {
+
+    Path tenant = Files.createTempDirectory("tenant");
+    Path shared = Files.createTempDirectory("shared");
+    write(tenant.resolve("page.html"), PAGE);
+    write(shared.resolve("layout.html"), LAYOUT);
+
+    TemplateLoader loader = InheritLayoutTemplateLoader.wrap(new OverlayTemplateLoader(new PathTemplateLoader(tenant), new PathTemplateLoader(shared)), null);
+
+    String merged = read(loader, "page.html");
+    assertThat(merged).contains("<title>Page</title>");
+    assertThat(merged).contains("<div>page</div>");
+    assertThat(merged).doesNotContain("layout-body");
+  }
+
+  private String read(TemplateLoader loader, String name) throws IOException {
+    return IOUtil.read(loader.getReader(loader.findTemplateSource(name), "UTF-8"));
+  }
+
+  private void write(Path path, String content) throws IOException {
+    Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static class CountingLoader implements TemplateLoader {
+
+    final Map<String, String> templates = new HashMap<>();
+    final Map<String, Integer> finds = new HashMap<>();
+
+    public Object findTemplateSource(String name) {
+      finds.merge(name, 1, Integer::sum);
+      return templates.containsKey(name) ? name : null;
+    }
+
+    public long getLastModified(Object templateSource) {
+      return 1;
+    }
+
+    public Reader getReader(Object templateSource, String encoding) {
+      return new StringReader(templates.get(templateSource));
+    }
+
+    public void closeTemplateSource(Object templateSource) {
+    }
+  }
+}
@@ -0,0 +1,73 @@
+package org.avaje.freemarker;
+
+import freemarker.cache.FileTemplateLoader;
+import freemarker.cache.TemplateLoader;
+import org.avaje.freemarker.layout.InheritLayoutTemplateLoader;
+import org.avaje.freemarker.util.IOUtil;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PathTemplateLoaderTest {
+
+  @Test
+  public void getReader() throws IOException {
+
+    Path root = Files.createTempDirectory("path-loader");
+    Files.write(root.resolve("page.html"), "<p>caf\u00e9 \u20ac</p>".getBytes(StandardCharsets.UTF_8));
+
+    PathTemplateLoader loader = new PathTemplateLoader(root);
+    Object source = loader.findTemplateSource("page.html");
+
+    assertThat(IOUtil.read(loader.getReader(source, "UTF-8"))).isEqualTo("<p>caf\u00e9 \u20ac</p>");
+    assertThat(loader.getLastModified(source)).isGreaterThan(0L);
+  }
+
+  @Test
+  public void getReader_large() throws IOException {
+
+    StringBuilder sb = new StringBuilder();
+    while (sb.length() < 128 * 1024) {
+      sb.append("<p>line \u00e9 ").append(sb.length()).append("</p>\n");
+    }
+    Path root = Files.createTempDirectory("path-loader");
+    Files.write(root.resolve("large.html"), sb.toString().getBytes(StandardCharsets.UTF_8));
+
+    PathTemplateLoader loader = new PathTemplateLoader(root);
+    assertThat(IOUtil.read(loader.getReader(loader.findTemplateSource("large.html"), "UTF-8"))).isEqualTo(sb.toString());
+    // not left open or mapped so can be replaced straight away
+    Files.delete(root.resolve("large.html"));
+  }
+
+  @Test
+  public void findTemplateSource_notFound() throws IOException {
+
+    Path root = Files.createTempDirectory("path-loader");
+    Files.write(root.getParent().resolve("outside.html"), "x".getBytes(StandardCharsets.UTF_8));
+
+    PathTemplateLoader loader = new PathTemplateLoader(root);
+    assertThat(loader.findTemplateSource("missing.html")).isNull();
+    assertThat(loader.findTemplateSource("../outside.html")).isNull();
+  }
+
+  @Test
+  public void inherit_sameContentAsFileLoader() throws IOException {
+
+    File dir = new File("src/test/resources/templates");
+    TemplateLoader fileLoader = InheritLayoutTemplateLoader.wrap(new FileTemplateLoader(dir), null);
+    TemplateLoader pathLoader = InheritLayoutTemplateLoader.createPathLoader(Paths.get(dir.getPath()), null);
+
+    for (String name : new String[]{"withNestedLayout.html", "withNestedLayout2.html", "somePage.html"}) {
+      String expected = IOUtil.read(fileLoader.getReader(fileLoader.findTemplateSource(name), "UTF-8"));
+      String actual = IOUtil.read(pathLoader.getReader(pathLoader.findTemplateSource(name), "UTF-8"));
+      assertThat(actual).isEqualTo(expected);
+    }
+  }
+}
@@ -0,0 +1,132 @@
+package org.avaje.freemarker;
+
+import freemarker.cache.FileTemplateLoader;
+import freemarker.cache.StringTemplateLoader;
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+import org.avaje.freemarker.layout.InheritLayoutTemplateLoader;
+import org.avaje.freemarker.layout.LayoutLoaderBuilder;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class StaticPagesTest {
+
+  private static final String LAYOUT = "<html>\n<head>\n  <meta id=\"layout-head\"/>\n</head>\n<body>\n<div id=\"layout-body\"></div>\n</body>\n</html>";
+
+  private static final String LEGAL = "<html>\n<head>\n  <title>Legal $owner</title>\n  <meta name=\"layout\" content=\"layout.html\"/>\n"
+    + "  <var id=\"owner\">Acme</var>\n</head>\n<body>\n<p>Terms \u00e9t conditions</p>\n</body>\n</html>";
+
+  @Test
+  public void isStatic() {
+    assertThat(StaticPages.isStatic("<p>plain $variable text</p>")).isTrue();
+    assertThat(StaticPages.isStatic("<p>${name}</p>")).isFalse();
+    assertThat(StaticPages.isStatic("<p>#{price}</p>")).isFalse();
+    assertThat(StaticPages.isStatic("<#if a>x</#if>")).isFalse();
+    assertThat(StaticPages.isStatic("<@cache key=\"a\"/>")).isFalse();
+    assertThat(StaticPages.isStatic("[#if a]x[/#if]")).isFalse();
+    assertThat(StaticPages.isStatic("[@cache key=\"a\"/]")).isFalse();
+    assertThat(StaticPages.isStatic("x[/@cache]")).isFalse();
+  }
+
+  @Test
+  public void classify() {
+    StaticPages staticPages = new StaticPages(StandardCharsets.UTF_8);
+
+    assertThat(staticPages.classify("a.html", "<p>static</p>")).isEqualTo("<@__static_page name=\"a.html\"/>");
+    assertThat(staticPages.bytes("a.html")).isEqualTo("<p>static</p>".getBytes(StandardCharsets.UTF_8));
+
+    String dynamic = "<p>${name}</p>";
+    assertThat(staticPages.classify("a.html", dynamic)).isSameAs(dynamic);
+    assertThat(staticPages.bytes("a.html")).isNull();
+  }
+
+  @Test
+  public void render_mergedStaticPage() throws Exception {
+
+    StaticPages staticPages = new StaticPages(StandardCharsets.UTF_8);
+    StringTemplateLoader templates = new StringTemplateLoader();
+    templates.putTemplate("layout.html", LAYOUT);
+    templates.putTemplate("legal.html", LEGAL);
+    templates.putTemplate("help.html", "<div><#include \"legal.html\"></div>");
+
+    LayoutLoaderBuilder loaderBuilder = new LayoutLoaderBuilder();
+    loaderBuilder.setTemplateLoader(templates);
+    loaderBuilder.setStaticPages(staticPages);
+    ConfigurationBuilder builder = new ConfigurationBuilder();
+    builder.setTemplateLoader(loaderBuilder.build());
+    builder.setStaticPages(staticPages);
+    Configuration configuration = builder.build();
+
+    Template template = configuration.getTemplate("legal.html");
+    String expected = "<html>\n<head>\n  <title>Legal Acme</title>\n</head>\n<body>\n\n<p>Terms \u00e9t conditions</p>\n\n</body>\n</html>\n";
+    assertThat(new String(staticPages.bytes("legal.html"), StandardCharsets.UTF_8)).isEqualTo(expected);
+
+    StringWriter writer = new StringWriter();
+    template.process(new HashMap<>(), writer);
+    assertThat(writer.toString()).isEqualTo(expected);
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    StaticTextWriter staticWriter = new StaticTextWriter(bytes, StandardCharsets.UTF_8);
+    template.process(new HashMap<>(), staticWriter);
+    staticWriter.flush();
+    assertThat(bytes.toString("UTF-8")).isEqualTo(expected);
+
+    StringWriter including = new StringWriter();
+    configuration.getTemplate("help.html").process(new HashMap<>(), including);
+    assertThat(including.toString()).isEqualTo("<div>" + expected + "</div>");
+    assertThat(staticPages.bytes("help.html")).isNull();
+  }
+
+  @Test
+  public void removedWhenEvictedOrDeleted_loadedTemplatesStillRender() throws Exception {
+
+    Path root = Files.createTempDirectory("pages");
+    Files.write(root.resolve("layout.html"), LAYOUT.getBytes(StandardCharsets.UTF_8));
+    Files.write(root.resolve("legal.html"), LEGAL.getBytes(StandardCharsets.UTF_8));
+    Files.write(root.resolve("about.html"), "<p>about</p>".getBytes(StandardCharsets.UTF_8));
+
+    StaticPages staticPages = new StaticPages(StandardCharsets.UTF_8);
+    LayoutLoaderBuilder loaderBuilder = new LayoutLoaderBuilder();
+    loaderBuilder.setTemplateLoader(new FileTemplateLoader(root.toFile()));
+    loaderBuilder.setStaticPages(staticPages);
+    InheritLayoutTemplateLoader loader = loaderBuilder.build();
+    ConfigurationBuilder builder = new ConfigurationBuilder();
+    builder.setTemplateLoader(loader);
+    builder.setStaticPages(staticPages);
+    Configuration configuration = builder.build();
+
+    Template legal = configuration.getTemplate("legal.html");
+    Template about = configuration.getTemplate("about.html");
+    assertThat(staticPages.bytes("legal.html")).isNotNull();
+
+    // a change to the layout evicts the templates merged with it
+    assertThat(loader.invalidate("layout.html")).contains("legal.html");
+    assertThat(staticPages.bytes("legal.html")).isNull();
+    assertThat(staticPages.bytes("about.html")).isNotNull();
+
+    Files.delete(root.resolve("about.html"));
+    assertThat(loader.findTemplateSource("about.html")).isNull();
+    assertThat(staticPages.bytes("about.html")).isNull();
+
+    // the loaded templates still render their page
+    StringWriter legalOut = new StringWriter();
+    legal.process(new HashMap<>(), legalOut);
+    assertThat(legalOut.toString()).contains("<p>Terms \u00e9t conditions</p>");
+    StringWriter aboutOut = new StringWriter();
+    about.process(new HashMap<>(), aboutOut);
+    assertThat(aboutOut.toString()).isEqualTo("<p>about</p>");
+
+    configuration.getTemplate("legal.html");
+    assertThat(staticPages.bytes("legal.html")).isNotNull();
+    loader.invalidateAll();
+    assertThat(staticPages.bytes("legal.html")).isNull();
+  }
+}
@@ -0,0 +1,253 @@
+package org.avaje.freemarker;
+
+import freemarker.cache.FileTemplateLoader;
+import freemarker.core.Environment;
+import freemarker.template.Configuration;
+import freemarker.template.SimpleNumber;
+import freemarker.template.Template;
+import org.avaje.freemarker.layout.LayoutLoaderBuilder;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class StaticTextTest {
+
+  private static final Pattern CALL = Pattern.compile("<@__static id=(\\d+)/>");
+
+  private static final String STATIC = "<div class=\"nav\">\n  <a href=\"/\">Home</a>\n  <a href=\"/about\">About</a>\n</div>\n";
+
+  @Test
+  public void extract_wholeLinesBetweenConstructs() {
+
+    StaticText staticText = new StaticText(StandardCharsets.UTF_8, 40);
+    String source = "<#if user??>\n" + STATIC + STATIC + "<p>${user.name}</p>\n</#if>\n<footer>\n" + STATIC + "</footer>";
+
+    String extracted = staticText.extract("test.html", source);
+
+    assertThat(extracted).contains("<#if user??>\n<@__static id=");
+    // the last line before a construct stays in place as the directive call starts the line
+    assertThat(extracted).contains("/></div>\n<p>${user.name}</p>\n</#if>\n<@__static id=");
+    assertThat(extracted).endsWith("/>");
+    assertThat(restore(staticText, extracted)).isEqualTo(source);
+  }
+
+  @Test
+  public void extract_sameTextSameId() {
+
+    StaticText staticText = new StaticText(StandardCharsets.UTF_8, 40);
+    String first = staticText.extract("first.html", STATIC + STATIC + "<p>x</p>");
+    String second = staticText.extract("second.html", STATIC + STATIC + "<p>x</p>");
+    assertThat(first).isEqualTo(second);
+  }
+
+  @Test
+  public void extract_replacesRegionsOfTemplate() throws InterruptedException {
+
+    StaticText staticText = new StaticText(StandardCharsets.UTF_8, 40);
+    String shared = "<#if a>\n" + STATIC + STATIC + "</#if>\n";
+    String changed = "<#if b>\n" + STATIC + "<p>changed</p>\n" + STATIC + "</#if>\n";
+    int sharedId = id(staticText.extract("a.html", shared));
+    assertThat(id(staticText.extract("b.html", shared))).isEqualTo(sharedId);
+
+    int changedId = id(staticText.extract("a.html", changed));
+    assertThat(staticText.text(sharedId)).startsWith(STATIC + STATIC.substring(0, 40));
+
+    staticText.extract("b.html", changed);
+    // released once the replaced regions are unreachable
+    awaitReleased(staticText, sharedId);
+
+    staticText.remove("a.html");
+    staticText.extract("c.html", shared);
+    assertThat(staticText.text(changedId)).startsWith(STATIC + "<p>changed</p>\n");
+    staticText.remove("b.html");
+    awaitReleased(staticText, changedId);
+  }
+
+  @Test
+  public void reload_previousTemplateStillRenders() throws Exception {
+
+    Path root = Files.createTempDirectory("static");
+    String source = "<#if true>\n" + STATIC + STATIC + "</#if>\n";
+    Files.write(root.resolve("page.html"), source.getBytes(StandardCharsets.UTF_8));
+
+    StaticText staticText = new StaticText(StandardCharsets.UTF_8, 40);
+    LayoutLoaderBuilder loaderBuilder = new LayoutLoaderBuilder();
+    loaderBuilder.setTemplateLoader(new FileTemplateLoader(root.toFile()));
+    loaderBuilder.setStaticText(staticText);
+    ConfigurationBuilder builder = new ConfigurationBuilder();
+    builder.setTemplateLoader(loaderBuilder.build());
+    builder.setStaticText(staticText);
+    Configuration configuration = builder.build();
+
+    Template previous = configuration.getTemplate("page.html");
+
+    String changed = "<#if true>\n" + STATIC + "<p>changed</p>\n" + STATIC + "</#if>\n";
+    Files.write(root.resolve("page.html"), changed.getBytes(StandardCharsets.UTF_8));
+    configuration.removeTemplateFromCache("page.html");
+    Template reloaded = configuration.getTemplate("page.html");
+    assertThat(reloaded).isNotSameAs(previous);
+
+    for (int i = 0; i < 5; i++) {
+      System.gc();
+      // releases the unreachable regions
+      staticText.remove("none.html");
+    }
+    assertThat(process(previous)).isEqualTo(STATIC + STATIC);
+    assertThat(process(reloaded)).isEqualTo(STATIC + "<p>changed</p>\n" + STATIC);
+  }
+
+  @Test
+  public void extract_unchanged() {
+
+    StaticText staticText = new StaticText(StandardCharsets.UTF_8, 40);
+
+    String small = "<p>${a}</p>\n<p>b</p>\n";
+    assertThat(staticText.extract("test.html", small)).isSameAs(small);
+
+    String squareBrackets = "[#if a]\n" + STATIC + STATIC + "[/#if]";
+    assertThat(staticText.extract("test.html", squareBrackets)).isSameAs(squareBrackets);
+
+    String noparse = "<#noparse>\n" + STATIC + STATIC + "</#noparse>\n";
+    assertThat(staticText.extract("test.html", noparse)).isSameAs(noparse);
+
+    String comment = "<#--\n" + STATIC + STATIC + "-->\n";
+    assertThat(staticText.extract("test.html", comment)).isSameAs(comment);
+
+    // the line after the region must contain text so a line of only white-space stays as is
+    String blankLineAfter = STATIC + STATIC + "   \n<#if a>x</#if>";
+    assertThat(restore(staticText, staticText.extract("test.html", blankLineAfter))).isEqualTo(blankLineAfter);
+    assertThat(staticText.extract("test.html", blankLineAfter)).doesNotContain("<@__static id=1/>   \n");
+  }
+
+  @Test
+  public void extract_renderedOutputUnchanged() throws Exception {
+
+    StaticText staticText = new StaticText(StandardCharsets.UTF_8, 20);
+    String line = "line static static static static\n";
+    String[] sources = {
+      // indentation of the first tag only line is kept when it ends the first text of the template
+      "line one static static static static\nline two static static static static\n  <#assign y = 1>\nafter ${y}\n",
+      // a last line of only white-space after a construct is stripped
+      "<#assign y = 1>\n" + line + line + "  ",
+      // white-space only text after a non-outputting tag is dropped
+      "${y!}<#assign y = 1>\n" + "                    \n" + "    ",
+      "<#if true>\n" + line + line + "  </#if>\n" + line + line + "  <#-- end -->\n" + line + line,
+    };
+    for (String source : sources) {
+      assertThat(render(staticText, staticText.extract("test.html", source))).isEqualTo(render(staticText, source));
+    }
+    assertThat(staticText.extract("test.html", sources[0])).isSameAs(sources[0]);
+    assertThat(staticText.extract("test.html", sources[1])).contains("<@__static id=").endsWith("  ");
+  }
+
+  @Test
+  public void extract_tagsWithStringsAndComparisons() {
+
+    StaticText staticText = new StaticText(StandardCharsets.UTF_8, 40);
+    String source = "<#if (a > 1) && b == \"x>y\">\n" + STATIC + STATIC + "<p>end</p>\n</#if>";
+
+    String extracted = staticText.extract("test.html", source);
+    assertThat(extracted).startsWith("<#if (a > 1) && b == \"x>y\">\n<@__static id=");
+    assertThat(restore(staticText, extracted)).isEqualTo(source);
+  }
+
+  @Test
+  public void writer_encodedAndPreEncoded() throws IOException {
+
+    StaticText staticText = new StaticText(StandardCharsets.UTF_8, 40);
+    int id = staticText.register("<p>caf\u00e9</p>");
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    StaticTextWriter writer = staticText.writer(out);
+    writer.write("a\ud83d");
+    writer.write("\ude00b");
+    writer.writeEncoded(staticText.bytes(id));
+    writer.write("\u20ac");
+    writer.flush();
+
+    assertThat(new String(out.toByteArray(), StandardCharsets.UTF_8)).isEqualTo("a\ud83d\ude00b<p>caf\u00e9</p>\u20ac");
+  }
+
+  @Test
+  public void directive() throws Exception {
+
+    StaticText staticText = new StaticText(StandardCharsets.UTF_8, 40);
+    int id = staticText.register("<p>static</p>");
+    StaticTextDirective directive = new StaticTextDirective(staticText);
+    Map<String, Object> params = new HashMap<>();
+    params.put("id", new SimpleNumber(id));
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    StaticTextWriter writer = staticText.writer(out);
+    directive.execute(environment(writer), params, null, null);
+    writer.flush();
+    assertThat(new String(out.toByteArray(), StandardCharsets.UTF_8)).isEqualTo("<p>static</p>");
+
+    StringWriter captured = new StringWriter();
+    directive.execute(environment(captured), params, null, null);
+    assertThat(captured.toString()).isEqualTo("<p>static</p>");
+  }
+
+  private void awaitReleased(StaticText staticText, int id) throws InterruptedException {
+    for (int i = 0; i < 100; i++) {
+      System.gc();
+      // releases the unreachable regions
+      staticText.remove("none.html");
+      try {
+        staticText.text(id);
+      } catch (IllegalStateException e) {
+        return;
+      }
+      Thread.sleep(10);
+    }
+    throw new AssertionError("static text " + id + " not released");
+  }
+
+  private String process(Template template) throws Exception {
+    StringWriter writer = new StringWriter();
+    template.process(new HashMap<>(), writer);
+    return writer.toString();
+  }
+
+  private int id(String extracted) {
+    Matcher matcher = CALL.matcher(extracted);
+    assertThat(matcher.find()).isTrue();
+    return Integer.parseInt(matcher.group(1));
+  }
+
+  private String render(StaticText staticText, String source) throws Exception {
+    Configuration configuration = new Configuration();
+    configuration.setSharedVariable(StaticTextDirective.NAME, new StaticTextDirective(staticText));
+    StringWriter writer = new StringWriter();
+    new Template("test", new StringReader(source), configuration).process(null, writer);
+    return writer.toString();
+  }
+
+  private String restore(StaticText staticText, String extracted) {
+    Matcher matcher = CALL.matcher(extracted);
+    StringBuffer sb = new StringBuffer();
+    while (matcher.find()) {
+      matcher.appendReplacement(sb, Matcher.quoteReplacement(staticText.text(Integer.parseInt(matcher.group(1)))));
+    }
+    matcher.appendTail(sb);
+    return sb.toString();
+  }
+
+  private Environment environment(Writer out) throws IOException {
+    return new Environment(new Template("test", new StringReader(""), new Configuration()), null, out);
+  }
+}
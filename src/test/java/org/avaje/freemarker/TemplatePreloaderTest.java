@@ -0,0 +1,61 @@
+package org.avaje.freemarker;
+
+import freemarker.cache.FileTemplateLoader;
+import freemarker.template.Configuration;
+import org.avaje.freemarker.layout.InheritLayoutTemplateLoader;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TemplatePreloaderTest {
+
+  @Test
+  public void preload() throws IOException {
+
+    File root = new File("src/test/resources/templates");
+    Configuration configuration = createConfiguration(root);
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      PreloadResult result = new TemplatePreloader(configuration, executor).preload(root, name -> name.endsWith(".html"));
+
+      assertThat(result.hasFailures()).isFalse();
+      assertThat(result.getLoadTimes()).containsKey("withNestedLayout.html");
+      assertThat(result.getLoadTimes()).containsKey("layout/mainLayout.html");
+      assertThat(result.getLoadTimes().keySet()).doesNotContain("index.ftl");
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void preload_reportsFailures() throws IOException {
+
+    Path root = Files.createTempDirectory("preload");
+    Files.write(root.resolve("ok.html"), "<p>${name}</p>".getBytes(StandardCharsets.UTF_8));
+    Files.write(root.resolve("broken.html"), "<#if name??><p>${name}</p>".getBytes(StandardCharsets.UTF_8));
+    // not templates so not loaded by default
+    Files.write(root.resolve("site.css"), "p { color: red; }".getBytes(StandardCharsets.UTF_8));
+    Files.write(root.resolve("logo.png"), new byte[]{(byte) 0x89, 'P', 'N', 'G', 0, '<', '#'});
+
+    PreloadResult result = new TemplatePreloader(createConfiguration(root.toFile())).preload(root.toFile());
+
+    assertThat(result.getLoadTimes()).containsOnlyKeys("ok.html");
+    assertThat(result.getFailures()).containsOnlyKeys("broken.html");
+    assertThat(result.hasFailures()).isTrue();
+  }
+
+  private Configuration createConfiguration(File root) throws IOException {
+    ConfigurationBuilder builder = new ConfigurationBuilder();
+    builder.setTemplateLoader(InheritLayoutTemplateLoader.wrap(new FileTemplateLoader(root), null));
+    return builder.build();
+  }
+}
@@ -0,0 +1,43 @@
+package org.avaje.freemarker.layout;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ContentSegmentsTest {
+
+  @Test
+  public void replaceSlots_nested() {
+
+    String parent = "<body><p>parent</p><slot/><p>after</p></body>";
+    String nested = "<body><p>nested</p><slot/></body>";
+    String page = "<body><p>page</p></body>";
+
+    ContentSegments parentBody = ContentSegments.builder().add(parent, 6, 19).addSlot("<slot/>").add(parent, 26, parent.length() - 7).build();
+    ContentSegments nestedBody = ContentSegments.builder().add(nested, 6, 19).addSlot("<slot/>").build();
+    ContentSegments pageBody = ContentSegments.of(page, 6, page.length() - 7);
+
+    ContentSegments merged = parentBody.replaceSlots(nestedBody.replaceSlots(pageBody));
+
+    String expected = "<p>parent</p><p>nested</p><p>page</p><p>after</p>";
+    assertThat(merged.toString()).isEqualTo(expected);
+    assertThat(merged.length()).isEqualTo(expected.length());
+  }
+
+  @Test
+  public void replaceSlots_noSlot_returnsSameInstance() {
+
+    ContentSegments content = ContentSegments.of("<p>no slot</p><slot/>");
+    assertThat(content.replaceSlots(ContentSegments.of("x"))).isSameAs(content);
+  }
+
+  @Test
+  public void replaceSlots_multiple() {
+
+    ContentSegments content = ContentSegments.builder().add("a").addSlot("<slot/>").add("b").addSlot("<slot/>").build();
+    ContentSegments merged = content.replaceSlots(ContentSegments.of("XY"));
+
+    assertThat(merged.toString()).isEqualTo("aXYbXY");
+    assertThat(merged.length()).isEqualTo(6);
+  }
+}
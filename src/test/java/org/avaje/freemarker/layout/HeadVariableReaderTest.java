@@ -34,6 +34,27 @@ public class HeadVariableReaderTest {
     assertThat(map.get("notFound")).isNull();
   }
 
+  @Test
+  public void readMixed_templatePrecedence() {
+
+    String head = "<title>T</title>\n<var id=\"a\">varA</var>\n<template id=\"a\">templateA</template>\n"
+      + "<var id=\"b\">varB1</var><var id=\"b\">varB2</var>\n<meta name=\"x\"/>";
+
+    Map<String, String> map = new LinkedHashMap<>();
+    String remaining = HeadVariableReader.readAll(head, map);
+
+    assertThat(map.get("a")).isEqualTo("templateA");
+    assertThat(map.get("b")).isEqualTo("varB1");
+    assertThat(remaining).isEqualTo("<title>T</title>\n\n\n\n<meta name=\"x\"/>");
+  }
+
+  @Test
+  public void readNone_returnsSameInstance() {
+
+    String head = "<title>T</title>\n<meta name=\"x\"/>";
+    assertThat(HeadVariableReader.readAll(head, new LinkedHashMap<>())).isSameAs(head);
+  }
+
   private String read(String url) throws IOException {
     return IOUtil.readUTF8(getClass().getResourceAsStream(url));
   }
@@ -0,0 +1,55 @@
+package org.avaje.freemarker.layout;
+
+import freemarker.cache.FileTemplateLoader;
+import org.avaje.freemarker.util.IOUtil;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class HistogramLayoutMetricsTest {
+
+  @Test
+  public void recordedViaLoader() throws IOException {
+
+    HistogramLayoutMetrics metrics = new HistogramLayoutMetrics();
+
+    LayoutLoaderBuilder builder = new LayoutLoaderBuilder();
+    builder.setTemplateLoader(new FileTemplateLoader(new File("src/test/resources/templates")));
+    builder.setMetrics(metrics);
+    builder.setContentFilter(content -> content);
+    InheritLayoutTemplateLoader loader = builder.build();
+
+    for (int i = 0; i < 2; i++) {
+      IOUtil.read(loader.getReader(loader.findTemplateSource("withNestedLayout.html"), "UTF-8"));
+    }
+
+    assertThat(metrics.getMergeTimes().get("withNestedLayout.html").getCount()).isEqualTo(2L);
+    assertThat(metrics.getFilterTimes().get("withNestedLayout.html").getCount()).isEqualTo(2L);
+    assertThat(metrics.getReadTimes().get("layout/parentLayout.html").getCount()).isEqualTo(1L);
+    assertThat(metrics.getLayoutDepths().get("withNestedLayout.html")).isEqualTo(2);
+    assertThat(metrics.getLayoutCacheMisses()).isEqualTo(2L);
+    assertThat(metrics.getLayoutCacheHits()).isEqualTo(2L);
+    assertThat(metrics.getInputLength()).isGreaterThan(0);
+    assertThat(metrics.getOutputLength()).isGreaterThan(0);
+    assertThat(metrics.slowestMerges(5)).containsExactly("withNestedLayout.html");
+  }
+
+  @Test
+  public void histogram() {
+
+    HistogramLayoutMetrics.Histogram histogram = new HistogramLayoutMetrics.Histogram();
+    for (int i = 1; i <= 100; i++) {
+      histogram.record(i * 10_000L);
+    }
+
+    assertThat(histogram.getCount()).isEqualTo(100L);
+    assertThat(histogram.getMaxNanos()).isEqualTo(1_000_000L);
+    assertThat(histogram.getMeanNanos()).isEqualTo(505_000L);
+    assertThat(histogram.getPercentileNanos(0.5)).isGreaterThanOrEqualTo(500_000L);
+    assertThat(histogram.getPercentileNanos(0.5)).isLessThanOrEqualTo(1_000_000L);
+    assertThat(histogram.getPercentileNanos(1.0)).isEqualTo(1_000_000L);
+  }
+}
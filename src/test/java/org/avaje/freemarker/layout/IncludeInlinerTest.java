@@ -0,0 +1,186 @@
+package org.avaje.freemarker.layout;
+
+import freemarker.cache.StringTemplateLoader;
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+import org.avaje.freemarker.util.IOUtil;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class IncludeInlinerTest {
+
+  private static final String LAYOUT = "<html>\n<head>\n  <meta id=\"layout-head\"/>\n</head>\n<body>\n<div id=\"layout-body\"></div>\n"
+    + "  <#include \"/static/nav.html\">\n  <#include \"/static/footer.html\">\n</body>\n</html>";
+
+  private static final String PAGE = "<html>\n<head>\n  <meta name=\"layout\" content=\"layout/main.html\"/>\n</head>\n<body>\n"
+    + "<h1>${title!}</h1>\n<p>icon: <#include \"static/icon.svg\" parse=false></p>\n<#if user??>\n  <#include \"static/user.html\">\n</#if>\n"
+    + "<#include \"dynamic.html\">\n</body>\n</html>";
+
+  private final Map<String, String> templates = new HashMap<>();
+
+  public IncludeInlinerTest() {
+    templates.put("layout/main.html", LAYOUT);
+    templates.put("page.html", PAGE);
+    templates.put("static/nav.html", "<#list 1..2 as i>\n  <i>${i}</i>\n</#list>\n");
+    templates.put("static/footer.html", "<footer class=\"${footerClass!}\">\n  <#include \"links.html\">\n</footer>\n");
+    templates.put("static/links.html", "<a href=\"/\">Home</a> <#include \"../dynamic.html\">\n");
+    templates.put("static/icon.svg", "<svg/>");
+    templates.put("static/user.html", "<p>${user}</p>\n");
+    templates.put("dynamic.html", "<p>dynamic ${user!}</p>\n");
+  }
+
+  @Test
+  public void resolve() {
+    assertThat(IncludeInliner.resolve("page.html", "/static/a.html")).isEqualTo("static/a.html");
+    assertThat(IncludeInliner.resolve("docs/page.html", "a.html")).isEqualTo("docs/a.html");
+    assertThat(IncludeInliner.resolve("docs/page.html", "../static/./a.html")).isEqualTo("static/a.html");
+    assertThat(IncludeInliner.resolve("page.html", "../a.html")).isNull();
+    assertThat(IncludeInliner.resolve("page.html", "*/a.html")).isNull();
+  }
+
+  @Test
+  public void inline() throws IOException {
+
+    IncludeInliner inliner = new IncludeInliner(source(), name -> name.startsWith("static/"));
+    Set<String> includes = new LinkedHashSet<>();
+    String content = "<div class=\"${cls}\">\n  <#include \"/static/footer.html\">\n<p>x</p>\n<p><#include 'static/icon.svg' parse=false/></p> <#include \"dynamic.html\">\n</div>";
+
+    String inlined = inliner.inline("page.html", content, "UTF-8", includes);
+
+    assertThat(inlined).isEqualTo("<div class=\"${cls}\">\n<footer class=\"${footerClass!}\">\n<a href=\"/\">Home</a> <#include \"/dynamic.html\">\n</footer>\n"
+      + "<p>x</p>\n<p><svg/></p> <#include \"dynamic.html\">\n</div>");
+    assertThat(includes).containsExactly("static/footer.html", "static/links.html", "static/icon.svg");
+  }
+
+  @Test
+  public void inline_leftForFreeMarker() throws IOException {
+
+    IncludeInliner inliner = new IncludeInliner(source(), name -> true);
+    String content = "<div>\n  <#include \"static/user.html\">\n<#if a><#include \"static/icon.svg\"></#if>\n<#include \"static/user.html\" parse=false>\n"
+      + "<#include \"static/icon.svg\">\n<#include \"static/nav.html\">\n<#include \"missing.html\">\n<#include \"static/${name}.html\">\n<#include \"static/icon.svg\" encoding=\"UTF-8\">\n<#-- <#include \"static/icon.svg\"> -->";
+
+    Set<String> includes = new LinkedHashSet<>();
+    assertThat(inliner.inline("page.html", content, "UTF-8", includes)).isSameAs(content);
+  }
+
+  @Test
+  public void inline_cyclic() {
+
+    templates.put("a.html", "${a}\n<#include \"b.html\">\n");
+    templates.put("b.html", "${b}\n<#include \"a.html\">\n");
+    IncludeInliner inliner = new IncludeInliner(source(), name -> true);
+
+    assertThatThrownBy(() -> inliner.inline("page.html", "${a}\n<#include \"a.html\">\n", "UTF-8", new LinkedHashSet<>()))
+      .hasMessageContaining("Cyclic include of a.html");
+  }
+
+  @Test
+  public void render_sameAsInclude() throws Exception {
+
+    InheritLayoutTemplateLoader loader = loader(name -> name.startsWith("static/"));
+    String source = IOUtil.read(loader.getReader(loader.findTemplateSource("page.html"), "UTF-8"));
+    assertThat(source).doesNotContain("footer.html", "links.html", "icon.svg", "user.html")
+      .contains("<#include \"/static/nav.html\">", "<#include \"/dynamic.html\">", "<#include \"dynamic.html\">");
+
+    for (Object user : new Object[]{null, "rob"}) {
+      Map<String, Object> model = user == null ? Collections.<String, Object>emptyMap() : Collections.singletonMap("user", user);
+      assertThat(render(loader, model)).isEqualTo(render(new InheritLayoutTemplateLoader(stringLoader(), null), model));
+    }
+  }
+
+  @Test
+  public void render_importRelativeToIncludedTemplate() throws Exception {
+
+    templates.put("page.html", "<h1>${title!}</h1>\n<#include \"frag/a.html\">\n<#include \"frag/b.html\">\n");
+    templates.put("frag/a.html", "<div>x <#import \"lib.ftl\" as l><@l.m/></div>\n");
+    templates.put("frag/b.html", "<div>y <#import \"${libName}\" as l><@l.m/></div>\n");
+    templates.put("frag/lib.ftl", "<#macro m>frag-lib</#macro>");
+    templates.put("lib.ftl", "<#macro m>ROOT-lib</#macro>");
+
+    InheritLayoutTemplateLoader loader = loader(name -> name.startsWith("frag/"));
+    String source = IOUtil.read(loader.getReader(loader.findTemplateSource("page.html"), "UTF-8"));
+    assertThat(source).contains("<#import \"/frag/lib.ftl\" as l>", "<#include \"frag/b.html\">");
+
+    Map<String, Object> model = Collections.singletonMap("libName", "lib.ftl");
+    assertThat(render(loader, model)).isEqualTo("<h1></h1>\n<div>x frag-lib</div>\n<div>y frag-lib</div>\n");
+    assertThat(render(loader, model)).isEqualTo(render(new InheritLayoutTemplateLoader(stringLoader(), null), model));
+  }
+
+  @Test
+  public void render_includeWithParentLayout_leftForFreeMarker() throws Exception {
+
+    templates.put("page.html", "<h1>${title!}</h1>\n<#include \"frag/card.html\">\n<#include \"frag/plain.html\">\n");
+    templates.put("frag/card.html", "<html>\n<head>\n  <meta name=\"layout\" content=\"frag/cardLayout.html\"/>\n</head>\n<body>\n<p>card</p>\n</body>\n</html>\n");
+    templates.put("frag/cardLayout.html", "<html>\n<head>\n</head>\n<body>\n<div class=\"card\">\n<div id=\"layout-body\"></div>\n</div>\n</body>\n</html>\n");
+    templates.put("frag/plain.html", "<p>plain</p>\n");
+
+    InheritLayoutTemplateLoader loader = loader(name -> name.startsWith("frag/"));
+    String source = IOUtil.read(loader.getReader(loader.findTemplateSource("page.html"), "UTF-8"));
+    assertThat(source).contains("<#include \"frag/card.html\">").doesNotContain("frag/plain.html");
+
+    assertThat(render(loader, Collections.emptyMap())).contains("<div class=\"card\">")
+      .isEqualTo(render(new InheritLayoutTemplateLoader(stringLoader(), null), Collections.emptyMap()));
+  }
+
+  @Test
+  public void invalidate_includesInliningTemplates() throws IOException {
+
+    InheritLayoutTemplateLoader loader = loader(name -> name.startsWith("static/"));
+    Object source = loader.findTemplateSource("page.html");
+    IOUtil.read(loader.getReader(source, "UTF-8"));
+
+    assertThat(loader.invalidate("static/links.html")).containsExactly("static/links.html", "page.html");
+    assertThat(loader.invalidate("dynamic.html")).containsExactly("dynamic.html");
+  }
+
+  private String render(InheritLayoutTemplateLoader loader, Map<String, Object> model) throws Exception {
+    Configuration configuration = new Configuration();
+    configuration.setTemplateLoader(loader);
+    Template template = configuration.getTemplate("page.html");
+    StringWriter writer = new StringWriter();
+    template.process(model, writer);
+    return writer.toString();
+  }
+
+  private InheritLayoutTemplateLoader loader(Predicate<String> staticIncludes) {
+    LayoutLoaderBuilder builder = new LayoutLoaderBuilder();
+    builder.setTemplateLoader(stringLoader());
+    builder.setStaticIncludes(staticIncludes);
+    return builder.build();
+  }
+
+  private StringTemplateLoader stringLoader() {
+    StringTemplateLoader loader = new StringTemplateLoader();
+    templates.forEach(loader::putTemplate);
+    return loader;
+  }
+
+  private RawTemplateSource source() {
+    return new RawTemplateSource() {
+      @Override
+      public String getSource(String templateName, String encoding) throws IOException {
+        String source = templates.get(templateName);
+        if (source == null) {
+          throw new IOException("Error loading source for template: " + templateName);
+        }
+        return source;
+      }
+
+      @Override
+      public long getLastModified(String templateName) {
+        return 1;
+      }
+    };
+  }
+}
@@ -0,0 +1,73 @@
+package org.avaje.freemarker.layout;
+
+import freemarker.cache.FileTemplateLoader;
+import org.avaje.freemarker.util.IOUtil;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class InheritLayoutTemplateLoaderTest {
+
+  @Test
+  public void getLastModified_includesParentLayouts() throws IOException {
+
+    Path dir = Files.createTempDirectory("layout");
+    File page = write(dir, "page.html", "<html>\n<head>\n<meta name=\"layout\" content=\"layout/main.html\"/>\n</head>\n<body>page</body>\n</html>");
+    File layout = write(dir, "layout/main.html", "<html>\n<head>\n<meta id=\"layout-head\"/>\n</head>\n<body><div id=\"layout-body\"></div></body>\n</html>");
+    page.setLastModified(10_000);
+    layout.setLastModified(20_000);
+
+    InheritLayoutTemplateLoader loader = new InheritLayoutTemplateLoader(new FileTemplateLoader(dir.toFile()), null);
+    Object source = loader.findTemplateSource("page.html");
+    // resolved before the template is first loaded
+    assertThat(loader.getLastModified(source)).isEqualTo(20_000L);
+
+    IOUtil.read(loader.getReader(source, "UTF-8"));
+    assertThat(loader.getLastModified(source)).isEqualTo(20_000L);
+
+    layout.setLastModified(30_000);
+    assertThat(loader.getLastModified(source)).isEqualTo(30_000L);
+  }
+
+  @Test
+  public void streaming_sameContent() throws IOException {
+
+    FileTemplateLoader base = new FileTemplateLoader(new File("src/test/resources/templates"));
+    InheritLayoutTemplateLoader loader = new InheritLayoutTemplateLoader(base, null);
+
+    LayoutLoaderBuilder builder = new LayoutLoaderBuilder();
+    builder.setTemplateLoader(base);
+    builder.setStreaming(true);
+    InheritLayoutTemplateLoader streamingLoader = builder.build();
+
+    for (String name : new String[]{"somePage.html", "withNestedLayout.html", "withNestedLayout2.html", "index.ftl", "test.html"}) {
+      String expected = IOUtil.read(loader.getReader(loader.findTemplateSource(name), "UTF-8"));
+      Reader reader = streamingLoader.getReader(streamingLoader.findTemplateSource(name), "UTF-8");
+      assertThat(readSmallChunks(reader)).isEqualTo(expected);
+    }
+  }
+
+  private String readSmallChunks(Reader reader) throws IOException {
+    StringBuilder sb = new StringBuilder();
+    char[] buffer = new char[7];
+    int len;
+    while ((len = reader.read(buffer, 0, buffer.length)) != -1) {
+      sb.append(buffer, 0, len);
+    }
+    return sb.toString();
+  }
+
+  private File write(Path dir, String name, String content) throws IOException {
+    Path path = dir.resolve(name);
+    Files.createDirectories(path.getParent());
+    Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+    return path.toFile();
+  }
+}
@@ -0,0 +1,74 @@
+package org.avaje.freemarker.layout;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LayoutCacheTest {
+
+  private static final String LAYOUT = "<html>\n<head>\n<title>Layout</title>\n<meta id=\"layout-head\"/>\n</head>\n<body>\n<div id=\"layout-body\"></div>\n</body>\n</html>";
+
+  private static final String PAGE = "<html>\n<head>\n<title>Page</title>\n<meta name=\"layout\" content=\"layout.html\"/>\n</head>\n<body>\n<div>page</div>\n</body>\n</html>";
+
+  @Test
+  public void parentLayout_readOnce() throws Exception {
+
+    CountingSource source = new CountingSource();
+    RawTemplateInherit inherit = new RawTemplateInherit(source, null);
+
+    String first = inherit.getSource("page.html", "UTF-8");
+    String second = inherit.getSource("page.html", "UTF-8");
+
+    assertThat(first).isEqualTo(second);
+    assertThat(first).contains("<title>Page</title>");
+    assertThat(first).contains("<div>page</div>");
+    assertThat(source.reads.get("layout.html")).isEqualTo(1);
+    assertThat(source.reads.get("page.html")).isEqualTo(2);
+  }
+
+  @Test
+  public void parentLayout_reloadedWhenModified() throws Exception {
+
+    CountingSource source = new CountingSource();
+    RawTemplateInherit inherit = new RawTemplateInherit(source, null);
+
+    inherit.getSource("page.html", "UTF-8");
+    source.lastModified = 2;
+    inherit.getSource("page.html", "UTF-8");
+
+    assertThat(source.reads.get("layout.html")).isEqualTo(2);
+  }
+
+  @Test
+  public void parentLayout_reloadedWhenLastModifiedUnknown() throws Exception {
+
+    CountingSource source = new CountingSource();
+    source.lastModified = -1;
+    RawTemplateInherit inherit = new RawTemplateInherit(source, null);
+
+    inherit.getSource("page.html", "UTF-8");
+    inherit.getSource("page.html", "UTF-8");
+
+    assertThat(source.reads.get("layout.html")).isEqualTo(2);
+  }
+
+  private static class CountingSource implements RawTemplateSource {
+
+    final Map<String, Integer> reads = new HashMap<>();
+    long lastModified = 1;
+
+    @Override
+    public String getSource(String templateName, String encoding) {
+      reads.merge(templateName, 1, Integer::sum);
+      return templateName.equals("layout.html") ? LAYOUT : PAGE;
+    }
+
+    @Override
+    public long getLastModified(String templateName) {
+      return lastModified;
+    }
+  }
+}
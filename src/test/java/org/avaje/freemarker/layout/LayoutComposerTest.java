@@ -0,0 +1,108 @@
+package org.avaje.freemarker.layout;
+
+import freemarker.cache.StringTemplateLoader;
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+import freemarker.template.TemplateException;
+import org.avaje.freemarker.util.IOUtil;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LayoutComposerTest {
+
+  private static final String MAIN = "<!doctype html>\n<html>\n<head>\n  <title>Main</title>\n  <meta charset=\"utf-8\">\n  <meta id=\"layout-head\"/>\n"
+    + "  <script src=\"/main.js\"></script>\n  <var id=\"footer\">&copy; main</var>\n  <meta name=\"bread0\" content=\"Home\" href=\"/\"/>\n</head>\n"
+    + "<body class=\"main\">\n<h1>$breadcrumb</h1>\n<p class=\"${cls!}\">$title $unknown</p>\n<#if user??>\n<span>${user}</span>\n</#if>\n"
+    + "<div id=\"layout-body\"></div>\n<footer>$footer</footer>\n</body>\n</html>\n";
+
+  private static final String SECTION = "<html>\n<head>\n  <meta name=\"layout\" content=\"layout/main.html\"/>\n  <link rel=\"section\">\n"
+    + "  <meta id=\"layout-head\"/>\n  <#assign section = \"docs\">\n  <var id=\"nav\">section nav</var>\n</head>\n"
+    + "<body>\n<nav>$nav ${section}</nav>\n  <div id=\"layout-body\"></div>\n</body>\n</html>\n";
+
+  private static final String PAGE = "<html>\n<head>\n  <title>Page ${user}</title>\n  <meta name=\"layout\" content=\"layout/section.html\"/>\n"
+    + "  <meta name=\"bread1\" content=\"Docs\" href=\"/docs\"/>\n  <#assign config = \"active\">\n  <var id=\"nav\">page nav $footer</var>\n"
+    + "  <template id=\"title\">Docs</template>\n</head>\n<body onload=\"init()\">\n<#macro m>M</#macro>\n"
+    + "<p><@m/> ${config} $footer</p>\n<#list 1..2 as i>\n  <i>${i}</i>\n</#list>\n</body>\n</html>\n";
+
+  private static final String MAIN_PAGE = "<html>\n<head>\n  <meta name=\"layout\" content=\"layout/main.html\"/>\n</head>\n<body>\n<p>main page</p>\n</body>\n</html>\n";
+
+  private static final String SQUARE_PAGE = "<html>\n<head>\n  <meta name=\"layout\" content=\"layout/main.html\"/>\n</head>\n<body>\n[#if true]<p>square</p>[/#if]\n</body>\n</html>\n";
+
+  @Test
+  public void render_sameAsTextualMerge() throws Exception {
+
+    Configuration textual = configuration(false);
+    Configuration runtime = configuration(true);
+    for (String name : new String[]{"page.html", "mainPage.html", "squarePage.html"}) {
+      String expected = render(textual, name);
+      assertThat(render(runtime, name)).isEqualTo(expected);
+    }
+    assertThat(render(runtime, "page.html"))
+      .contains("  <title>Page rob</title>\n")
+      .contains("<body onload=\"init()\">\n")
+      .contains("<h1><a href=\"/\">Home</a><span class=\"sep\">&nbsp;/&nbsp;</span><span class=\"last\">Docs</span></h1>")
+      .contains("<p class=\"\">Docs $unknown</p>")
+      .contains("<nav>page nav $footer docs</nav>")
+      .contains("<p>M active &copy; main</p>");
+  }
+
+  @Test
+  public void page_includesSharedLayoutTemplate() throws IOException {
+
+    InheritLayoutTemplateLoader loader = loader(true);
+    String page = IOUtil.read(loader.getReader(loader.findTemplateSource("page.html"), "UTF-8"));
+    assertThat(page).startsWith("<#include \"/layout/section.html@layout\">\n");
+    assertThat(page).doesNotContain("section nav").doesNotContain("main.js");
+
+    String section = IOUtil.read(loader.getReader(loader.findTemplateSource("layout/section.html@layout"), "UTF-8"));
+    assertThat(section).startsWith("<#include \"/layout/main.html@layout\">\n<#macro __layout_layout_section_html ");
+
+    String square = IOUtil.read(loader.getReader(loader.findTemplateSource("squarePage.html"), "UTF-8"));
+    assertThat(square).doesNotContain("<#include").contains("main.js");
+  }
+
+  @Test
+  public void invalidate_includesLayoutTemplate() throws IOException {
+
+    InheritLayoutTemplateLoader loader = loader(true);
+    IOUtil.read(loader.getReader(loader.findTemplateSource("page.html"), "UTF-8"));
+    IOUtil.read(loader.getReader(loader.findTemplateSource("layout/section.html@layout"), "UTF-8"));
+
+    assertThat(loader.invalidate("layout/main.html"))
+      .contains("layout/main.html", "layout/main.html@layout", "page.html", "layout/section.html@layout");
+  }
+
+  private String render(Configuration configuration, String name) throws IOException, TemplateException {
+    Template template = configuration.getTemplate(name);
+    Map<String, Object> model = Collections.singletonMap("user", "rob");
+    StringWriter writer = new StringWriter();
+    template.process(model, writer);
+    return writer.toString();
+  }
+
+  private Configuration configuration(boolean runtimeComposition) {
+    Configuration configuration = new Configuration();
+    configuration.setTemplateLoader(loader(runtimeComposition));
+    return configuration;
+  }
+
+  private InheritLayoutTemplateLoader loader(boolean runtimeComposition) {
+    StringTemplateLoader templates = new StringTemplateLoader();
+    templates.putTemplate("layout/main.html", MAIN);
+    templates.putTemplate("layout/section.html", SECTION);
+    templates.putTemplate("page.html", PAGE);
+    templates.putTemplate("mainPage.html", MAIN_PAGE);
+    templates.putTemplate("squarePage.html", SQUARE_PAGE);
+
+    LayoutLoaderBuilder builder = new LayoutLoaderBuilder();
+    builder.setTemplateLoader(templates);
+    builder.setRuntimeComposition(runtimeComposition);
+    return builder.build();
+  }
+}
@@ -0,0 +1,79 @@
+package org.avaje.freemarker.layout;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LayoutPlanTest {
+
+  private static final String MAIN = "<!doctype html>\n<html>\n<head>\n  <title>Main</title>\n  <meta charset=\"utf-8\">\n"
+    + "  <meta id=\"layout-head\"/>\n  <script src=\"main.js\"></script>\n  <meta name=\"bread0\" content=\"Home\" href=\"/\"/>\n"
+    + "  <var id=\"footer\">main footer</var>\n</head>\n<body class=\"main\">\n<h1>$breadcrumb</h1>\n<div id=\"layout-body\"></div>\n<footer>$footer</footer>\n</body>\n</html>";
+
+  private static final String SECTION = "<html>\n<head>\n  <meta name=\"layout\" content=\"main.html\"/>\n  <link href=\"section.css\"/>\n"
+    + "  <meta id=\"layout-head\"/>\n  <meta name=\"bread1\" content=\"Docs\" href=\"/docs\"/>\n</head>\n<body>\n<nav>$nav</nav>\n<div id=\"layout-body\"></div>\n</body>\n</html>";
+
+  @Test
+  public void render() {
+
+    PageContent main = new PageContent("main.html", MAIN);
+    PageContent page = page("One", "<p>one</p>");
+
+    String content = main.plan().render(LayoutPlan.of(page)).toString();
+
+    assertThat(content).isEqualTo("<!doctype html>\n<html>\n<head>\n  <title>One</title>\n  <meta charset=\"utf-8\">\n"
+      + "  <link href=\"page.css\"/>\n  <script src=\"main.js\"></script>\n</head>\n<body class=\"page\">\n"
+      + "<h1><a href=\"/\">Home</a><span class=\"sep\">&nbsp;/&nbsp;</span><span class=\"last\">Page</span></h1>\n"
+      + "\n<p>one</p>\n\n<footer>page footer</footer>\n</body>\n</html>\n");
+  }
+
+  @Test
+  public void render_nested() {
+
+    PageContent main = new PageContent("main.html", MAIN);
+    PageContent section = new PageContent("section.html", SECTION);
+    PageContent page = page("One", "<p>one</p>");
+
+    LayoutPlan.Merged merged = section.plan().merge(LayoutPlan.of(page));
+    String content = main.plan().render(merged).toString();
+
+    assertThat(content).contains("  <meta charset=\"utf-8\">\n  <link href=\"section.css\"/>\n  <link href=\"page.css\"/>\n  <script src=\"main.js\"></script>\n");
+    // the page breadcrumb replaces the section breadcrumb of the same name
+    assertThat(content).contains("<h1><a href=\"/\">Home</a><span class=\"sep\">&nbsp;/&nbsp;</span><span class=\"last\">Page</span></h1>");
+    assertThat(content).contains("<nav>page nav</nav>\n\n<p>one</p>\n");
+    assertThat(content).contains("<footer>page footer</footer>");
+  }
+
+  @Test
+  public void render_planReusedForChildren() {
+
+    PageContent main = new PageContent("main.html", MAIN);
+    LayoutPlan plan = main.plan();
+    assertThat(main.plan()).isSameAs(plan);
+
+    String one = plan.render(LayoutPlan.of(page("One", "<p>one</p>"))).toString();
+    String two = plan.render(LayoutPlan.of(page("Two", "<p>two</p>"))).toString();
+
+    assertThat(one).contains("<title>One</title>").contains("<p>one</p>").doesNotContain("two");
+    assertThat(two).contains("<title>Two</title>").contains("<p>two</p>").doesNotContain("one");
+  }
+
+  @Test
+  public void render_layoutVariables() {
+
+    PageContent main = new PageContent("main.html", MAIN);
+    PageContent page = new PageContent("page.html", "<html>\n<head>\n</head>\n<body>\n<p>x</p>\n</body>\n</html>");
+
+    String content = main.plan().render(LayoutPlan.of(page)).toString();
+    assertThat(content).contains("<title>Main</title>");
+    assertThat(content).contains("<footer>main footer</footer>");
+    assertThat(content).contains("<h1><span class=\"last\">Home</span></h1>");
+  }
+
+  private PageContent page(String title, String body) {
+    return new PageContent("page.html", "<html>\n<head>\n  <title>" + title + "</title>\n  <meta name=\"layout\" content=\"main.html\"/>\n"
+      + "  <link href=\"page.css\"/>\n  <meta name=\"bread1\" content=\"Page\" href=\"/page\"/>\n"
+      + "  <template id=\"footer\">page footer</template>\n  <var id=\"nav\">page nav</var>\n</head>\n"
+      + "<body class=\"page\">\n" + body + "\n</body>\n</html>");
+  }
+}
@@ -0,0 +1,70 @@
+package org.avaje.freemarker.layout;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class LayoutPrecompilerTest {
+
+  @Test
+  public void precompile() throws IOException {
+
+    Path output = Files.createTempDirectory("precompiled");
+    LayoutPrecompiler precompiler = new LayoutPrecompiler(new File("src/test/resources/templates"), output.toFile());
+
+    assertThat(precompiler.precompile()).isGreaterThan(10);
+
+    String content = new String(Files.readAllBytes(output.resolve("withNestedLayout.html")), StandardCharsets.UTF_8);
+    assertThat(content).contains("<div>parent before main content</div>");
+    assertThat(content).contains("<div>my nested page content</div>");
+    assertThat(content).doesNotContain("<meta name=\"layout\"");
+  }
+
+  @Test
+  public void precompile_reportsAllErrors() throws IOException {
+
+    Path source = Files.createTempDirectory("templates");
+    write(source, "missingLayout.html", "<html>\n<head>\n<meta name=\"layout\" content=\"layout/doesNotExist.html\"/>\n</head>\n<body></body>\n</html>");
+    write(source, "missingHeadEnd.html", "<html>\n<head>\n<title>Oops</title>\n<body></body>\n</html>");
+    write(source, "ok.html", "<html>\n<body>ok</body>\n</html>");
+
+    Path output = Files.createTempDirectory("precompiled");
+    LayoutPrecompiler precompiler = new LayoutPrecompiler(source.toFile(), output.toFile());
+
+    assertThatThrownBy(precompiler::precompile)
+      .isInstanceOf(IOException.class)
+      .hasMessageContaining("Failed to precompile 2 template(s)")
+      .hasMessageContaining("missingLayout.html - layout not found: layout/doesNotExist.html")
+      .hasMessageContaining("missingHeadEnd.html");
+
+    assertThat(Files.exists(output.resolve("ok.html"))).isTrue();
+  }
+
+  @Test
+  public void precompile_copiesOtherFiles() throws IOException {
+
+    Path source = Files.createTempDirectory("templates");
+    write(source, "page.html", "<html>\n<body>page</body>\n</html>");
+    byte[] image = {(byte) 0x89, 'P', 'N', 'G', (byte) 0xFF, (byte) 0xFE, 0, (byte) 0xC3};
+    Files.createDirectories(source.resolve("img"));
+    Files.write(source.resolve("img/logo.png"), image);
+
+    Path output = Files.createTempDirectory("precompiled");
+    LayoutPrecompiler precompiler = new LayoutPrecompiler(source.toFile(), output.toFile());
+
+    assertThat(precompiler.precompile()).isEqualTo(1);
+    assertThat(Files.readAllBytes(output.resolve("img/logo.png"))).isEqualTo(image);
+    assertThat(Files.exists(output.resolve("page.html"))).isTrue();
+  }
+
+  private void write(Path dir, String name, String content) throws IOException {
+    Files.write(dir.resolve(name), content.getBytes(StandardCharsets.UTF_8));
+  }
+}
@@ -0,0 +1,68 @@
+package org.avaje.freemarker.layout;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class LayoutTokensTest {
+
+  @Test
+  public void page_markers() {
+
+    String page = "<html><head><title>T</title><meta name=\"layout\" content=\"main.html\"/>"
+      + "<meta name=\"bread1\" content=\"Docs\" href=\"/docs\"/><meta id=\"layout-head\"/>"
+      + "<template id=\"x\"><title>not</title></template><var id=\"y\">Y</var></head>"
+      + "<body class=\"a\"><div id=\"layout-body\"></div><p>x</p><div id=\"layout-body\"></div></body></html>";
+
+    LayoutTokens tokens = LayoutTokens.page("page.html", page);
+
+    List<LayoutTokens.Token> head = tokens.headTokens();
+    List<LayoutTokens.Type> types = new ArrayList<>();
+    for (LayoutTokens.Token token : head) {
+      types.add(token.type);
+    }
+    assertThat(types).containsExactly(
+      LayoutTokens.Type.TITLE, LayoutTokens.Type.LAYOUT, LayoutTokens.Type.CRUMB,
+      LayoutTokens.Type.LAYOUT_HEAD, LayoutTokens.Type.TEMPLATE, LayoutTokens.Type.VAR);
+    assertThat(head.get(0).value).isEqualTo("T");
+    assertThat(head.get(1).value).isEqualTo("main.html");
+    assertThat(head.get(2).name).isEqualTo("bread1");
+    assertThat(head.get(2).href).isEqualTo("/docs");
+
+    assertThat(tokens.headStart).isEqualTo(page.indexOf("<head>"));
+    assertThat(tokens.headEnd).isEqualTo(page.indexOf("</head>"));
+    assertThat(tokens.bodyTagStart).isEqualTo(page.indexOf("<body"));
+    assertThat(tokens.bodyEnd).isEqualTo(page.indexOf("</body>"));
+    int[] layoutBody = tokens.layoutBodyPositions();
+    assertThat(layoutBody.length).isEqualTo(2);
+    assertThat(layoutBody[0]).isEqualTo(page.indexOf(Tags.layoutBodyTag));
+    assertThat(layoutBody[1]).isEqualTo(page.lastIndexOf(Tags.layoutBodyTag));
+
+    Map<String, String> variables = new LinkedHashMap<>();
+    tokens.readVariables(variables);
+    assertThat(variables.get("x")).isEqualTo("<title>not</title>");
+    assertThat(variables.get("y")).isEqualTo("Y");
+  }
+
+  @Test
+  public void headContent_notDependentOnLines() {
+
+    String page = "<html><head><title>T</title><meta name=\"layout\" content=\"main.html\"/><link href=\"a.css\"/></head><body></body></html>";
+    PageContent content = new PageContent("page.html", page);
+
+    assertThat(content.getParentLayout()).isEqualTo("main.html");
+    assertThat(content.renderContent()).contains("  <title>T</title>\n<link href=\"a.css\"/>\n</head>");
+  }
+
+  @Test
+  public void headNotClosed() {
+    assertThatThrownBy(() -> LayoutTokens.page("page.html", "<html><head><title>T</title><body></body>"))
+      .hasMessageContaining("'</head>' tag not found");
+  }
+}
@@ -0,0 +1,134 @@
+package org.avaje.freemarker.layout;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MergedSourceCacheTest {
+
+  private static final String LAYOUT = "<html>\n<head>\n<title>Layout</title>\n<meta id=\"layout-head\"/>\n</head>\n<body>\n<div id=\"layout-body\"></div>\n</body>\n</html>";
+
+  private static final String PAGE = "<html>\n<head>\n<title>Page</title>\n<meta name=\"layout\" content=\"layout.html\"/>\n</head>\n<body>\n<div>page</div>\n</body>\n</html>";
+
+  @Test
+  public void restart_servesFromCache() throws IOException {
+
+    Path dir = Files.createTempDirectory("merged");
+    MapSource source = new MapSource();
+
+    String merged = create(dir, source).getSource("page.html", "UTF-8");
+
+    HistogramLayoutMetrics metrics = new HistogramLayoutMetrics();
+    RawTemplateInherit restarted = create(dir, source, metrics);
+    assertThat(restarted.getSource("page.html", "UTF-8")).isEqualTo(merged);
+    assertThat(restarted.layoutChain("page.html")).containsExactly("layout.html");
+    assertThat(metrics.getMergedSourceCacheHits()).isEqualTo(1L);
+    assertThat(metrics.getMergeTimes().get("page.html").getCount()).isEqualTo(1L);
+    assertThat(metrics.getLayoutDepths().get("page.html")).isEqualTo(1);
+    assertThat(metrics.getInputLength()).isEqualTo(PAGE.length() + LAYOUT.length());
+    // served without reading the unmodified layout
+    assertThat(source.reads).containsEntry("page.html", 2).containsEntry("layout.html", 1);
+  }
+
+  @Test
+  public void touchedLayout_servedFromCacheByHash() throws IOException {
+
+    Path dir = Files.createTempDirectory("merged");
+    MapSource source = new MapSource();
+    String merged = create(dir, source).getSource("page.html", "UTF-8");
+
+    source.lastModified++;
+
+    HistogramLayoutMetrics metrics = new HistogramLayoutMetrics();
+    assertThat(create(dir, source, metrics).getSource("page.html", "UTF-8")).isEqualTo(merged);
+    assertThat(metrics.getMergedSourceCacheHits()).isEqualTo(1L);
+  }
+
+  @Test
+  public void differentLayoutResolver_notServedFromCache() throws IOException {
+
+    Path dir = Files.createTempDirectory("merged");
+    MapSource source = new MapSource();
+    source.sources.put("themed.html", LAYOUT.replace("<body>", "<body>\n<nav>themed</nav>"));
+    create(dir, source).getSource("page.html", "UTF-8");
+
+    LayoutLoaderBuilder builder = new LayoutLoaderBuilder();
+    builder.setMergedSourceCacheDir(dir);
+    builder.setLayoutResolver(layoutName -> "themed.html");
+    RawTemplateInherit themed = new RawTemplateInherit(builder, source);
+    assertThat(themed.getSource("page.html", "UTF-8")).contains("<nav>themed</nav>");
+    assertThat(themed.layoutChain("page.html")).containsExactly("themed.html");
+  }
+
+  @Test
+  public void changedLayout_notServedFromCache() throws IOException {
+
+    Path dir = Files.createTempDirectory("merged");
+    MapSource source = new MapSource();
+    create(dir, source).getSource("page.html", "UTF-8");
+
+    source.sources.put("layout.html", LAYOUT.replace("<body>", "<body>\n<nav>changed</nav>"));
+    source.lastModified++;
+
+    String merged = create(dir, source).getSource("page.html", "UTF-8");
+    assertThat(merged).contains("<nav>changed</nav>");
+    assertThat(create(dir, source).getSource("page.html", "UTF-8")).isEqualTo(merged);
+  }
+
+  @Test
+  public void corruptEntry_ignored() throws IOException {
+
+    Path dir = Files.createTempDirectory("merged");
+    MapSource source = new MapSource();
+    String merged = create(dir, source).getSource("page.html", "UTF-8");
+
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+      for (Path file : files) {
+        Files.write(file, "junk".getBytes(StandardCharsets.UTF_8));
+      }
+    }
+    assertThat(create(dir, source).getSource("page.html", "UTF-8")).isEqualTo(merged);
+  }
+
+  private RawTemplateInherit create(Path dir, MapSource source) {
+    return create(dir, source, LayoutMetrics.NOOP);
+  }
+
+  private RawTemplateInherit create(Path dir, MapSource source, LayoutMetrics metrics) {
+    LayoutLoaderBuilder builder = new LayoutLoaderBuilder();
+    builder.setMergedSourceCacheDir(dir);
+    builder.setMetrics(metrics);
+    return new RawTemplateInherit(builder, source);
+  }
+
+  private static class MapSource implements RawTemplateSource {
+
+    final Map<String, String> sources = new HashMap<>();
+    final Map<String, Integer> reads = new HashMap<>();
+    long lastModified = 1;
+
+    MapSource() {
+      sources.put("layout.html", LAYOUT);
+      sources.put("page.html", PAGE);
+    }
+
+    @Override
+    public String getSource(String templateName, String encoding) {
+      reads.merge(templateName, 1, Integer::sum);
+      return sources.get(templateName);
+    }
+
+    @Override
+    public long getLastModified(String templateName) {
+      return lastModified;
+    }
+  }
+}
@@ -0,0 +1,112 @@
+package org.avaje.freemarker.layout;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class RawTemplateInheritTest {
+
+  private static final String LAYOUT = "<html>\n<head>\n<title>Layout</title>\n<meta id=\"layout-head\"/>\n</head>\n<body>\n<div id=\"layout-body\"></div>\n</body>\n</html>";
+
+  private static final String PAGE = "<html>\n<head>\n<title>Page</title>\n<meta name=\"layout\" content=\"layout.html\"/>\n</head>\n<body>\n<div>page</div>\n</body>\n</html>";
+
+  @Test
+  public void concurrentMerges_shareSingleMerge() throws Exception {
+
+    BlockingSource source = new BlockingSource(PAGE);
+    HistogramLayoutMetrics metrics = new HistogramLayoutMetrics();
+    RawTemplateInherit inherit = create(source, metrics);
+
+    int threads = 8;
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<String>> results = new ArrayList<>();
+      for (int i = 0; i < threads; i++) {
+        results.add(executor.submit(() -> inherit.getSource("page.html", "UTF-8")));
+      }
+      awaitJoined(metrics, threads - 1);
+      source.release.countDown();
+
+      for (Future<String> result : results) {
+        assertThat(result.get(10, TimeUnit.SECONDS)).contains("<div>page</div>");
+      }
+    } finally {
+      executor.shutdown();
+    }
+    assertThat(source.pageReads.get()).isEqualTo(1);
+    assertThat(metrics.getMergesJoined()).isEqualTo((long) threads - 1);
+  }
+
+  @Test
+  public void concurrentMerges_shareFailure() throws Exception {
+
+    BlockingSource source = new BlockingSource(null);
+    HistogramLayoutMetrics metrics = new HistogramLayoutMetrics();
+    RawTemplateInherit inherit = create(source, metrics);
+
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      Future<String> first = executor.submit(() -> inherit.getSource("page.html", "UTF-8"));
+      Future<String> second = executor.submit(() -> inherit.getSource("page.html", "UTF-8"));
+      awaitJoined(metrics, 1);
+      source.release.countDown();
+
+      assertThatThrownBy(() -> first.get(10, TimeUnit.SECONDS)).hasMessageContaining("template not found");
+      assertThatThrownBy(() -> second.get(10, TimeUnit.SECONDS)).hasMessageContaining("template not found");
+    } finally {
+      executor.shutdown();
+    }
+
+    // not left in progress after the failure
+    source.page = PAGE;
+    assertThat(inherit.getSource("page.html", "UTF-8")).contains("<div>page</div>");
+  }
+
+  private RawTemplateInherit create(RawTemplateSource source, LayoutMetrics metrics) {
+    LayoutLoaderBuilder builder = new LayoutLoaderBuilder();
+    builder.setMetrics(metrics);
+    return new RawTemplateInherit(builder, source);
+  }
+
+  private void awaitJoined(HistogramLayoutMetrics metrics, int joined) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 10000;
+    while (metrics.getMergesJoined() < joined && System.currentTimeMillis() < deadline) {
+      Thread.sleep(5);
+    }
+  }
+
+  private static class BlockingSource implements RawTemplateSource {
+
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger pageReads = new AtomicInteger();
+    volatile String page;
+
+    BlockingSource(String page) {
+      this.page = page;
+    }
+
+    @Override
+    public String getSource(String templateName, String encoding) {
+      if (templateName.equals("layout.html")) {
+        return LAYOUT;
+      }
+      pageReads.incrementAndGet();
+      try {
+        release.await(10, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return page;
+    }
+  }
+}
@@ -0,0 +1,94 @@
+package org.avaje.freemarker.layout;
+
+import freemarker.cache.TemplateLoader;
+import org.avaje.freemarker.PathTemplateLoader;
+import org.avaje.freemarker.util.IOUtil;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class SharedLayoutsTest {
+
+  private static final String LAYOUT = "<html>\n<head>\n<title>Layout</title>\n<meta id=\"layout-head\"/>\n</head>\n<body>\n<nav>default</nav>\n<div id=\"layout-body\"></div>\n</body>\n</html>";
+
+  private static final String PAGE = "<html>\n<head>\n<title>Page</title>\n<meta name=\"layout\" content=\"layout.html\"/>\n</head>\n<body>\n<div>page</div>\n</body>\n</html>";
+
+  @Test
+  public void themeOverride_andSharedMerges() throws IOException {
+
+    Path root = createTemplates();
+    HistogramLayoutMetrics layoutMetrics = new HistogramLayoutMetrics();
+    SharedLayouts shared = new SharedLayouts(new PathTemplateLoader(root), 10, 10, layoutMetrics);
+
+    HistogramLayoutMetrics metrics = new HistogramLayoutMetrics();
+    TemplateLoader acme = tenant(shared, "acme", metrics);
+    TemplateLoader beta = tenant(shared, "beta", metrics);
+    TemplateLoader gamma = tenant(shared, "gamma", metrics);
+
+    assertThat(read(acme, "page.html")).contains("<nav>acme</nav>");
+    String betaPage = read(beta, "page.html");
+    assertThat(betaPage).contains("<nav>default</nav>");
+    assertThat(read(gamma, "page.html")).isEqualTo(betaPage);
+
+    // reported for each tenant including gamma that reuses the merge of beta
+    assertThat(metrics.getMergeTimes().get("page.html").getCount()).isEqualTo(3L);
+    assertThat(layoutMetrics.getLayoutCacheMisses()).isEqualTo(2L);
+  }
+
+  @Test
+  public void modifiedLayout_notShared() throws IOException {
+
+    Path root = createTemplates();
+    SharedLayouts shared = new SharedLayouts(new PathTemplateLoader(root));
+    TemplateLoader beta = tenant(shared, "beta", LayoutMetrics.NOOP);
+    read(beta, "page.html");
+
+    write(root.resolve("layout.html"), LAYOUT.replace("default", "changed"));
+    Files.setLastModifiedTime(root.resolve("layout.html"), FileTime.fromMillis(System.currentTimeMillis() + 5000));
+
+    assertThat(read(tenant(shared, "gamma", LayoutMetrics.NOOP), "page.html")).contains("<nav>changed</nav>");
+  }
+
+  @Test
+  public void cyclicLayout() throws IOException {
+
+    Path root = Files.createTempDirectory("cyclic");
+    write(root.resolve("a.html"), PAGE.replace("layout.html", "b.html"));
+    write(root.resolve("b.html"), PAGE.replace("layout.html", "a.html"));
+
+    TemplateLoader loader = InheritLayoutTemplateLoader.wrap(new PathTemplateLoader(root), null);
+    assertThatThrownBy(() -> read(loader, "a.html")).hasMessageContaining("Cyclic layout inheritance");
+  }
+
+  private TemplateLoader tenant(SharedLayouts shared, String theme, LayoutMetrics metrics) {
+    LayoutLoaderBuilder builder = new LayoutLoaderBuilder();
+    builder.setSharedLayouts(shared);
+    builder.setLayoutResolver(new ThemeLayoutResolver(shared.getTemplateLoader(), "themes/" + theme));
+    builder.setMetrics(metrics);
+    return builder.build();
+  }
+
+  private Path createTemplates() throws IOException {
+    Path root = Files.createTempDirectory("shared");
+    Files.createDirectories(root.resolve("themes/acme"));
+    write(root.resolve("layout.html"), LAYOUT);
+    write(root.resolve("themes/acme/layout.html"), LAYOUT.replace("default", "acme"));
+    write(root.resolve("page.html"), PAGE);
+    return root;
+  }
+
+  private String read(TemplateLoader loader, String name) throws IOException {
+    return IOUtil.read(loader.getReader(loader.findTemplateSource(name), "UTF-8"));
+  }
+
+  private void write(Path path, String content) throws IOException {
+    Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+  }
+}
@@ -0,0 +1,32 @@
+package org.avaje.freemarker.layout;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class StringHelperTest {
+
+  @Test
+  public void replaceString() {
+    assertThat(StringHelper.replaceString("a$x b$x c", "$x", "YY")).isEqualTo("aYY bYY c");
+    assertThat(StringHelper.replaceString("$x$x", "$x", "")).isEqualTo("");
+    assertThat(StringHelper.replaceString("aaaa", "aa", "b")).isEqualTo("bb");
+  }
+
+  @Test
+  public void replaceString_noMatch_returnsSameInstance() {
+    String source = "some content without the match";
+    assertThat(StringHelper.replaceString(source, "$x", "YY")).isSameAs(source);
+  }
+
+  @Test
+  public void replaceString_startAndEndPositions() {
+    assertThat(StringHelper.replaceString("ab ab ab", "ab", "X", 0, 1, 8)).isEqualTo("ab X X");
+    assertThat(StringHelper.replaceString("ab ab ab", "ab", "X", 0, 0, 7)).isEqualTo("X X ab");
+  }
+
+  @Test
+  public void replaceString_singleChar() {
+    assertThat(StringHelper.replaceString("a.b.c", ".", "/")).isEqualTo("a/b/c");
+  }
+}
@@ -0,0 +1,131 @@
+package org.avaje.freemarker.layout;
+
+import freemarker.cache.FileTemplateLoader;
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+import org.avaje.freemarker.ConfigurationBuilder;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Locale;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TemplateWatcherTest {
+
+  private static final String LAYOUT = "<html>\n<head>\n<title>Layout</title>\n<meta id=\"layout-head\"/>\n</head>\n<body>\n<div id=\"layout-body\"></div>\n</body>\n</html>";
+
+  private static final String PAGE = "<html>\n<head>\n<title>Page</title>\n<meta name=\"layout\" content=\"layout.html\"/>\n</head>\n<body>\n<div>page</div>\n</body>\n</html>";
+
+  @Test
+  public void changed_layout_removesInheritingTemplates() throws IOException {
+
+    Path root = createTemplates();
+    Configuration configuration = createConfiguration(root);
+
+    Template page = configuration.getTemplate("page.html");
+    Template germanPage = configuration.getTemplate("page.html", Locale.GERMAN);
+    Template other = configuration.getTemplate("other.html");
+
+    TemplateWatcher watcher = new TemplateWatcher(configuration, Collections.singletonList(root), Collections.singletonList(Locale.GERMAN));
+    try {
+      watcher.changed(root.resolve("layout.html"));
+    } finally {
+      watcher.close();
+    }
+
+    assertThat(configuration.getTemplate("page.html")).isNotSameAs(page);
+    assertThat(configuration.getTemplate("page.html", Locale.GERMAN)).isNotSameAs(germanPage);
+    assertThat(configuration.getTemplate("other.html")).isSameAs(other);
+  }
+
+  @Test
+  public void changed_unknownLocales_clearsTemplateCache() throws IOException {
+
+    Path root = createTemplates();
+    Configuration configuration = createConfiguration(root);
+
+    Template germanPage = configuration.getTemplate("page.html", Locale.GERMAN, "ISO-8859-1");
+    Template other = configuration.getTemplate("other.html");
+
+    TemplateWatcher watcher = new TemplateWatcher(configuration, Collections.singletonList(root));
+    try {
+      watcher.changed(root.resolve("layout.html"));
+    } finally {
+      watcher.close();
+    }
+
+    assertThat(configuration.getTemplate("page.html", Locale.GERMAN, "ISO-8859-1")).isNotSameAs(germanPage);
+    assertThat(configuration.getTemplate("other.html")).isNotSameAs(other);
+  }
+
+  @Test
+  public void changed_themeLayout_removesPagesUsingDefaultLayout() throws IOException {
+
+    Path root = createTemplates();
+    Files.createDirectories(root.resolve("themes/acme"));
+    LayoutLoaderBuilder loaderBuilder = new LayoutLoaderBuilder();
+    loaderBuilder.setTemplateLoader(new FileTemplateLoader(root.toFile()));
+    loaderBuilder.setLayoutResolver(new ThemeLayoutResolver(new FileTemplateLoader(root.toFile()), "themes/acme"));
+    ConfigurationBuilder builder = new ConfigurationBuilder();
+    builder.setTemplateUpdateDelay(Integer.MAX_VALUE);
+    builder.setTemplateLoader(loaderBuilder.build());
+    Configuration configuration = builder.build();
+
+    assertThat(configuration.getTemplate("page.html").toString()).doesNotContain("acme");
+
+    write(root.resolve("themes/acme/layout.html"), LAYOUT.replace("<body>", "<body>\n<nav>acme</nav>"));
+    TemplateWatcher watcher = new TemplateWatcher(configuration, Collections.singletonList(root), Collections.singletonList(Locale.US));
+    try {
+      watcher.changed(root.resolve("themes/acme/layout.html"));
+    } finally {
+      watcher.close();
+    }
+
+    assertThat(configuration.getTemplate("page.html").toString()).contains("<nav>acme</nav>");
+  }
+
+  @Test
+  public void watch_reloadsChangedLayout() throws Exception {
+
+    Path root = createTemplates();
+    Configuration configuration = createConfiguration(root);
+    configuration.getTemplate("page.html");
+
+    TemplateWatcher watcher = TemplateWatcher.start(configuration, root);
+    try {
+      write(root.resolve("layout.html"), LAYOUT.replace("<body>", "<body>\n<nav>changed</nav>"));
+
+      long deadline = System.currentTimeMillis() + 10000;
+      while (!configuration.getTemplate("page.html").toString().contains("changed") && System.currentTimeMillis() < deadline) {
+        Thread.sleep(20);
+      }
+    } finally {
+      watcher.close();
+    }
+    assertThat(configuration.getTemplate("page.html").toString()).contains("<nav>changed</nav>");
+  }
+
+  private Path createTemplates() throws IOException {
+    Path root = Files.createTempDirectory("watcher");
+    write(root.resolve("layout.html"), LAYOUT);
+    write(root.resolve("page.html"), PAGE);
+    write(root.resolve("other.html"), "<p>other</p>");
+    return root;
+  }
+
+  private Configuration createConfiguration(Path root) throws IOException {
+    ConfigurationBuilder builder = new ConfigurationBuilder();
+    builder.setTemplateUpdateDelay(Integer.MAX_VALUE);
+    builder.setTemplateLoader(InheritLayoutTemplateLoader.wrap(new FileTemplateLoader(root.toFile()), null));
+    return builder.build();
+  }
+
+  private void write(Path path, String content) throws IOException {
+    Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+  }
+}
@@ -0,0 +1,54 @@
+package org.avaje.freemarker.layout;
+
+import org.junit.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class VariableReplacerTest {
+
+  @Test
+  public void replace() {
+
+    Map<String, String> vars = new LinkedHashMap<>();
+    vars.put("foo", "Hello");
+    vars.put("bar", "Bar");
+
+    VariableReplacer replacer = new VariableReplacer(vars, "<a>crumb</a>");
+    String result = replacer.replace("<h1>$breadcrumb</h1><p>$foo $bar $foo</p><p>${other} $none</p>");
+
+    assertThat(result).isEqualTo("<h1><a>crumb</a></h1><p>Hello Bar Hello</p><p>${other} $none</p>");
+  }
+
+  @Test
+  public void replace_noMatch_returnsSameInstance() {
+
+    Map<String, String> vars = new LinkedHashMap<>();
+    vars.put("foo", "Hello");
+
+    String content = "<p>${name} $other</p>";
+    assertThat(new VariableReplacer(vars, "").replace(content)).isSameAs(content);
+  }
+
+  @Test
+  public void replace_inVariableOrder() {
+
+    Map<String, String> vars = new LinkedHashMap<>();
+    vars.put("foo", "Hello");
+    vars.put("fooBar", "Unused");
+
+    assertThat(new VariableReplacer(vars, "").replace("$fooBar")).isEqualTo("HelloBar");
+  }
+
+  @Test
+  public void replace_laterVariablesInValues() {
+
+    Map<String, String> vars = new LinkedHashMap<>();
+    vars.put("nav", "<nav>$home $breadcrumb</nav>");
+    vars.put("home", "/home");
+
+    assertThat(new VariableReplacer(vars, "crumbs").replace("$nav")).isEqualTo("<nav>/home crumbs</nav>");
+  }
+}